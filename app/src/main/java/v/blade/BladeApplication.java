@@ -20,13 +20,27 @@ import android.content.Context;
 import androidx.appcompat.app.AppCompatDelegate;
 import androidx.preference.PreferenceManager;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+import okhttp3.Cache;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
 import v.blade.library.Library;
 import v.blade.sources.Source;
+import v.blade.ui.ImageResolver;
 
 public class BladeApplication extends Application
 {
@@ -37,6 +51,13 @@ public class BladeApplication extends Application
 
     private static final ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(4, 4, 1L, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
     private static final ExecutorService executorService = threadPoolExecutor;
+
+    //Application-wide http stack
+    private static final long HTTP_CACHE_SIZE = 20L * 1024 * 1024;
+    private static final int HTTP_MAX_REQUESTS = 16;
+    private static final int HTTP_MAX_REQUESTS_PER_HOST = 6;
+    private static OkHttpClient httpClient;
+
     public static Context appContext;
     public static boolean shouldDisplayFirstLaunchDialog = false;
 
@@ -76,8 +97,89 @@ public class BladeApplication extends Application
         });
     }
 
+    @Override
+    public void onCreate()
+    {
+        super.onCreate();
+
+        //Images : list thumbnails are scaled and cached on disk ; before any Picasso.get()
+        ImageResolver.setupPicasso(this);
+    }
+
     public static ExecutorService obtainExecutorService()
     {
         return executorService;
     }
+
+    /**
+     * Obtains the http client shared by every network source : one connection pool (HTTP/2
+     * connections are kept alive and multiplexed between requests), one disk cache, and a limit on
+     * concurrent requests per host (for synchronous calls too, which the dispatcher does not limit)
+     */
+    public static synchronized OkHttpClient obtainHttpClient()
+    {
+        if(httpClient == null)
+        {
+            Dispatcher dispatcher = new Dispatcher();
+            dispatcher.setMaxRequests(HTTP_MAX_REQUESTS);
+            dispatcher.setMaxRequestsPerHost(HTTP_MAX_REQUESTS_PER_HOST);
+
+            httpClient = new OkHttpClient.Builder()
+                    .connectionPool(new ConnectionPool(8, 5, TimeUnit.MINUTES))
+                    .cache(new Cache(new File(appContext.getCacheDir(), "http"), HTTP_CACHE_SIZE))
+                    .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                    .dispatcher(dispatcher)
+                    .addInterceptor(new HostLimitInterceptor(HTTP_MAX_REQUESTS_PER_HOST))
+                    .connectTimeout(15, TimeUnit.SECONDS)
+                    .readTimeout(30, TimeUnit.SECONDS)
+                    .build();
+        }
+        return httpClient;
+    }
+
+    /**
+     * Limits the number of concurrent requests to the same host
+     */
+    private static class HostLimitInterceptor implements Interceptor
+    {
+        private final int maxPerHost;
+        private final ConcurrentHashMap<String, Semaphore> hosts = new ConcurrentHashMap<>();
+
+        private HostLimitInterceptor(int maxPerHost)
+        {
+            this.maxPerHost = maxPerHost;
+        }
+
+        @Override
+        public Response intercept(Chain chain) throws IOException
+        {
+            String host = chain.request().url().host();
+            Semaphore permits = hosts.get(host);
+            if(permits == null)
+            {
+                Semaphore created = new Semaphore(maxPerHost);
+                permits = hosts.putIfAbsent(host, created);
+                if(permits == null) permits = created;
+            }
+
+            try
+            {
+                permits.acquire();
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+
+            try
+            {
+                return chain.proceed(chain.request());
+            }
+            finally
+            {
+                permits.release();
+            }
+        }
+    }
 }
@@ -1,18 +1,21 @@
 package v.blade.library;
 
-import com.squareup.picasso.Picasso;
-import com.squareup.picasso.RequestCreator;
-
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 public class Album extends LibraryObject
 {
     Artist[] artists;
     List<Song> songList;
     String imageBigStr;
-    RequestCreator imageBig;
-    int imageLevel;
+    int imageLevel; //quality of the images, only replaced by images of a higher level
+    private boolean songsChanged = false; //since last publication
+    private volatile List<Song> publishedSongs = null; //immutable, sorted by track number
+    //Ingestions that obtained the album, and still use it : it is not removed from the library meanwhile
+    private int ingesting = 0;
+    private boolean removed = false;
 
     public Album(String name, Artist[] artists, String imageMiniature, String imageBig, int imageLevel)
     {
@@ -22,9 +25,69 @@ public class Album extends LibraryObject
         setImage(imageMiniature, imageBig, imageLevel);
     }
 
-    protected void addSong(Song s)
+    protected synchronized void addSong(Song s)
     {
         this.songList.add(s);
+        songsChanged = true;
+    }
+
+    /**
+     * @return true if the album has no song left
+     */
+    synchronized boolean removeSong(Song s)
+    {
+        this.songList.remove(s);
+        songsChanged = true;
+        return this.songList.isEmpty();
+    }
+
+    /**
+     * Marks the album as used by an ingestion, until release()
+     *
+     * @return false if it was removed from the library : it has to be obtained again
+     */
+    synchronized boolean acquire()
+    {
+        if(removed) return false;
+        ingesting++;
+        return true;
+    }
+
+    synchronized void release()
+    {
+        ingesting--;
+    }
+
+    /**
+     * Removes the album from the library if it still has no song left, and no ingestion uses it
+     *
+     * @return true if it was removed
+     */
+    synchronized boolean removeIfUnused(Map<AlbumKey, Album> library)
+    {
+        if(ingesting > 0 || !songList.isEmpty()) return false;
+        removed = true;
+        library.remove(AlbumKey.of(this), this);
+        return true;
+    }
+
+    /**
+     * The album is put back in the library (restored from the cache or the journal)
+     */
+    synchronized void restore()
+    {
+        removed = false;
+    }
+
+    /**
+     * Publishes the songs (sorted by track number) to getSongs(), if they changed since last publication
+     */
+    synchronized void publishSongs()
+    {
+        if(publishedSongs != null && !songsChanged) return;
+        Collections.sort(songList, (o1, o2) -> o1.track_number - o2.track_number);
+        publishedSongs = Collections.unmodifiableList(new ArrayList<>(songList));
+        songsChanged = false;
     }
 
     public Artist[] getArtists()
@@ -43,9 +106,19 @@ public class Album extends LibraryObject
         return sb.toString();
     }
 
+    /**
+     * @return the songs of the album, as of the last library generation ; an immutable list
+     */
     public List<Song> getSongs()
     {
-        return songList;
+        List<Song> published = publishedSongs;
+        if(published != null) return published;
+
+        //Not part of a library snapshot yet (e.g. album of handles)
+        synchronized(this)
+        {
+            return Collections.unmodifiableList(new ArrayList<>(songList));
+        }
     }
 
     public String getImageBigStr()
@@ -53,14 +126,12 @@ public class Album extends LibraryObject
         return imageBigStr;
     }
 
-    public void setImage(String imageMiniature, String imageBig, int imageLevel)
+    public synchronized void setImage(String imageMiniature, String imageBig, int imageLevel)
     {
         if(this.imageLevel > imageLevel) return;
 
         this.imageStr = imageMiniature;
         this.imageBigStr = imageBig;
         this.imageLevel = imageLevel;
-        this.imageBig = (imageBig == null || imageBig.equals("")) ? null : Picasso.get().load(imageBig);
-        this.imageRequest = (imageMiniature == null || imageMiniature.equals("")) ? null : Picasso.get().load(imageMiniature);
     }
 }
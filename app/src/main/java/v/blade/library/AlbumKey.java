@@ -0,0 +1,40 @@
+package v.blade.library;
+
+/**
+ * Key of an album : its first album artist and its name, ignoring case
+ */
+final class AlbumKey extends LibraryKey
+{
+    private final String artist;
+    private final String name;
+
+    AlbumKey(String artist, String name)
+    {
+        super(hash(hash(1, artist), name));
+        this.artist = artist;
+        this.name = name;
+    }
+
+    /**
+     * @param albumArtists album artists, can be null or empty
+     */
+    static AlbumKey of(String[] albumArtists, String name)
+    {
+        return new AlbumKey((albumArtists == null || albumArtists.length == 0) ? null : albumArtists[0], name);
+    }
+
+    static AlbumKey of(Album album)
+    {
+        Artist[] artists = album.artists;
+        return new AlbumKey((artists == null || artists.length == 0 || artists[0] == null) ? null : artists[0].name, album.name);
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if(this == o) return true;
+        if(!(o instanceof AlbumKey)) return false;
+        AlbumKey other = (AlbumKey) o;
+        return hashCode() == other.hashCode() && same(name, other.name) && same(artist, other.artist);
+    }
+}
@@ -1,27 +1,101 @@
 package v.blade.library;
 
-import com.squareup.picasso.Picasso;
-
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 public class Artist extends LibraryObject
 {
     List<Album> albums;
     int track_count;
+    private boolean albumsChanged = false; //since last publication
+    private volatile List<Album> publishedAlbums = null; //immutable
+    //Ingestions that obtained the artist, and still use it : it is not removed from the library meanwhile
+    private int ingesting = 0;
+    private boolean removed = false;
 
     public Artist(String name, String image)
     {
         this.albums = new ArrayList<>();
         this.name = name;
-        this.imageRequest = (image == null || image.equals("")) ? null : Picasso.get().load(image);
         this.imageStr = image;
         this.track_count = 0;
     }
 
-    protected void addAlbum(Album album)
+    protected synchronized void addAlbum(Album album)
+    {
+        this.albums.add(album);
+        albumsChanged = true;
+    }
+
+    /* Library ingestion runs on several threads : the artist guards its own albums and track count */
+    synchronized void addAlbumIfAbsent(Album album)
     {
+        if(this.albums.contains(album)) return;
         this.albums.add(album);
+        albumsChanged = true;
+    }
+
+    /**
+     * @return true if the artist has no album left
+     */
+    synchronized boolean removeAlbum(Album album)
+    {
+        if(this.albums.remove(album)) albumsChanged = true;
+        return this.albums.isEmpty();
+    }
+
+    synchronized void incrementTrackCount()
+    {
+        this.track_count++;
+    }
+
+    /**
+     * @return the new track count
+     */
+    synchronized int decrementTrackCount()
+    {
+        return --this.track_count;
+    }
+
+    /**
+     * Marks the artist as used by an ingestion, until release()
+     *
+     * @return false if it was removed from the library : it has to be obtained again
+     */
+    synchronized boolean acquire()
+    {
+        if(removed) return false;
+        ingesting++;
+        return true;
+    }
+
+    synchronized void release()
+    {
+        ingesting--;
+    }
+
+    /**
+     * Removes the artist from the library if it still has no track (or no album) left, and no
+     * ingestion uses it ; an ingestion may have obtained it since its last track was removed
+     *
+     * @return true if it was removed
+     */
+    synchronized boolean removeIfUnused(Map<ArtistKey, Artist> library, boolean noAlbum)
+    {
+        if(ingesting > 0 || (noAlbum ? !albums.isEmpty() : track_count > 0)) return false;
+        removed = true;
+        library.remove(new ArtistKey(name), this);
+        return true;
+    }
+
+    /**
+     * The artist is put back in the library (restored from the cache or the journal)
+     */
+    synchronized void restore()
+    {
+        removed = false;
     }
 
     public int getTrackCount()
@@ -29,8 +103,28 @@ public class Artist extends LibraryObject
         return track_count;
     }
 
+    /**
+     * Publishes the albums to getAlbums(), if they changed since last publication
+     */
+    synchronized void publishAlbums()
+    {
+        if(publishedAlbums != null && !albumsChanged) return;
+        publishedAlbums = Collections.unmodifiableList(new ArrayList<>(albums));
+        albumsChanged = false;
+    }
+
+    /**
+     * @return the albums of the artist, as of the last library generation ; an immutable list
+     */
     public List<Album> getAlbums()
     {
-        return albums;
+        List<Album> published = publishedAlbums;
+        if(published != null) return published;
+
+        //Not part of a library snapshot yet (e.g. artist of handles)
+        synchronized(this)
+        {
+            return Collections.unmodifiableList(new ArrayList<>(albums));
+        }
     }
 }
@@ -0,0 +1,24 @@
+package v.blade.library;
+
+/**
+ * Key of an artist : its name, ignoring case
+ */
+final class ArtistKey extends LibraryKey
+{
+    private final String name;
+
+    ArtistKey(String name)
+    {
+        super(hash(0, name));
+        this.name = name;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if(this == o) return true;
+        if(!(o instanceof ArtistKey)) return false;
+        ArtistKey other = (ArtistKey) o;
+        return hashCode() == other.hashCode() && same(name, other.name);
+    }
+}
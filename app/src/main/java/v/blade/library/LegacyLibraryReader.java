@@ -0,0 +1,301 @@
+package v.blade.library;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming reader for the legacy (json) library file
+ * The file is walked token by token, and every song is handed to the sink as soon as it is read,
+ * so that memory use is bounded by one song record instead of the whole file
+ */
+class LegacyLibraryReader
+{
+    /**
+     * Receives the songs and playlists of the legacy file, in file order
+     */
+    interface Sink<S>
+    {
+        /**
+         * @param song    song record ; only valid during the call, the sink must copy what it keeps
+         * @param handled true if the song comes from a playlist (handle), false if it is a library song
+         * @return the object representing this song, that will be passed back in playlist()
+         */
+        S song(SongRecord song, boolean handled);
+
+        void playlist(String name, List<S> songs, String art, String subtitle, int source, Object id);
+    }
+
+    /**
+     * One song of the legacy file ; the record is reused between songs
+     */
+    static class SongRecord
+    {
+        String name;
+        String album;
+        int trackNumber;
+        String albumArt;
+        String albumArtBig;
+        String[] artists;
+        String[] albumArtists;
+        int sourceCount;
+        int[] sources = new int[2];
+        Object[] ids = new Object[2];
+
+        private void clear()
+        {
+            name = null;
+            album = null;
+            trackNumber = 0;
+            albumArt = null;
+            albumArtBig = null;
+            artists = null;
+            albumArtists = null;
+            sourceCount = 0;
+        }
+
+        private void addSource(int source, Object id)
+        {
+            if(sourceCount == sources.length)
+            {
+                int[] newSources = new int[sourceCount * 2];
+                Object[] newIds = new Object[sourceCount * 2];
+                System.arraycopy(sources, 0, newSources, 0, sourceCount);
+                System.arraycopy(ids, 0, newIds, 0, sourceCount);
+                sources = newSources;
+                ids = newIds;
+            }
+            sources[sourceCount] = source;
+            ids[sourceCount] = id;
+            sourceCount++;
+        }
+    }
+
+    private final int maxVersion;
+    private final SongRecord record = new SongRecord();
+
+    LegacyLibraryReader(int maxVersion)
+    {
+        this.maxVersion = maxVersion;
+    }
+
+    /**
+     * Reads the whole legacy file into the sink
+     *
+     * @return false if the file is more recent than what we can read
+     */
+    <S> boolean read(Reader in, Sink<S> sink) throws IOException
+    {
+        JsonReader reader = new JsonReader(in);
+        try
+        {
+            reader.beginObject();
+            while(reader.hasNext())
+            {
+                switch(reader.nextName())
+                {
+                    case "version":
+                        if(reader.nextInt() > maxVersion)
+                        {
+                            System.err.println("Library cache more recent than current version; ignoring");
+                            return false;
+                        }
+                        break;
+
+                    case "library":
+                        reader.beginArray();
+                        while(reader.hasNext()) sink.song(readSong(reader), false);
+                        reader.endArray();
+                        break;
+
+                    case "playlists":
+                        reader.beginArray();
+                        while(reader.hasNext()) readPlaylist(reader, sink);
+                        reader.endArray();
+                        break;
+
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+            return true;
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    private <S> void readPlaylist(JsonReader reader, Sink<S> sink) throws IOException
+    {
+        String name = null;
+        String art = null;
+        String subtitle = "";
+        int source = 0;
+        Object id = null;
+        ArrayList<S> songs = new ArrayList<>();
+
+        reader.beginObject();
+        while(reader.hasNext())
+        {
+            switch(reader.nextName())
+            {
+                case "name":
+                    name = nextStringOrNull(reader);
+                    break;
+                case "art":
+                    art = nextStringOrNull(reader);
+                    break;
+                case "subtitle":
+                    subtitle = nextStringOrNull(reader);
+                    if(subtitle == null) subtitle = "";
+                    break;
+                case "source":
+                    source = reader.nextInt();
+                    break;
+                case "id":
+                    id = readId(reader);
+                    break;
+                case "songs":
+                    reader.beginArray();
+                    while(reader.hasNext()) songs.add(sink.song(readSong(reader), true));
+                    reader.endArray();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        sink.playlist(name, songs, art, subtitle, source, id);
+    }
+
+    private SongRecord readSong(JsonReader reader) throws IOException
+    {
+        SongRecord s = record;
+        s.clear();
+
+        reader.beginObject();
+        while(reader.hasNext())
+        {
+            switch(reader.nextName())
+            {
+                case "name":
+                    s.name = nextStringOrNull(reader);
+                    break;
+                case "album":
+                    s.album = nextStringOrNull(reader);
+                    break;
+                case "track_number":
+                    s.trackNumber = reader.nextInt();
+                    break;
+                case "album_art":
+                    s.albumArt = nextStringOrNull(reader);
+                    break;
+                case "album_art_big":
+                    s.albumArtBig = nextStringOrNull(reader);
+                    break;
+                case "artists":
+                    s.artists = readStringArray(reader);
+                    break;
+                case "album_artists":
+                    s.albumArtists = readStringArray(reader);
+                    break;
+                case "sources":
+                    reader.beginArray();
+                    while(reader.hasNext()) readSource(reader, s);
+                    reader.endArray();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        if(s.name == null || s.album == null || s.artists == null || s.albumArtists == null || s.sourceCount == 0)
+            throw new IOException("Incomplete song record in legacy library at " + reader.getPath());
+
+        return s;
+    }
+
+    private static void readSource(JsonReader reader, SongRecord s) throws IOException
+    {
+        int source = 0;
+        Object id = null;
+
+        reader.beginObject();
+        while(reader.hasNext())
+        {
+            switch(reader.nextName())
+            {
+                case "source":
+                    source = reader.nextInt();
+                    break;
+                case "id":
+                    id = readId(reader);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        s.addSource(source, id);
+    }
+
+    /**
+     * Reads a source id : sources use either numbers (local media ids) or strings
+     */
+    private static Object readId(JsonReader reader) throws IOException
+    {
+        JsonToken token = reader.peek();
+        if(token == JsonToken.NUMBER)
+        {
+            String number = reader.nextString();
+            try
+            {
+                long value = Long.parseLong(number);
+                if(value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) return (int) value;
+                return value;
+            }
+            catch(NumberFormatException e)
+            {
+                return Double.parseDouble(number);
+            }
+        }
+        if(token == JsonToken.NULL)
+        {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    private static String[] readStringArray(JsonReader reader) throws IOException
+    {
+        ArrayList<String> values = new ArrayList<>();
+        reader.beginArray();
+        while(reader.hasNext()) values.add(nextStringOrNull(reader));
+        reader.endArray();
+        return values.toArray(new String[0]);
+    }
+
+    private static String nextStringOrNull(JsonReader reader) throws IOException
+    {
+        if(reader.peek() == JsonToken.NULL)
+        {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+}
@@ -1,23 +1,21 @@
 package v.blade.library;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import v.blade.BladeApplication;
 import v.blade.R;
@@ -28,7 +26,10 @@ import v.blade.ui.LibraryFragment;
 public class Library
 {
     private static final String LIBRARY_FILE = "/library.json";
-    private static final int LIBRARY_CACHE_VERSION = 1;
+    private static final String LIBRARY_CACHE_FILE = "/library.bin";
+    private static final String LIBRARY_JOURNAL_FILE = "/library.journal";
+    private static final int LIBRARY_JSON_VERSION = 1;
+    private static final int LIBRARY_CACHE_VERSION = 4;
 
     /*
      * In order to update the library, we need to add 'objects' from every source
@@ -37,9 +38,9 @@ public class Library
      * However, in the end we will need a list ; see below the sorted lists, generated
      * at the end of library modification
      */
-    private static HashMap<String, Artist> library_artists = new HashMap<>();
-    private static HashMap<String, Album> library_albums = new HashMap<>();
-    private static HashMap<String, Song> library_songs = new HashMap<>();
+    private static volatile ConcurrentHashMap<ArtistKey, Artist> library_artists = new ConcurrentHashMap<>();
+    private static volatile ConcurrentHashMap<AlbumKey, Album> library_albums = new ConcurrentHashMap<>();
+    private static volatile ConcurrentHashMap<SongKey, Song> library_songs = new ConcurrentHashMap<>();
     private static ArrayList<Playlist> library_playlists = new ArrayList<>();
 
     /*
@@ -47,129 +48,208 @@ public class Library
      * For example, songs inside of playlists that are not in the library, or when
      * doing a web search
      */
-    private static HashMap<String, Artist> handled_artists = new HashMap<>();
-    private static HashMap<String, Album> handled_albums = new HashMap<>();
-    private static HashMap<String, Song> handled_songs = new HashMap<>();
+    private static volatile ConcurrentHashMap<ArtistKey, Artist> handled_artists = new ConcurrentHashMap<>();
+    private static volatile ConcurrentHashMap<AlbumKey, Album> handled_albums = new ConcurrentHashMap<>();
+    private static volatile ConcurrentHashMap<SongKey, Song> handled_songs = new ConcurrentHashMap<>();
+
+    /* Handles of the library cache that may not be built yet (see LibraryCache) ; null if they are all built */
+    private static volatile LibraryCache.CachedHandles cachedHandles;
+
+    /*
+     * Mutations done outside of a synchronization (add to library, add to playlist, ...) are
+     * appended to this journal instead of rewriting the whole library ; the journal lock also
+     * guards the copy of the library saved in a snapshot, so that a mutation is either in the
+     * snapshot or in a journal generation after it
+     */
+    private static final LibraryJournal journal = new LibraryJournal(LIBRARY_JOURNAL_FILE);
+    private static final Object saveLock = new Object();
+
+    /* Library songs in every order, maintained as songs are added and removed */
+    private static final SongOrderings songOrderings = new SongOrderings();
+
+    /* Library songs, albums and artists (and handles) by words of their names, maintained as they are added
+     * and removed ; null while it has to be built again, by the next generateLists() */
+    private static volatile SearchIndex searchIndex;
 
-    /* Those are *sorted* lists, generated by sorting the content of HashMaps */
-    private static ArrayList<Artist> artists_list = new ArrayList<>();
-    private static ArrayList<Album> albums_list = new ArrayList<>();
-    private static ArrayList<Song> songs_list = new ArrayList<>();
+    /* The *sorted* lists and the search index, as of the last generateLists() ; replaced as a whole */
+    private static volatile LibrarySnapshot snapshot = LibrarySnapshot.EMPTY;
+    private static final Object snapshotLock = new Object();
+    private static final Object generateLock = new Object();
+
+    private static final int SEARCH_LIMIT = 200; //results of each kind
+    private static final LiveSearch liveSearch = new LiveSearch(SEARCH_LIMIT);
+
+    /**
+     * @return the current library snapshot ; readers that need several lists (or need them to stay
+     * consistent while they iterate) should keep it, instead of calling the getters below again
+     */
+    public static LibrarySnapshot getSnapshot()
+    {
+        return snapshot;
+    }
 
     public static List<Artist> getArtists()
     {
-        return artists_list;
+        return snapshot.getArtists();
     }
 
     public static List<Album> getAlbums()
     {
-        return albums_list;
+        return snapshot.getAlbums();
     }
 
     public static List<Song> getSongs()
     {
-        return songs_list;
+        return snapshot.getSongs();
+    }
+
+    /**
+     * @return the library songs in that order ; an immutable list, that is not copied nor sorted
+     * again unless the library changed
+     */
+    public static List<Song> getSongs(SongOrderings.Order order)
+    {
+        return snapshot.getSongs(order);
     }
 
     public static List<Playlist> getPlaylists()
     {
-        return library_playlists;
+        return snapshot.getPlaylists();
     }
 
-    public static synchronized Song addSong(String title, String album, String[] artists, Source source, Object sourceId,
-                                            String[] albumArtists, String albumMiniatureURL, int track_number, String[] artistMiniaturesUrl,
-                                            String[] albumArtistsMiniatureUrl, String albumImageURL, int albumImageLevel)
+    /*
+     * Library ingestion (addSong, addSongHandle, addSongFromHandle) can be called concurrently by
+     * all sources during a synchronization, and with removals (e.g. the sweep of another source) :
+     * entities are obtained with an atomic get-or-create on the concurrent maps, and each
+     * artist/album/song guards its own mutable state. The library song or handle of a key is only
+     * created, promoted or removed under the lock of that key in library_songs ; artists and albums
+     * obtained by an ingestion are not removed from the library until it releases them.
+     */
+
+    private static Artist obtainArtist(ConcurrentHashMap<ArtistKey, Artist> map, ArtistKey key, String name, String image)
     {
-        /* obtain song artists and album artists */
-        Artist[] sartists = new Artist[artists.length];
-        for(int i = 0; i < sartists.length; i++)
-        {
-            Artist current = library_artists.get(artists[i].toLowerCase());
+        Artist artist = map.get(key);
+        if(artist != null) return artist;
 
-            if(current == null)
-            {
-                current = new Artist(artists[i], artistMiniaturesUrl[i]);
-                library_artists.put(current.name.toLowerCase(), current);
-            }
+        Artist created = new Artist(name, image);
+        artist = map.putIfAbsent(key, created);
+        if(artist != null) return artist;
 
-            sartists[i] = current;
-        }
+        if(map == library_artists) index(created, false);
+        return created;
+    }
 
-        Artist[] saartists = new Artist[albumArtists.length];
-        for(int i = 0; i < saartists.length; i++)
+    /**
+     * Obtains a library artist, that is not removed from the library until released
+     */
+    private static Artist acquireArtist(String name, String image)
+    {
+        ArtistKey key = new ArtistKey(name);
+        while(true)
         {
-            Artist current = library_artists.get(albumArtists[i].toLowerCase());
+            Artist artist = obtainArtist(library_artists, key, name, image);
+            if(artist.acquire()) return artist;
+            //Removed from the library meanwhile : it is not in the map anymore
+        }
+    }
 
-            if(current == null)
+    /**
+     * Obtains a library album, that is not removed from the library until released
+     */
+    private static Album acquireAlbum(AlbumKey key, String name, Artist[] albumArtists, String imageMiniature,
+                                      String imageBig, int imageLevel)
+    {
+        while(true)
+        {
+            Album album = library_albums.get(key);
+            if(album == null)
             {
-                current = new Artist(albumArtists[i], albumArtistsMiniatureUrl[i]);
-                library_artists.put(current.name.toLowerCase(), current);
+                Album created = new Album(name, albumArtists, imageMiniature, imageBig, imageLevel);
+                album = library_albums.putIfAbsent(key, created);
+                if(album == null)
+                {
+                    album = created;
+                    for(Artist a : albumArtists) a.addAlbumIfAbsent(album);
+                    index(album, false);
+                }
             }
-
-            saartists[i] = current;
+            if(album.acquire()) return album;
         }
+    }
+
+    private static void release(Artist[] artists)
+    {
+        for(Artist a : artists) a.release();
+    }
+
+    public static Song addSong(String title, String album, String[] artists, Source source, Object sourceId,
+                               String[] albumArtists, String albumMiniatureURL, int track_number, String[] artistMiniaturesUrl,
+                               String[] albumArtistsMiniatureUrl, String albumImageURL, int albumImageLevel)
+    {
+        /* obtain song artists and album artists */
+        Artist[] sartists = new Artist[artists.length];
+        for(int i = 0; i < sartists.length; i++)
+            sartists[i] = acquireArtist(artists[i], artistMiniaturesUrl[i]);
+
+        Artist[] saartists = new Artist[albumArtists.length];
+        for(int i = 0; i < saartists.length; i++)
+            saartists[i] = acquireArtist(albumArtists[i], albumArtistsMiniatureUrl[i]);
 
         /* obtain song album */
-        //noinspection ConstantConditions
-        Album salbum = library_albums.get(((albumArtists == null || albumArtists[0] == null) ? "null" : albumArtists[0].toLowerCase()) + ":" + album.toLowerCase());
-        if(salbum == null)
-        {
-            salbum = new Album(album, saartists, albumMiniatureURL, albumImageURL, albumImageLevel);
-            //noinspection ConstantConditions
-            library_albums.put(((albumArtists == null || albumArtists[0] == null) ? "null" : albumArtists[0].toLowerCase()) + ":" + album.toLowerCase(), salbum);
-            for(Artist a : saartists) a.addAlbum(salbum);
-        }
-        else
+        Album salbum = acquireAlbum(AlbumKey.of(albumArtists, album), album, saartists,
+                albumMiniatureURL, albumImageURL, albumImageLevel);
+        try
         {
             //Add image if image level inferior
             salbum.setImage(albumMiniatureURL, albumImageURL, albumImageLevel);
-        }
-        for(Artist a : sartists)
-            if(!a.albums.contains(salbum))
-                a.addAlbum(salbum); //NOTE: this adds albums to artists even if only a featuring
+            for(Artist a : sartists)
+                a.addAlbumIfAbsent(salbum); //NOTE: this adds albums to artists even if only a featuring
 
-        /* obtain song */
-        Song s = library_songs.get(artists[0].toLowerCase() + ":" + album.toLowerCase() + ":" + title.toLowerCase());
-        if(s == null)
-        {
-            s = new Song(title, salbum, sartists, track_number);
-            library_songs.put(artists[0].toLowerCase() + ":" + album.toLowerCase() + ":" + title.toLowerCase(), s);
-            for(Artist a : sartists) a.track_count++;
-            salbum.addSong(s);
-        }
+            /* obtain song, and update its source information ; a sweep can't demote it meanwhile */
+            return library_songs.compute(new SongKey(artists[0], album, title), (key, current) ->
+            {
+                Song s = current;
+                if(s == null)
+                {
+                    //The song can already be known as an handle (e.g. in a playlist) : promote it, so that
+                    //playlists and library share the same object
+                    s = handled_songs.remove(key);
+                    if(s == null) s = takeCachedHandle(key);
+                    if(s != null) promoteHandle(s);
+                }
+                if(s == null)
+                {
+                    s = new Song(title, salbum, sartists, track_number);
+                    s.added_at = System.currentTimeMillis();
+                    for(Artist a : sartists) a.incrementTrackCount();
+                    salbum.addSong(s);
+                    songOrderings.add(s);
+                    index(s, false);
+                }
 
-        /* update song source information */
-        boolean alreadyContainsSource = false;
-        for(SourceInformation si : s.getSources())
+                s.addSource(source, sourceId, false);
+                return s;
+            });
+        }
+        finally
         {
-            if(si.source == source)
-            {
-                alreadyContainsSource = true;
-                break;
-            }
+            release(sartists);
+            release(saartists);
+            salbum.release();
         }
-        if(!alreadyContainsSource)
-            s.addSource(source, sourceId, false);
-
-        return s;
     }
 
-    public static synchronized Song addSongHandle(String title, String album, String[] artists, Source source, Object sourceId,
-                                                  String[] albumArtists, String albumMiniatureURL, int track_number, String[] artistMiniaturesUrl,
-                                                  String[] albumArtistsMiniatureUrl, String albumImageURL, int albumImageLevel)
+    public static Song addSongHandle(String title, String album, String[] artists, Source source, Object sourceId,
+                                     String[] albumArtists, String albumMiniatureURL, int track_number, String[] artistMiniaturesUrl,
+                                     String[] albumArtistsMiniatureUrl, String albumImageURL, int albumImageLevel)
     {
         /* obtain song artists and album artists */
         Artist[] sartists = new Artist[artists.length];
         for(int i = 0; i < sartists.length; i++)
         {
-            Artist current = library_artists.get(artists[i].toLowerCase());
-            if(current == null) current = handled_artists.get(artists[i].toLowerCase());
-
-            if(current == null)
-            {
-                current = new Artist(artists[i], artistMiniaturesUrl[i]);
-                handled_artists.put(current.name.toLowerCase(), current);
-            }
+            ArtistKey key = new ArtistKey(artists[i]);
+            Artist current = library_artists.get(key);
+            if(current == null) current = obtainArtist(handled_artists, key, artists[i], artistMiniaturesUrl[i]);
 
             sartists[i] = current;
         }
@@ -177,25 +257,18 @@ public class Library
         Artist[] saartists = new Artist[albumArtists.length];
         for(int i = 0; i < saartists.length; i++)
         {
-            Artist current = library_artists.get(albumArtists[i].toLowerCase());
-
-            if(current == null) current = handled_artists.get(albumArtists[i].toLowerCase());
-
-            if(current == null)
-            {
-                current = new Artist(albumArtists[i], albumArtistsMiniatureUrl[i]);
-                handled_artists.put(current.name.toLowerCase(), current);
-            }
+            ArtistKey key = new ArtistKey(albumArtists[i]);
+            Artist current = library_artists.get(key);
+            if(current == null) current = obtainArtist(handled_artists, key, albumArtists[i], albumArtistsMiniatureUrl[i]);
 
             saartists[i] = current;
         }
 
         /* obtain song album */
-        //noinspection ConstantConditions
-        Album salbum = library_albums.get(((albumArtists == null || albumArtists[0] == null) ? "null" : albumArtists[0].toLowerCase()) + ":" + album.toLowerCase());
+        AlbumKey albumKey = AlbumKey.of(albumArtists, album);
+        Album salbum = library_albums.get(albumKey);
         if(salbum == null)
-            //noinspection ConstantConditions
-            salbum = handled_albums.get(((albumArtists == null || albumArtists[0] == null) ? "null" : albumArtists[0].toLowerCase()) + ":" + album.toLowerCase());
+            salbum = handled_albums.get(albumKey);
         else
         {
             //Add image if image level inferior
@@ -203,115 +276,393 @@ public class Library
         }
         if(salbum == null)
         {
-            salbum = new Album(album, saartists, albumMiniatureURL, albumImageURL, albumImageLevel);
-            //noinspection ConstantConditions
-            handled_albums.put(((albumArtists == null || albumArtists[0] == null) ? "null" : albumArtists[0].toLowerCase()) + ":" + album.toLowerCase(), salbum);
+            Album created = new Album(album, saartists, albumMiniatureURL, albumImageURL, albumImageLevel);
+            salbum = handled_albums.putIfAbsent(albumKey, created);
+            if(salbum == null) salbum = created;
         }
 
         /* obtain song */
-        Song s = library_songs.get(artists[0].toLowerCase() + ":" + album.toLowerCase() + ":" + title.toLowerCase());
+        SongKey songKey = new SongKey(artists[0], album, title);
+        Song s = library_songs.get(songKey);
         if(s == null)
-            s = handled_songs.get(artists[0].toLowerCase() + ":" + album.toLowerCase() + ":" + title.toLowerCase());
+            s = handled_songs.get(songKey);
         if(s == null)
         {
-            s = new Song(title, salbum, sartists, track_number);
-            handled_songs.put(artists[0].toLowerCase() + ":" + album.toLowerCase() + ":" + title.toLowerCase(), s);
+            //The handle is created under the lock of that key in library_songs : a library song can't
+            //be created meanwhile, nor can this handle be missed by a promotion
+            final Album handleAlbum = salbum;
+            final Song[] handle = new Song[1];
+            Song librarySong = library_songs.compute(songKey, (key, current) ->
+            {
+                if(current != null) return current;
+
+                handle[0] = obtainHandle(key);
+                if(handle[0] == null)
+                {
+                    handle[0] = new Song(title, handleAlbum, sartists, track_number);
+                    handled_songs.put(key, handle[0]);
+                    index(handle[0], true);
+                }
+                return null;
+            });
+            s = librarySong != null ? librarySong : handle[0];
         }
 
         /* update song source information */
-        boolean alreadyContainsSource = false;
-        for(SourceInformation si : s.getSources())
-        {
-            if(si.source == source)
-            {
-                alreadyContainsSource = true;
-                break;
-            }
-        }
-        if(!alreadyContainsSource)
-            s.addSource(source, sourceId, true);
+        s.addSource(source, sourceId, true);
 
         return s;
     }
 
+    /**
+     * Adds an handle to the library, if there is no library song with the same key ; it stays in
+     * the handles
+     */
     public static void addSongFromHandle(Song song)
+    {
+        library_songs.computeIfAbsent(SongKey.of(song), key ->
+        {
+            promoteHandle(song);
+            return song;
+        });
+    }
+
+    /**
+     * Moves an handle to library album and artists ; called under the lock of its key in library_songs,
+     * that the caller updates
+     */
+    private static void promoteHandle(Song song)
     {
         /* obtain song artists and album artists */
         Artist[] sartists = new Artist[song.artists.length];
         for(int i = 0; i < sartists.length; i++)
+            sartists[i] = acquireArtist(song.artists[i].name, song.artists[i].imageStr);
+
+        Artist[] saartists = new Artist[song.album.artists.length];
+        for(int i = 0; i < saartists.length; i++)
+            saartists[i] = acquireArtist(song.album.artists[i].name, song.album.artists[i].imageStr);
+
+        /* obtain song album */
+        Album salbum = acquireAlbum(AlbumKey.of(song.album), song.album.name, saartists,
+                song.album.imageStr, song.album.imageBigStr, song.album.imageLevel);
+        try
         {
-            Artist current = library_artists.get(song.artists[i].name.toLowerCase());
+            for(Artist a : sartists)
+                a.addAlbumIfAbsent(salbum); //NOTE: this adds albums to artists even if only a featuring
+
+            //The handle now belongs to library album and artists
+            song.album = salbum;
+            song.artists = sartists;
+            if(song.added_at == 0) song.added_at = System.currentTimeMillis();
+            for(Artist a : sartists) a.incrementTrackCount();
+            salbum.addSong(song);
+            songOrderings.add(song);
+            index(song, false);
+        }
+        finally
+        {
+            release(sartists);
+            release(saartists);
+            salbum.release();
+        }
+    }
 
-            if(current == null)
+    /**
+     * Registers an already built song, restored from the library cache, in the library
+     */
+    static synchronized void restoreSong(Song song)
+    {
+        Album album = song.album;
+        AlbumKey albumKey = AlbumKey.of(album);
+        SongKey songKey = SongKey.of(song);
+
+        if(!library_albums.containsKey(albumKey))
+        {
+            album.restore();
+            library_albums.put(albumKey, album);
+            index(album, false);
+            for(Artist a : album.artists)
             {
-                current = new Artist(song.artists[i].name, song.artists[i].imageStr);
-                library_artists.put(current.name.toLowerCase(), current);
+                restoreArtist(a);
+                a.addAlbum(album);
             }
+        }
+        for(Artist a : song.artists)
+        {
+            restoreArtist(a);
+            a.addAlbumIfAbsent(album); //NOTE: this adds albums to artists even if only a featuring
+            a.incrementTrackCount();
+        }
 
-            sartists[i] = current;
+        library_songs.put(songKey, song);
+        album.addSong(song);
+        songOrderings.add(song);
+        index(song, false);
+    }
+
+    /**
+     * Sets the handles of the library cache, that are built when they are needed
+     */
+    static void restoreCachedHandles(LibraryCache.CachedHandles handles)
+    {
+        cachedHandles = handles;
+    }
+
+    /**
+     * @return the song of that handle record of the library cache : the library song or handle with
+     * the same key, or else the handle built from the record
+     */
+    static Song cachedHandle(LibraryCache.CachedHandles handles, int record)
+    {
+        Song song = handles.built(record);
+        if(song != null) return song;
+
+        //Under the lock of its key in library_songs : the handle can't be built twice, nor missed by a promotion
+        final Song[] resolved = new Song[1];
+        library_songs.compute(handles.key(record), (key, current) ->
+        {
+            Song existing = current != null ? current : handled_songs.get(key);
+            boolean pending = handles.built(record) == null;
+            resolved[0] = handles.resolve(record, existing);
+            if(pending && existing == null)
+            {
+                restoreHandle(resolved[0]);
+                index(resolved[0], true);
+            }
+            return current;
+        });
+        return resolved[0];
+    }
+
+    /**
+     * @return the handle of the library cache with that key, built now, or null if there is none left
+     * to build ; called under the lock of that key in library_songs
+     */
+    private static Song takeCachedHandle(SongKey key)
+    {
+        LibraryCache.CachedHandles handles = cachedHandles;
+        return handles == null ? null : handles.take(key);
+    }
+
+    /**
+     * @return the handle with that key, if any, building it from the library cache if needed ; called
+     * under the lock of that key in library_songs
+     */
+    private static Song obtainHandle(SongKey key)
+    {
+        Song handle = handled_songs.get(key);
+        if(handle != null) return handle;
+
+        handle = takeCachedHandle(key);
+        if(handle != null)
+        {
+            restoreHandle(handle);
+            index(handle, true);
         }
+        return handle;
+    }
 
-        Artist[] saartists = new Artist[song.album.artists.length];
-        for(int i = 0; i < saartists.length; i++)
+    /**
+     * Builds the handles of the library cache that are not built yet, for what needs all of them
+     * (search, save, source removal)
+     */
+    private static void buildCachedHandles()
+    {
+        LibraryCache.CachedHandles handles = cachedHandles;
+        if(handles == null) return;
+
+        for(int record : handles.records) cachedHandle(handles, record);
+        cachedHandles = null;
+    }
+
+    private static void restoreHandle(Song song)
+    {
+        for(Artist a : song.artists)
+        {
+            ArtistKey key = new ArtistKey(a.name);
+            if(!library_artists.containsKey(key))
+                handled_artists.put(key, a);
+        }
+        for(Artist a : song.album.artists)
+        {
+            ArtistKey key = new ArtistKey(a.name);
+            if(!library_artists.containsKey(key))
+                handled_artists.put(key, a);
+        }
+        AlbumKey albumKey = AlbumKey.of(song.album);
+        if(!library_albums.containsKey(albumKey)) handled_albums.put(albumKey, song.album);
+        handled_songs.put(SongKey.of(song), song);
+    }
+
+    private static void restoreArtist(Artist artist)
+    {
+        artist.restore();
+        Artist previous = library_artists.put(new ArtistKey(artist.name), artist);
+        if(previous == artist) return;
+
+        if(previous != null) unindex(previous);
+        index(artist, false);
+    }
+
+    public static void removeSong(Song song)
+    {
+        removeSong(song, false);
+    }
+
+    /**
+     * @param demote if true, the song is only removed if no source has it in its library anymore, and
+     *               is kept as an handle ; it is never missing from both library and handles
+     */
+    private static synchronized void removeSong(Song song, boolean demote)
+    {
+        library_songs.computeIfPresent(SongKey.of(song), (key, current) ->
         {
-            Artist current = library_artists.get(song.album.artists[i].name.toLowerCase());
+            if(current != song || (demote && song.hasLibrarySource())) return current;
 
-            if(current == null)
+            //Handle artist
+            for(Artist a : song.getArtists())
             {
-                current = new Artist(song.album.artists[i].name, song.album.artists[i].imageStr);
-                library_artists.put(current.name.toLowerCase(), current);
+                if(a.decrementTrackCount() == 0 && a.removeIfUnused(library_artists, false))
+                    unindex(a);
             }
 
-            saartists[i] = current;
+            //Handle album
+            Album album = song.getAlbum();
+            if(album.removeSong(song) && album.removeIfUnused(library_albums))
+            {
+                for(Artist a : album.getArtists())
+                {
+                    if(a.removeAlbum(album) && a.removeIfUnused(library_artists, true))
+                        unindex(a);
+                }
+                unindex(album);
+            }
+
+            //Handle song
+            songOrderings.remove(song);
+            if(demote) restoreHandle(song);
+            //A song added from an handle stays an handle
+            if(handled_songs.get(key) == song) index(song, true);
+            else unindex(song);
+            return null;
+        });
+    }
+
+    /*
+     * Merge of a synchronization into the existing library : sources add what they find, then
+     * remove what they did not find anymore (sweep), and unreferenced handles are dropped at the end
+     */
+
+    /**
+     * Removes a song from the library if no source has it in its library anymore ; it is kept as an
+     * handle, as playlists can still reference it
+     */
+    private static void demoteSong(Song song)
+    {
+        removeSong(song, true);
+    }
+
+    /**
+     * Removes, for that source, every library song that is not in seen
+     *
+     * @param removeSource if true, the source is removed from the songs (content is gone) ; if false,
+     *                     the songs are only marked as handles for that source (still playable)
+     */
+    public static void sweepSource(Source source, Set<Song> seen, boolean removeSource)
+    {
+        for(Song song : library_songs.values())
+        {
+            if(seen.contains(song)) continue;
+            sweepSong(song, source, removeSource);
         }
+    }
 
-        /* obtain song album */
-        Album salbum = library_albums.get(((song.album.artists == null || song.album.artists[0] == null) ? "null" : song.album.artists[0].name.toLowerCase()) + ":" + song.album.getName().toLowerCase());
-        if(salbum == null)
+    /**
+     * Same as sweepSource(), with the songs seen given by their id for that source
+     *
+     * @return the songs swept
+     */
+    public static List<Song> sweepSourceIds(Source source, Set<?> seenIds, boolean removeSource)
+    {
+        ArrayList<Song> swept = new ArrayList<>();
+        for(Song song : library_songs.values())
         {
-            salbum = new Album(song.album.name, saartists, song.album.imageStr, song.album.imageBigStr, song.album.imageLevel);
-            library_albums.put(((song.album.artists == null || song.album.artists[0] == null) ? "null" : song.album.artists[0].name.toLowerCase()) + ":" + song.album.getName().toLowerCase(), salbum);
-            for(Artist a : saartists) a.addAlbum(salbum);
+            if(seenIds.contains(song.getSourceId(source))) continue;
+            sweepSong(song, source, removeSource);
+            swept.add(song);
         }
-        for(Artist a : sartists)
-            if(!a.albums.contains(salbum))
-                a.addAlbum(salbum); //NOTE: this adds albums to artists even if only a featuring
+        return swept;
+    }
 
-        /* obtain song */
-        Song s = library_songs.get(song.artists[0].name.toLowerCase() + ":" + song.album.getName().toLowerCase() + ":" + song.getName().toLowerCase());
-        if(s == null)
+    private static void sweepSong(Song song, Source source, boolean removeSource)
+    {
+        boolean wasInLibrary = removeSource ? song.removeSource(source) : song.setHandled(source);
+        if(wasInLibrary) demoteSong(song);
+    }
+
+    /**
+     * Removes the playlists of that source that are not in seen
+     */
+    public static synchronized void sweepPlaylists(Source source, Set<Playlist> seen)
+    {
+        for(int i = library_playlists.size() - 1; i >= 0; i--)
         {
-            library_songs.put(song.artists[0].name.toLowerCase() + ":" + song.album.getName().toLowerCase() + ":" + song.getName().toLowerCase(), song);
-            for(Artist a : sartists) a.track_count++;
-            salbum.addSong(song);
+            Playlist playlist = library_playlists.get(i);
+            if(playlist.getSource().source == source && !seen.contains(playlist))
+                library_playlists.remove(i);
         }
     }
 
-    public static synchronized void removeSong(Song song)
+    /**
+     * Drops everything that comes from sources that are not in the list anymore (removed sources)
+     */
+    public static void pruneSources(List<Source> sources)
     {
-        //Handle artist
-        for(Artist a : song.getArtists())
+        //Cached handles reference their sources by index : build them while indexes are valid
+        buildCachedHandles();
+
+        for(Song song : library_songs.values())
+            if(song.retainSources(sources)) demoteSong(song);
+        for(Song song : handled_songs.values())
+            song.retainSources(sources);
+
+        synchronized(Library.class)
         {
-            a.track_count--;
-            if(a.track_count == 0)
-                library_artists.remove(a.getName().toLowerCase());
+            for(int i = library_playlists.size() - 1; i >= 0; i--)
+                if(!sources.contains(library_playlists.get(i).getSource().source))
+                    library_playlists.remove(i);
         }
+    }
 
-        //Handle album
-        song.getAlbum().getSongs().remove(song);
-        if(song.getAlbum().getSongs().isEmpty())
+    /**
+     * Drops the handles that are not referenced by a playlist anymore
+     */
+    public static synchronized void pruneHandles()
+    {
+        buildCachedHandles();
+
+        Set<Song> referenced = Collections.newSetFromMap(new IdentityHashMap<>());
+        for(Playlist playlist : library_playlists) referenced.addAll(playlist.getSongs());
+
+        Set<Album> albums = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<Artist> artists = Collections.newSetFromMap(new IdentityHashMap<>());
+        for(Iterator<Song> iterator = handled_songs.values().iterator(); iterator.hasNext(); )
         {
-            for(Artist a : song.getAlbum().getArtists())
+            Song song = iterator.next();
+            if(!referenced.contains(song))
             {
-                a.getAlbums().remove(song.getAlbum());
-                if(a.getAlbums().isEmpty())
-                    library_artists.remove(a.getName().toLowerCase());
+                iterator.remove();
+                if(!isLibrarySong(song)) unindex(song);
+                continue;
             }
-            library_albums.remove(song.getAlbum().getArtists()[0].getName().toLowerCase() + ":" + song.getAlbum().getName().toLowerCase());
+
+            albums.add(song.album);
+            Collections.addAll(artists, song.artists);
+            Collections.addAll(artists, song.album.artists);
         }
 
-        //Handle song
-        library_songs.remove(song.getArtists()[0].getName().toLowerCase() + ":" + song.getAlbum().getName().toLowerCase() + ":" + song.getName().toLowerCase());
+        handled_albums.values().retainAll(albums);
+        handled_artists.values().retainAll(artists);
     }
 
     public static synchronized Playlist addPlaylist(String title, List<Song> songList, String imageMiniatureUrl, String subtitle, Source source, Object id)
@@ -321,321 +672,617 @@ public class Library
         return playlist;
     }
 
+    /**
+     * Adds a playlist restored from the library cache
+     */
+    static synchronized void restorePlaylist(Playlist playlist)
+    {
+        library_playlists.add(playlist);
+    }
+
     public static synchronized void removePlaylist(Playlist list)
     {
         library_playlists.remove(list);
     }
 
     /**
-     * Reset the playlist, to be used before a library synchronization
+     * Adds an handled song to library, and marks it as library song for the given source
      */
-    public static void reset()
+    public static void addToLibrary(Song song, SourceInformation sourceInformation)
     {
-        library_artists = new HashMap<>();
-        library_albums = new HashMap<>();
-        library_songs = new HashMap<>();
-        library_playlists = new ArrayList<>();
-
-        handled_artists = new HashMap<>();
-        handled_albums = new HashMap<>();
-        handled_songs = new HashMap<>();
+        synchronized(journal)
+        {
+            addSongFromHandle(song);
+            sourceInformation.handled = false;
+            journal.addSong(song);
+        }
     }
 
     /**
-     * Generate artists, albums, and songs lists from library HashMaps
+     * Removes a song from library, and marks it as handled for the given source
      */
-    @SuppressWarnings("ComparatorCombinators")
-    //NOTE : can be replaced with Comparator.comparing, but needs Android N
-    public static void generateLists()
+    public static void removeFromLibrary(Song song, SourceInformation sourceInformation)
     {
-        //re-gen lists from hashmaps
-        artists_list = new ArrayList<>(library_artists.values());
-        Collections.sort(artists_list, (artist, t1) -> artist.getName().toLowerCase().compareTo(t1.getName().toLowerCase()));
-        albums_list = new ArrayList<>(library_albums.values());
-        Collections.sort(albums_list, (album, t1) -> album.getName().toLowerCase().compareTo(t1.getName().toLowerCase()));
-        songs_list = new ArrayList<>(library_songs.values());
-        Collections.sort(songs_list, (song, t1) -> song.getName().toLowerCase().compareTo(t1.getName().toLowerCase()));
-
-        //sort playlists alphabetically
-        Collections.sort(library_playlists, (playlist, t1) -> playlist.getName().toLowerCase().compareTo(t1.getName().toLowerCase()));
-
-        //NotifyDatasetChanged for mainListView actualization
-        if(LibraryFragment.instance != null && LibraryFragment.instance.getActivity() != null)
-            LibraryFragment.instance.requireActivity().runOnUiThread(() ->
-                    LibraryFragment.instance.updateContent(LibraryFragment.instance.getTitle(), null, LibraryFragment.CURRENT_TYPE.LIBRARY, null));
-
-        for(Album album : albums_list)
-            Collections.sort(album.songList, (o1, o2) -> o1.track_number - o2.track_number);
+        synchronized(journal)
+        {
+            sourceInformation.handled = true;
+            journal.setSource(song, sourceInformation);
+            removeSong(song);
+            journal.removeSong(song);
+        }
     }
 
     /**
-     * Saves the whole library to library json file
+     * Adds handled songs to library, and marks them as library songs for the given source
+     * The whole batch is journaled at once ; songs that source does not have are ignored
      */
-    public static void save()
+    public static void addToLibrary(List<Song> songs, Source source)
     {
-        //Generate JSON Object from library
-        Gson gson = new Gson();
-
-        JsonObject libraryObject = new JsonObject();
-        libraryObject.addProperty("version", LIBRARY_CACHE_VERSION);
-
-        //Save library songs
-        JsonArray library = new JsonArray();
-        for(Song s : songs_list)
+        synchronized(journal)
         {
-            JsonObject songJson = songJson(s, gson);
-            library.add(songJson);
+            journal.beginBatch();
+            try
+            {
+                for(Song song : songs)
+                {
+                    SourceInformation sourceInformation = song.getSourceInformation(source);
+                    if(sourceInformation != null) addToLibrary(song, sourceInformation);
+                }
+            }
+            finally
+            {
+                journal.endBatch();
+            }
         }
-        libraryObject.add("library", library);
+    }
 
-        //Save library playlists
-        JsonArray playlists = new JsonArray();
-        for(Playlist playlist : library_playlists)
+    /**
+     * Removes songs from library, and marks them as handled for the given source
+     * The whole batch is journaled at once ; songs that source does not have are ignored
+     */
+    public static void removeFromLibrary(List<Song> songs, Source source)
+    {
+        synchronized(journal)
         {
-            JsonObject playlistJson = new JsonObject();
+            journal.beginBatch();
+            try
+            {
+                for(Song song : songs)
+                {
+                    SourceInformation sourceInformation = song.getSourceInformation(source);
+                    if(sourceInformation != null) removeFromLibrary(song, sourceInformation);
+                }
+            }
+            finally
+            {
+                journal.endBatch();
+            }
+        }
+    }
 
-            playlistJson.addProperty("name", playlist.getName());
-            playlistJson.addProperty("art", playlist.imageStr);
-            playlistJson.addProperty("subtitle", playlist.getSubtitle());
+    public static void addToPlaylist(Song song, Playlist playlist)
+    {
+        synchronized(journal)
+        {
+            int position = playlist.insert(Integer.MAX_VALUE, Collections.singletonList(song));
+            journal.playlistInsert(playlist, position, song);
+        }
+    }
 
-            JsonArray playlistSongs = new JsonArray();
-            for(Song s : playlist.getSongs()) playlistSongs.add(songJson(s, gson));
-            playlistJson.add("songs", playlistSongs);
+    public static void removeFromPlaylist(Song song, Playlist playlist)
+    {
+        synchronized(journal)
+        {
+            int position = playlist.remove(-1, song);
+            if(position == -1) return;
 
-            playlistJson.addProperty("source", playlist.getSource().source.getIndex());
-            playlistJson.add("id", gson.toJsonTree(playlist.getSource().id));
+            journal.playlistRemove(playlist, position, song);
+        }
+    }
 
-            playlists.add(playlistJson);
+    /**
+     * Appends songs to a playlist ; the whole batch is journaled at once
+     */
+    public static void addToPlaylist(List<Song> songs, Playlist playlist)
+    {
+        synchronized(journal)
+        {
+            //The playlist is copied once for the whole batch
+            int position = playlist.insert(Integer.MAX_VALUE, songs);
+            journal.beginBatch();
+            try
+            {
+                for(Song song : songs) journal.playlistInsert(playlist, position++, song);
+            }
+            finally
+            {
+                journal.endBatch();
+            }
         }
-        libraryObject.add("playlists", playlists);
+    }
 
-        //Write JSON Object to file
-        File libraryFile = new File(BladeApplication.appContext.getFilesDir().getAbsolutePath() + LIBRARY_FILE);
-        try
+    /**
+     * Removes songs from a playlist ; the whole batch is journaled at once
+     */
+    public static void removeFromPlaylist(List<Song> songs, Playlist playlist)
+    {
+        synchronized(journal)
         {
-            //noinspection ResultOfMethodCallIgnored
-            libraryFile.delete();
-            if(!libraryFile.createNewFile())
+            journal.beginBatch();
+            try
             {
-                System.err.println("Could not save library : could not create file");
-                return;
+                for(Song song : songs) removeFromPlaylist(song, playlist);
+            }
+            finally
+            {
+                journal.endBatch();
             }
+        }
+    }
 
-            BufferedWriter writer = new BufferedWriter(new FileWriter(libraryFile));
-            writer.write(gson.toJson(libraryObject));
-            writer.close();
+    public static Playlist createPlaylist(String title, String imageMiniatureUrl, String subtitle, Source source, Object id)
+    {
+        Playlist playlist;
+        synchronized(journal)
+        {
+            playlist = addPlaylist(title, new ArrayList<>(), imageMiniatureUrl, subtitle, source, id);
+            journal.createPlaylist(playlist);
         }
-        catch(IOException ignored)
+        publishPlaylists();
+        return playlist;
+    }
+
+    public static void deletePlaylist(Playlist playlist)
+    {
+        synchronized(journal)
         {
+            removePlaylist(playlist);
+            journal.deletePlaylist(playlist);
         }
+        publishPlaylists();
     }
 
-    private static JsonObject songJson(Song s, Gson gson)
+    /**
+     * @return the library song, or else the handle, with that first artist, album and title
+     */
+    static synchronized Song lookupSong(String artist, String album, String title)
     {
-        JsonObject songJson = new JsonObject();
-        songJson.addProperty("name", s.getName());
-        songJson.addProperty("track_number", s.getTrackNumber());
-        songJson.addProperty("album", s.getAlbum().getName());
+        SongKey key = new SongKey(artist, album, title);
+        Song song = library_songs.get(key);
+        if(song == null) song = handled_songs.get(key);
+        if(song != null || cachedHandles == null) return song;
 
-        songJson.addProperty("album_art", s.getAlbum().imageStr);
-        songJson.addProperty("album_art_big", s.getAlbum().imageBigStr);
-        JsonArray aartists = new JsonArray();
-        for(Artist a : s.getAlbum().getArtists()) aartists.add(a.getName());
-        songJson.add("album_artists", aartists);
-        //TODO : save album_art, album_art_big, album artists only on first album encounter
+        final Song[] handle = new Song[1];
+        Song librarySong = library_songs.compute(key, (k, current) ->
+        {
+            if(current == null) handle[0] = obtainHandle(k);
+            return current;
+        });
+        return librarySong != null ? librarySong : handle[0];
+    }
 
-        //TODO : handle artists imgs
-        JsonArray artists = new JsonArray();
-        for(Artist a : s.getArtists()) artists.add(a.getName());
-        songJson.add("artists", artists);
+    /**
+     * @return true if that song is in the library, false if it is an handle (or not known)
+     */
+    static boolean isLibrarySong(Song song)
+    {
+        return library_songs.get(SongKey.of(song)) == song;
+    }
 
-        JsonArray sources = new JsonArray();
-        for(SourceInformation si : s.getSources())
+    /**
+     * @return the playlist of that source with that id, if any
+     */
+    public static synchronized Playlist lookupPlaylist(Source source, Object id)
+    {
+        for(Playlist playlist : library_playlists)
         {
-            JsonObject sourceJson = new JsonObject();
-            sourceJson.addProperty("source", si.source.getIndex());
-            sourceJson.add("id", gson.toJsonTree(si.id));
-            sources.add(sourceJson);
+            SourceInformation si = playlist.getSource();
+            if(si != null && si.source == source && si.id != null && si.id.toString().equals(id.toString()))
+                return playlist;
         }
-        songJson.add("sources", sources);
+        return null;
+    }
 
-        return songJson;
+    /**
+     * Reset the library, to be used before a library synchronization
+     * The current snapshot stays published : readers keep it until the next generateLists()
+     */
+    public static void reset()
+    {
+        library_artists = new ConcurrentHashMap<>();
+        library_albums = new ConcurrentHashMap<>();
+        library_songs = new ConcurrentHashMap<>();
+        library_playlists = new ArrayList<>();
+
+        handled_artists = new ConcurrentHashMap<>();
+        handled_albums = new ConcurrentHashMap<>();
+        handled_songs = new ConcurrentHashMap<>();
+
+        songOrderings.clear();
+        searchIndex = null;
+        cachedHandles = null;
     }
 
     /**
-     * Loads the whole library from cache json file
+     * Drops the search index : the next generateLists() builds it again, from scratch ; a synchronization
+     * adds and removes many songs, indexing them once at the end is cheaper than maintaining the index
      */
-    public static void loadFromCache()
+    public static void invalidateSearchIndex()
     {
-        File libraryFile = new File(BladeApplication.appContext.getFilesDir().getAbsolutePath() + LIBRARY_FILE);
-        try
+        searchIndex = null;
+    }
+
+    private static void index(LibraryObject object, boolean handle)
+    {
+        SearchIndex index = searchIndex;
+        if(index != null) index.add(object, handle);
+    }
+
+    private static void unindex(LibraryObject object)
+    {
+        SearchIndex index = searchIndex;
+        if(index != null) index.remove(object);
+    }
+
+    /**
+     * Indexes the whole library ; modifications made meanwhile wait for the index, and are applied after
+     */
+    private static SearchIndex buildSearchIndex()
+    {
+        SearchIndex index = new SearchIndex();
+        synchronized(index)
         {
-            //read file
-            BufferedReader reader = new BufferedReader(new FileReader(libraryFile));
-            StringBuilder js = new StringBuilder();
-            while(reader.ready()) js.append(reader.readLine()).append("\n");
-            reader.close();
-
-            //obtain from JSON
-            JSONObject root = new JSONObject(js.toString());
-            int cache_version = root.getInt("version");
-            if(cache_version > LIBRARY_CACHE_VERSION)
+            searchIndex = index;
+
+            //Handles that are also library songs are only indexed once
+            ArrayList<Song> handles = new ArrayList<>(handled_songs.size());
+            for(Song song : handled_songs.values())
+                if(!isLibrarySong(song)) handles.add(song);
+            index.addAll(library_songs.values(), handles, library_albums.values(), library_artists.values());
+        }
+        return index;
+    }
+
+    /* Sorts the largest lists (and merges song orderings) while generateLists sorts the others ;
+     * generateLists runs on the app executor, so waiting for tasks of that same executor could deadlock */
+    private static final ThreadPoolExecutor sortExecutor = new ThreadPoolExecutor(2, 2, 30L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), runnable -> new Thread(runnable, "blade-sort"));
+
+    static
+    {
+        sortExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Generate artists, albums, and songs lists from library HashMaps
+     * Lists are sorted by name collation keys, computed once per object, and in parallel ; only albums
+     * modified since last generation have their songs sorted again, and songs orderings only merge
+     * the songs added and removed since ; the alphabetical sections of the lists are indexed once here
+     */
+    public static void generateLists()
+    {
+        synchronized(generateLock)
+        {
+            //re-gen lists from hashmaps
+            ArrayList<Artist> artists = new ArrayList<>(library_artists.values());
+            ArrayList<Album> albums = new ArrayList<>(library_albums.values());
+
+            Future<SectionIndex> albumsSort = sortExecutor.submit(() ->
             {
-                System.err.println("Library cache more recent than current version; ignoring");
-                return;
+                Collections.sort(albums, LibraryObject.BY_NAME);
+                for(Album album : albums) album.publishSongs();
+                return SectionIndex.build(albums);
+            });
+            Collections.sort(artists, LibraryObject.BY_NAME);
+            for(Artist artist : artists) artist.publishAlbums();
+            SectionIndex artistSections = SectionIndex.build(artists);
+
+            //sort playlists alphabetically
+            synchronized(Library.class)
+            {
+                Collections.sort(library_playlists, LibraryObject.BY_NAME);
             }
 
-            //Restore library songs
-            JSONArray library = root.getJSONArray("library");
-            for(int i = 0; i < library.length(); i++)
+            List<List<Song>> songs = songOrderings.snapshot(sortExecutor);
+            List<SectionIndex> songSections = new ArrayList<>(songs.size());
+            for(SongOrderings.Order order : SongOrderings.Order.values())
+                songSections.add(SectionIndex.build(songs.get(order.ordinal()), order));
+
+            SectionIndex albumSections;
+            try
+            {
+                albumSections = albumsSort.get();
+            }
+            catch(InterruptedException e)
             {
-                JSONObject s = library.getJSONObject(i);
-                jsonSong(s, false);
+                Thread.currentThread().interrupt();
+                return;
             }
+            catch(ExecutionException e)
+            {
+                throw new RuntimeException(e.getCause());
+            }
+
+            //The search index is maintained as songs are added and removed ; it is only built after a
+            //cache load or a synchronization
+            SearchIndex index = searchIndex;
+            if(index == null) index = buildSearchIndex();
 
-            //Restore playlists
-            JSONArray playlists = root.getJSONArray("playlists");
-            for(int i = 0; i < playlists.length(); i++)
+            synchronized(snapshotLock)
             {
-                JSONObject p = playlists.getJSONObject(i);
+                snapshot = new LibrarySnapshot(snapshot.getVersion() + 1, artists, albums, songs,
+                        copyPlaylists(), index, artistSections, albumSections, songSections);
+            }
+            liveSearch.clear();
+        }
+
+        //NotifyDatasetChanged for mainListView actualization
+        if(LibraryFragment.instance != null && LibraryFragment.instance.getActivity() != null)
+            LibraryFragment.instance.requireActivity().runOnUiThread(() ->
+                    LibraryFragment.instance.updateContent(LibraryFragment.instance.getTitle(), null, LibraryFragment.CURRENT_TYPE.LIBRARY, null));
+    }
 
-                ArrayList<Song> songList = new ArrayList<>();
-                JSONArray songArray = p.getJSONArray("songs");
-                for(int j = 0; j < songArray.length(); j++)
-                    songList.add(jsonSong(songArray.getJSONObject(j), true));
+    private static synchronized ArrayList<Playlist> copyPlaylists()
+    {
+        return new ArrayList<>(library_playlists);
+    }
 
-                String art;
-                try
-                {
-                    art = p.getString("art");
-                }
-                catch(JSONException noArt)
+    /**
+     * Publishes the playlists the user created or deleted, keeping the rest of the snapshot
+     */
+    private static void publishPlaylists()
+    {
+        synchronized(snapshotLock)
+        {
+            snapshot = snapshot.withPlaylists(copyPlaylists());
+        }
+    }
+
+    /**
+     * Journals what a source synchronized so far, so that it is kept if the synchronization is
+     * interrupted ; unlike save(), this does not persist what other sources are synchronizing
+     *
+     * @param songs     library songs added or updated by that source
+     * @param swept     songs that source marked as handles (see sweepSourceIds)
+     * @param playlists playlists that source added or replaced
+     */
+    public static void journalSynchronization(Source source, List<Song> songs, List<Song> swept, List<Playlist> playlists)
+    {
+        synchronized(journal)
+        {
+            journal.beginBatch();
+            try
+            {
+                for(Song song : songs) journal.addSong(song);
+                for(Song song : swept)
                 {
-                    art = null;
+                    SourceInformation sourceInformation = song.getSourceInformation(source);
+                    if(sourceInformation != null) journal.setSource(song, sourceInformation);
+                    if(!isLibrarySong(song)) journal.removeSong(song);
                 }
-                String subtitle;
-                try
+                //Replaces the playlist journaled or saved before, if any
+                for(Playlist playlist : playlists) journal.setPlaylist(playlist);
+            }
+            finally
+            {
+                journal.endBatch();
+            }
+        }
+    }
+
+    /**
+     * Saves the whole library to the binary library cache file, as a new snapshot ; this
+     * deletes the mutation journals it contains
+     */
+    public static void save()
+    {
+        //Saves are serialized : an older snapshot never replaces a newer one
+        synchronized(saveLock)
+        {
+            buildCachedHandles();
+
+            ArrayList<Song> songs;
+            ArrayList<Song> handles;
+            ArrayList<Playlist> playlists;
+            long generation;
+            //Mutations only wait for the copy ; the snapshot is written outside of the journal lock
+            synchronized(journal)
+            {
+                synchronized(Library.class)
                 {
-                    subtitle = p.getString("subtitle");
+                    songs = new ArrayList<>(library_songs.values());
+                    handles = new ArrayList<>(handled_songs.values());
+                    playlists = new ArrayList<>(library_playlists.size());
+                    for(Playlist playlist : library_playlists) playlists.add(playlist.copy());
                 }
-                catch(JSONException noSubtitle)
+                generation = journal.rotate();
+            }
+
+            File cacheFile = new File(BladeApplication.appContext.getFilesDir().getAbsolutePath() + LIBRARY_CACHE_FILE);
+            try
+            {
+                LibraryCache.write(cacheFile, songs, handles, playlists, LIBRARY_CACHE_VERSION, generation);
+                journal.release(generation);
+            }
+            catch(IOException e)
+            {
+                //The journals are kept : they are replayed on top of the previous snapshot
+                System.err.println("Could not save library : " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Loads the whole library from the binary cache file, and replays the mutation journal ;
+     * if there is no cache file, this does a one-time migration from the legacy json library file
+     */
+    public static void loadFromCache()
+    {
+        File cacheFile = new File(BladeApplication.appContext.getFilesDir().getAbsolutePath() + LIBRARY_CACHE_FILE);
+        if(cacheFile.exists())
+        {
+            try
+            {
+                long generation = LibraryCache.read(cacheFile, LIBRARY_CACHE_VERSION);
+                if(generation >= 0)
                 {
-                    subtitle = "";
+                    journal.replay(generation);
+                    Library.generateLists();
+                    return;
                 }
-
-                addPlaylist(p.getString("name"), songList, art, subtitle,
-                        Source.SOURCES.get(p.getInt("source")),
-                        p.get("id"));
             }
+            catch(IOException | RuntimeException e)
+            {
+                //Corrupted or truncated cache : drop what we read, we will need a sync
+                e.printStackTrace();
+                reset();
+            }
+        }
 
+        File libraryFile = new File(BladeApplication.appContext.getFilesDir().getAbsolutePath() + LIBRARY_FILE);
+        if(!libraryFile.exists())
+        {
+            //No snapshot yet : mutations may still have been journaled
+            journal.replay(0);
             Library.generateLists();
+            return;
         }
-        catch(IOException | JSONException e)
+
+        if(loadFromJson(libraryFile))
         {
-            e.printStackTrace();
+            Library.generateLists();
+
+            //Migrate to binary cache
+            save();
+            //noinspection ResultOfMethodCallIgnored
+            libraryFile.delete();
         }
     }
 
-    private static Song jsonSong(JSONObject s, boolean handled) throws JSONException
+    /**
+     * Loads the whole library from a legacy (version 1) json file
+     * The file is streamed, so that we never hold more than one song record in memory
+     */
+    private static boolean loadFromJson(File libraryFile)
     {
-        JSONArray artistsJson = s.getJSONArray("artists");
-        String[] artists = new String[artistsJson.length()];
-        String[] artistsImages = new String[artistsJson.length()];
-        for(int j = 0; j < artistsJson.length(); j++) artists[j] = artistsJson.getString(j);
-
-        JSONArray aartistsJson = s.getJSONArray("album_artists");
-        String[] aartists = new String[aartistsJson.length()];
-        String[] aartistsImages = new String[aartistsJson.length()];
-        for(int j = 0; j < aartistsJson.length(); j++)
-            aartists[j] = aartistsJson.getString(j);
-
-        JSONArray sourcesJson = s.getJSONArray("sources");
-        JSONObject source0Json = sourcesJson.getJSONObject(0);
-        Source source0 = null;
         try
         {
-            source0 = Source.SOURCES.get(source0Json.getInt("source"));
+            BufferedReader reader = new BufferedReader(new FileReader(libraryFile));
+            return new LegacyLibraryReader(LIBRARY_JSON_VERSION).read(reader, new LegacyLibraryReader.Sink<Song>()
+            {
+                @Override
+                public Song song(LegacyLibraryReader.SongRecord s, boolean handled)
+                {
+                    return legacySong(s, handled);
+                }
+
+                @Override
+                public void playlist(String name, List<Song> songs, String art, String subtitle, int source, Object id)
+                {
+                    addPlaylist(name, songs, art, subtitle, Source.SOURCES.get(source), id);
+                }
+            });
         }
-        catch(IndexOutOfBoundsException exception)
+        catch(IOException | IllegalStateException | NumberFormatException | IndexOutOfBoundsException e)
         {
-            System.out.println("BLADE: Song saved with a source that does not exist, skipping this source");
+            e.printStackTrace();
+            return false;
         }
+    }
 
-        String art;
-        String bigArt;
+    private static Song legacySong(LegacyLibraryReader.SongRecord s, boolean handled)
+    {
+        Source source0 = null;
         try
         {
-            art = s.getString("album_art");
-            bigArt = s.getString("album_art_big");
+            source0 = Source.SOURCES.get(s.sources[0]);
         }
-        catch(JSONException noArt)
+        catch(IndexOutOfBoundsException exception)
         {
-            art = null;
-            bigArt = null;
+            System.out.println("BLADE: Song saved with a source that does not exist, skipping this source");
         }
 
+        String[] artistsImages = new String[s.artists.length];
+        String[] aartistsImages = new String[s.albumArtists.length];
+
         Song song;
         if(handled)
-            song = addSongHandle(s.getString("name"), s.getString("album"), artists, source0,
-                    source0Json.get("id"), aartists, art, s.getInt("track_number"),
-                    artistsImages, aartistsImages, bigArt, 1);
+            song = addSongHandle(s.name, s.album, s.artists, source0,
+                    s.ids[0], s.albumArtists, s.albumArt, s.trackNumber,
+                    artistsImages, aartistsImages, s.albumArtBig, 1);
         else
-            song = addSong(s.getString("name"), s.getString("album"), artists, source0,
-                    source0Json.get("id"), aartists, art, s.getInt("track_number"),
-                    artistsImages, aartistsImages, bigArt, 1);
+            song = addSong(s.name, s.album, s.artists, source0,
+                    s.ids[0], s.albumArtists, s.albumArt, s.trackNumber,
+                    artistsImages, aartistsImages, s.albumArtBig, 1);
 
         //Add all other sources to song
-        for(int j = 1; j < sourcesJson.length(); j++)
-        {
-            JSONObject sourceJson = sourcesJson.getJSONObject(j);
-            Source source = Source.SOURCES.get(sourceJson.getInt("source"));
-            song.addSource(source, sourceJson.get("id"), handled);
-        }
+        for(int j = 1; j < s.sourceCount; j++)
+            song.addSource(Source.SOURCES.get(s.sources[j]), s.ids[j], handled);
 
         return song;
     }
 
+    /**
+     * Searches songs, albums, artists and playlists by words (or beginning of words) of their names ;
+     * results of each kind are ranked, best first
+     */
     public static List<LibraryObject> search(String query)
     {
-        //TODO : improve search, for now we just do "contains", cringe
-        ArrayList<LibraryObject> result = new ArrayList<>();
+        //Handles of the library cache are indexed once they are built
+        buildCachedHandles();
+
+        LibrarySnapshot current = snapshot;
+        SearchIndex.Result found = liveSearch.find(current.searchIndex, query);
+        ArrayList<LibraryObject> result = new ArrayList<>(found.songs.size() + found.albums.size() + found.artists.size() + 4);
 
         //Add separator
         result.add(new Separator(BladeApplication.appContext.getString(R.string.songs)));
 
         //Add songs from library and handles
-        for(Song s : songs_list)
-            if(s.getName().toLowerCase().contains(query.toLowerCase()))
-                result.add(s);
-
-        for(Song s : handled_songs.values())
-            if(s.getName().toLowerCase().contains(query.toLowerCase()) && !result.contains(s))
-                result.add(s);
+        result.addAll(found.songs);
 
         //Add separator
         result.add(new Separator(BladeApplication.appContext.getString(R.string.albums)));
 
         //Add albums
-        for(Album a : albums_list)
-            if(a.getName().toLowerCase().contains(query.toLowerCase()))
-                result.add(a);
+        result.addAll(found.albums);
 
         //Add separator
         result.add(new Separator(BladeApplication.appContext.getString(R.string.artists)));
 
         //Add artists
-        for(Artist a : artists_list)
-            if(a.getName().toLowerCase().contains(query.toLowerCase()))
-                result.add(a);
+        result.addAll(found.artists);
 
         //Add separator
         result.add(new Separator(BladeApplication.appContext.getString(R.string.playlists)));
 
-        //Add playlists
-        for(Playlist p : library_playlists)
-            if(p.getName().toLowerCase().contains(query.toLowerCase()))
-                result.add(p);
+        //Add playlists ; there are few of them, and they are created/deleted outside of generateLists
+        String[] queryTokens = SearchIndex.tokenize(query);
+        if(queryTokens.length > 0)
+        {
+            String normalizedQuery = SearchIndex.join(queryTokens);
+            List<Playlist> playlists = current.getPlaylists();
+            //Stable ranking : by score, then alphabetically like the playlists list
+            List<List<Playlist>> ranked = new ArrayList<>();
+            for(int score = 0; score <= SearchIndex.MAX_SCORE; score++) ranked.add(new ArrayList<>());
+            for(Playlist p : playlists)
+            {
+                String[] tokens = SearchIndex.tokenize(p.getName());
+                int score = SearchIndex.score(SearchIndex.join(tokens), tokens, normalizedQuery, queryTokens);
+                if(score >= 0) ranked.get(score).add(p);
+            }
+            for(List<Playlist> playlistsWithScore : ranked) result.addAll(playlistsWithScore);
+        }
 
         return result;
     }
+
+    /**
+     * Search-as-you-type : runs search(query) in the background, narrowing down the results of the
+     * previous queries ; callback is called from a background thread, and only for the latest query
+     */
+    public static void searchAsync(String query, BladeApplication.Callback<List<LibraryObject>> callback)
+    {
+        liveSearch.submit(query, callback);
+    }
 }
@@ -0,0 +1,655 @@
+package v.blade.library;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.RandomAccess;
+
+import v.blade.sources.Source;
+import v.blade.sources.SourceInformation;
+
+/**
+ * Binary library cache file
+ * <p>
+ * Layout (big-endian) :
+ * - header : magic, version, the size of every section, and the journal generation of the snapshot
+ * - string table : offsets, then length-prefixed UTF-8 data ; every name/url is stored only once
+ * - artist, album, song, source and playlist sections : fixed-width records referencing the
+ * string table and the other sections by index
+ * - int pool : variable-length lists (album artists, song artists, playlist songs) referenced
+ * by (start, count) from the fixed-width records
+ * <p>
+ * On load, the file is memory-mapped, and records are read at fixed offsets ; each string, artist
+ * and album is materialized once, the first time a record references it. Library songs are built
+ * right away, as the library (song maps, album song lists, orderings) needs all of them ; handles
+ * are only referenced by record, and built the first time they are needed (see CachedHandles).
+ */
+class LibraryCache
+{
+    private static final int MAGIC = 0x424C4442; //'BLDB'
+
+    private static final int HEADER_SIZE = 10 * 4 + 8;
+    private static final int HEADER_SIZE_V3 = 10 * 4; //without journal generation
+    private static final int ARTIST_RECORD_SIZE = 2 * 4;
+    private static final int ALBUM_RECORD_SIZE = 6 * 4;
+    private static final int SONG_RECORD_SIZE = 10 * 4;
+    private static final int SONG_RECORD_SIZE_V2 = 8 * 4; //without date added
+    private static final int SOURCE_RECORD_SIZE = 2 * 4 + 8;
+    private static final int PLAYLIST_RECORD_SIZE = 7 * 4 + 8;
+
+    private static final int NO_STRING = -1;
+
+    private static final int SONG_FLAG_HANDLED = 1;
+    private static final int SOURCE_FLAG_STRING_ID = 1;
+    private static final int SOURCE_FLAG_HANDLED = 2;
+
+    private LibraryCache()
+    {
+    }
+
+    /**
+     * Writes library songs, handled songs and playlists to file, atomically
+     *
+     * @param generation the first journal generation that is not in this snapshot (see LibraryJournal)
+     */
+    static void write(File file, Collection<Song> librarySongs, Collection<Song> handledSongs,
+                      List<Playlist> playlists, int version, long generation) throws IOException
+    {
+        Writer writer = new Writer();
+        for(Song s : librarySongs) writer.song(s, false);
+        for(Song s : handledSongs) writer.song(s, true);
+        for(Playlist p : playlists) writer.playlist(p);
+
+        File tmp = new File(file.getAbsolutePath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+        try
+        {
+            writer.writeTo(out, version, generation);
+        }
+        finally
+        {
+            out.close();
+        }
+
+        if(!tmp.renameTo(file))
+        {
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+            throw new IOException("Could not replace " + file.getName());
+        }
+    }
+
+    /**
+     * Reads the library from file, adding songs and playlists to Library
+     *
+     * @return the first journal generation that is not in the snapshot, or -1 if the file is not a
+     * library cache we can read
+     */
+    static long read(File file, int version) throws IOException
+    {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        ByteBuffer buffer;
+        try
+        {
+            FileChannel channel = randomAccessFile.getChannel();
+            if(channel.size() < HEADER_SIZE_V3) return -1;
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        finally
+        {
+            //The mapping stays valid after the channel is closed
+            randomAccessFile.close();
+        }
+
+        if(buffer.getInt(0) != MAGIC) return -1;
+        int fileVersion = buffer.getInt(4);
+        if(fileVersion > version)
+        {
+            System.err.println("Library cache more recent than current version; ignoring");
+            return -1;
+        }
+
+        Library.restoreCachedHandles(new Reader(buffer, fileVersion).read());
+        //Snapshots written before journal generations come with the first journal
+        return fileVersion <= 3 ? 0 : buffer.getLong(HEADER_SIZE_V3);
+    }
+
+    private static class IntPool
+    {
+        private int[] values = new int[1024];
+        private int size = 0;
+
+        private int add(int value)
+        {
+            if(size == values.length)
+            {
+                int[] grown = new int[values.length * 2];
+                System.arraycopy(values, 0, grown, 0, size);
+                values = grown;
+            }
+            values[size] = value;
+            return size++;
+        }
+    }
+
+    private static class Writer
+    {
+        private final HashMap<String, Integer> stringIds = new HashMap<>();
+        private final ArrayList<byte[]> strings = new ArrayList<>();
+        private int stringDataSize = 0;
+
+        private final IdentityHashMap<Artist, Integer> artistIds = new IdentityHashMap<>();
+        private final IdentityHashMap<Album, Integer> albumIds = new IdentityHashMap<>();
+        private final IdentityHashMap<Song, Integer> songIds = new IdentityHashMap<>();
+
+        private final IntPool artistRecords = new IntPool();
+        private final IntPool albumRecords = new IntPool();
+        private final IntPool songRecords = new IntPool();
+        private final IntPool sourceRecords = new IntPool();
+        private final ArrayList<Long> sourceValues = new ArrayList<>();
+        private final IntPool playlistRecords = new IntPool();
+        private final ArrayList<Long> playlistValues = new ArrayList<>();
+        private final IntPool pool = new IntPool();
+
+        private int string(String s)
+        {
+            if(s == null) return NO_STRING;
+
+            Integer id = stringIds.get(s);
+            if(id != null) return id;
+
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            id = strings.size();
+            strings.add(bytes);
+            stringDataSize += 4 + bytes.length;
+            stringIds.put(s, id);
+            return id;
+        }
+
+        private int artist(Artist artist)
+        {
+            Integer id = artistIds.get(artist);
+            if(id != null) return id;
+
+            id = artistIds.size();
+            artistIds.put(artist, id);
+            artistRecords.add(string(artist.name));
+            artistRecords.add(string(artist.imageStr));
+            return id;
+        }
+
+        private int album(Album album)
+        {
+            Integer id = albumIds.get(album);
+            if(id != null) return id;
+
+            //Artists first, so that their ids are contiguous in the pool
+            int[] artists = new int[album.artists.length];
+            for(int i = 0; i < artists.length; i++) artists[i] = artist(album.artists[i]);
+            int artistsStart = pool.size;
+            for(int a : artists) pool.add(a);
+
+            id = albumIds.size();
+            albumIds.put(album, id);
+            albumRecords.add(string(album.name));
+            albumRecords.add(string(album.imageStr));
+            albumRecords.add(string(album.imageBigStr));
+            albumRecords.add(album.imageLevel);
+            albumRecords.add(artistsStart);
+            albumRecords.add(artists.length);
+            return id;
+        }
+
+        private int song(Song song, boolean handled)
+        {
+            Integer id = songIds.get(song);
+            if(id != null) return id;
+
+            int album = album(song.album);
+            int[] artists = new int[song.artists.length];
+            for(int i = 0; i < artists.length; i++) artists[i] = artist(song.artists[i]);
+            int artistsStart = pool.size;
+            for(int a : artists) pool.add(a);
+
+            int sourcesStart = sourceValues.size();
+            int sourcesCount = 0;
+            //The library can be saved during a synchronization : sources can be added meanwhile
+            synchronized(song)
+            {
+                for(SourceInformation si : song.getSources())
+                {
+                    if(si.source == null || si.id == null) continue;
+
+                    int flags = si.handled ? SOURCE_FLAG_HANDLED : 0;
+                    long value;
+                    if(si.id instanceof Number) value = ((Number) si.id).longValue();
+                    else
+                    {
+                        flags |= SOURCE_FLAG_STRING_ID;
+                        value = string(si.id.toString());
+                    }
+                    sourceRecords.add(si.source.getIndex());
+                    sourceRecords.add(flags);
+                    sourceValues.add(value);
+                    sourcesCount++;
+                }
+            }
+
+            id = songIds.size();
+            songIds.put(song, id);
+            songRecords.add(string(song.name));
+            songRecords.add(album);
+            songRecords.add(song.track_number);
+            songRecords.add(artistsStart);
+            songRecords.add(artists.length);
+            songRecords.add(sourcesStart);
+            songRecords.add(sourcesCount);
+            songRecords.add(handled ? SONG_FLAG_HANDLED : 0);
+            songRecords.add((int) (song.added_at >>> 32));
+            songRecords.add((int) song.added_at);
+            return id;
+        }
+
+        private void playlist(Playlist playlist)
+        {
+            SourceInformation si = playlist.getSource();
+            if(si == null || si.source == null || si.id == null) return;
+
+            //Playlist songs should all be library songs or handles, but we make sure
+            int[] songs = new int[playlist.getSongs().size()];
+            for(int i = 0; i < songs.length; i++) songs[i] = song(playlist.getSongs().get(i), true);
+            int songsStart = pool.size;
+            for(int s : songs) pool.add(s);
+
+            int flags = 0;
+            long value;
+            if(si.id instanceof Number) value = ((Number) si.id).longValue();
+            else
+            {
+                flags |= SOURCE_FLAG_STRING_ID;
+                value = string(si.id.toString());
+            }
+
+            playlistRecords.add(string(playlist.getName()));
+            playlistRecords.add(string(playlist.imageStr));
+            playlistRecords.add(string(playlist.getSubtitle()));
+            playlistRecords.add(si.source.getIndex());
+            playlistRecords.add(flags);
+            playlistRecords.add(songsStart);
+            playlistRecords.add(songs.length);
+            playlistValues.add(value);
+        }
+
+        private void writeTo(DataOutputStream out, int version, long generation) throws IOException
+        {
+            //Header
+            out.writeInt(MAGIC);
+            out.writeInt(version);
+            out.writeInt(strings.size());
+            out.writeInt(stringDataSize);
+            out.writeInt(artistIds.size());
+            out.writeInt(albumIds.size());
+            out.writeInt(songIds.size());
+            out.writeInt(sourceValues.size());
+            out.writeInt(pool.size);
+            out.writeInt(playlistValues.size());
+            out.writeLong(generation);
+
+            //String table
+            int offset = 0;
+            for(byte[] s : strings)
+            {
+                out.writeInt(offset);
+                offset += 4 + s.length;
+            }
+            for(byte[] s : strings)
+            {
+                out.writeInt(s.length);
+                out.write(s);
+            }
+
+            //Fixed-width records
+            for(int i = 0; i < artistRecords.size; i++) out.writeInt(artistRecords.values[i]);
+            for(int i = 0; i < albumRecords.size; i++) out.writeInt(albumRecords.values[i]);
+            for(int i = 0; i < songRecords.size; i++) out.writeInt(songRecords.values[i]);
+            for(int i = 0; i < sourceValues.size(); i++)
+            {
+                out.writeInt(sourceRecords.values[2 * i]);
+                out.writeInt(sourceRecords.values[2 * i + 1]);
+                out.writeLong(sourceValues.get(i));
+            }
+            for(int i = 0; i < playlistValues.size(); i++)
+            {
+                for(int j = 0; j < 7; j++) out.writeInt(playlistRecords.values[7 * i + j]);
+                out.writeLong(playlistValues.get(i));
+            }
+
+            //Int pool
+            for(int i = 0; i < pool.size; i++) out.writeInt(pool.values[i]);
+        }
+    }
+
+    private static class Reader
+    {
+        private final ByteBuffer buffer;
+
+        private final int stringIndexOffset;
+        private final int stringDataOffset;
+        private final int artistsOffset;
+        private final int albumsOffset;
+        private final int songsOffset;
+        private final int sourcesOffset;
+        private final int playlistsOffset;
+        private final int poolOffset;
+
+        private final int songCount;
+        private final int songRecordSize;
+        private final int playlistCount;
+
+        private final String[] strings;
+        private final Artist[] artists;
+        private final Album[] albums;
+        private final Song[] songs;
+
+        private Reader(ByteBuffer buffer, int version)
+        {
+            this.buffer = buffer;
+            this.songRecordSize = version <= 2 ? SONG_RECORD_SIZE_V2 : SONG_RECORD_SIZE;
+
+            int stringCount = buffer.getInt(8);
+            int stringDataSize = buffer.getInt(12);
+            int artistCount = buffer.getInt(16);
+            int albumCount = buffer.getInt(20);
+            songCount = buffer.getInt(24);
+            int sourceCount = buffer.getInt(28);
+            int poolSize = buffer.getInt(32);
+            playlistCount = buffer.getInt(36);
+
+            stringIndexOffset = version <= 3 ? HEADER_SIZE_V3 : HEADER_SIZE;
+            stringDataOffset = stringIndexOffset + 4 * stringCount;
+            artistsOffset = stringDataOffset + stringDataSize;
+            albumsOffset = artistsOffset + ARTIST_RECORD_SIZE * artistCount;
+            songsOffset = albumsOffset + ALBUM_RECORD_SIZE * albumCount;
+            sourcesOffset = songsOffset + songRecordSize * songCount;
+            playlistsOffset = sourcesOffset + SOURCE_RECORD_SIZE * sourceCount;
+            poolOffset = playlistsOffset + PLAYLIST_RECORD_SIZE * playlistCount;
+
+            if(poolOffset + 4L * poolSize > buffer.limit())
+                throw new IllegalStateException("Truncated library cache");
+
+            strings = new String[stringCount];
+            artists = new Artist[artistCount];
+            albums = new Album[albumCount];
+            songs = new Song[songCount];
+        }
+
+        private String string(int id)
+        {
+            if(id == NO_STRING) return null;
+
+            String s = strings[id];
+            if(s == null)
+            {
+                int offset = stringDataOffset + buffer.getInt(stringIndexOffset + 4 * id);
+                byte[] bytes = new byte[buffer.getInt(offset)];
+                ByteBuffer data = buffer.duplicate();
+                data.position(offset + 4);
+                data.get(bytes);
+                s = new String(bytes, StandardCharsets.UTF_8);
+                strings[id] = s;
+            }
+            return s;
+        }
+
+        private Artist artist(int id)
+        {
+            Artist artist = artists[id];
+            if(artist == null)
+            {
+                int record = artistsOffset + ARTIST_RECORD_SIZE * id;
+                artist = new Artist(string(buffer.getInt(record)), string(buffer.getInt(record + 4)));
+                artists[id] = artist;
+            }
+            return artist;
+        }
+
+        private Artist[] artistList(int start, int count)
+        {
+            Artist[] list = new Artist[count];
+            for(int i = 0; i < count; i++) list[i] = artist(buffer.getInt(poolOffset + 4 * (start + i)));
+            return list;
+        }
+
+        private Album album(int id)
+        {
+            Album album = albums[id];
+            if(album == null)
+            {
+                int record = albumsOffset + ALBUM_RECORD_SIZE * id;
+                album = new Album(string(buffer.getInt(record)),
+                        artistList(buffer.getInt(record + 16), buffer.getInt(record + 20)),
+                        string(buffer.getInt(record + 4)), string(buffer.getInt(record + 8)),
+                        buffer.getInt(record + 12));
+                albums[id] = album;
+            }
+            return album;
+        }
+
+        private boolean handled(int id)
+        {
+            return (buffer.getInt(songsOffset + songRecordSize * id + 28) & SONG_FLAG_HANDLED) != 0;
+        }
+
+        /**
+         * @return the key of that song record, without building the song
+         */
+        private SongKey key(int id)
+        {
+            int record = songsOffset + songRecordSize * id;
+            int firstArtist = buffer.getInt(poolOffset + 4 * buffer.getInt(record + 12));
+            int album = buffer.getInt(record + 4);
+            return new SongKey(string(buffer.getInt(artistsOffset + ARTIST_RECORD_SIZE * firstArtist)),
+                    string(buffer.getInt(albumsOffset + ALBUM_RECORD_SIZE * album)),
+                    string(buffer.getInt(record)));
+        }
+
+        private Song song(int id)
+        {
+            int record = songsOffset + songRecordSize * id;
+            Song song = new Song(string(buffer.getInt(record)), album(buffer.getInt(record + 4)),
+                    artistList(buffer.getInt(record + 12), buffer.getInt(record + 16)),
+                    buffer.getInt(record + 8));
+            if(songRecordSize >= SONG_RECORD_SIZE) song.added_at = buffer.getLong(record + 32);
+            addSources(id, song, false);
+
+            songs[id] = song;
+            return song;
+        }
+
+        /**
+         * @param handled if true, every source is added as an handle
+         */
+        private void addSources(int id, Song song, boolean handled)
+        {
+            int record = songsOffset + songRecordSize * id;
+            int sourcesStart = buffer.getInt(record + 20);
+            int sourcesCount = buffer.getInt(record + 24);
+            for(int i = 0; i < sourcesCount; i++)
+            {
+                int sourceRecord = sourcesOffset + SOURCE_RECORD_SIZE * (sourcesStart + i);
+                Source source = source(buffer.getInt(sourceRecord));
+                int flags = buffer.getInt(sourceRecord + 4);
+                song.addSource(source, id(flags, buffer.getLong(sourceRecord + 8)),
+                        handled || (flags & SOURCE_FLAG_HANDLED) != 0);
+            }
+        }
+
+        private Object id(int flags, long value)
+        {
+            if((flags & SOURCE_FLAG_STRING_ID) != 0) return string((int) value);
+            return value;
+        }
+
+        private Source source(int index)
+        {
+            if(index < 0 || index >= Source.SOURCES.size())
+            {
+                System.out.println("BLADE: Song saved with a source that does not exist, skipping this source");
+                return null;
+            }
+            return Source.SOURCES.get(index);
+        }
+
+        private CachedHandles read()
+        {
+            //Library songs are registered in Library (maps, albums, orderings) as they are built ;
+            //handles are only counted
+            int handleCount = 0;
+            for(int i = 0; i < songCount; i++)
+            {
+                if(handled(i)) handleCount++;
+                else Library.restoreSong(song(i));
+            }
+            int[] handles = new int[handleCount];
+            for(int i = 0, h = 0; h < handleCount; i++)
+                if(handled(i)) handles[h++] = i;
+            CachedHandles cachedHandles = new CachedHandles(this, handles);
+
+            for(int i = 0; i < playlistCount; i++)
+            {
+                int record = playlistsOffset + PLAYLIST_RECORD_SIZE * i;
+                Source source = source(buffer.getInt(record + 12));
+                if(source == null) continue;
+
+                String subtitle = string(buffer.getInt(record + 8));
+                Playlist playlist = new Playlist(string(buffer.getInt(record)), null,
+                        string(buffer.getInt(record + 4)), subtitle == null ? "" : subtitle,
+                        new SourceInformation(source, id(buffer.getInt(record + 16), buffer.getLong(record + 28)), false));
+                playlist.restoreSongs(new PlaylistSongs(cachedHandles, buffer.getInt(record + 20), buffer.getInt(record + 24)));
+                Library.restorePlaylist(playlist);
+            }
+            return cachedHandles;
+        }
+    }
+
+    /**
+     * Handles of a library cache, referenced by record ; Library builds each of them the first time
+     * it is needed : when a playlist containing it is read, or when a song with its key is looked up
+     * <p>
+     * Handles are resolved by key : if the library already has a song (or an handle) with the same
+     * key, that song is used instead of a new one
+     */
+    static final class CachedHandles
+    {
+        private final Reader reader;
+        final int[] records;
+        //Handle records by key, built on first lookup
+        private HashMap<SongKey, Integer> keys;
+
+        private CachedHandles(Reader reader, int[] records)
+        {
+            this.reader = reader;
+            this.records = records;
+        }
+
+        /**
+         * @return the song of that record, or null if it is not built yet
+         */
+        synchronized Song built(int record)
+        {
+            return reader.songs[record];
+        }
+
+        synchronized SongKey key(int record)
+        {
+            return reader.key(record);
+        }
+
+        private synchronized int playlistSong(int index)
+        {
+            return reader.buffer.getInt(reader.poolOffset + 4 * index);
+        }
+
+        /**
+         * @return the handle with that key, built now, or null if there is no such handle left to build
+         */
+        synchronized Song take(SongKey key)
+        {
+            if(keys == null)
+            {
+                keys = new HashMap<>(records.length * 2);
+                for(int record : records)
+                {
+                    if(reader.songs[record] != null) continue;
+
+                    SongKey recordKey = reader.key(record);
+                    if(!keys.containsKey(recordKey)) keys.put(recordKey, record);
+                }
+            }
+
+            Integer record = keys.remove(key);
+            if(record == null || reader.songs[record] != null) return null;
+            return reader.song(record);
+        }
+
+        /**
+         * Resolves that handle record, if it is not yet
+         *
+         * @param existing the song with the same key, if any : it gets the sources of the record
+         * @return the song of that record ; a new handle if there was no existing song
+         */
+        synchronized Song resolve(int record, Song existing)
+        {
+            Song song = reader.songs[record];
+            if(song != null) return song;
+            if(existing == null) return reader.song(record);
+
+            reader.addSources(record, existing, true);
+            reader.songs[record] = existing;
+            return existing;
+        }
+    }
+
+    /**
+     * Songs of a playlist of the library cache : a read-only view of its records in the int pool,
+     * that builds handles on first access
+     */
+    private static final class PlaylistSongs extends AbstractList<Song> implements RandomAccess
+    {
+        private final CachedHandles handles;
+        private final int start;
+        private final int count;
+
+        private PlaylistSongs(CachedHandles handles, int start, int count)
+        {
+            this.handles = handles;
+            this.start = start;
+            this.count = count;
+        }
+
+        @Override
+        public Song get(int index)
+        {
+            if(index < 0 || index >= count) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+            return Library.cachedHandle(handles, handles.playlistSong(start + index));
+        }
+
+        @Override
+        public int size()
+        {
+            return count;
+        }
+    }
+}
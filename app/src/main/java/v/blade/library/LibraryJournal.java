@@ -0,0 +1,708 @@
+package v.blade.library;
+
+import android.os.Process;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import v.blade.BladeApplication;
+import v.blade.sources.Source;
+import v.blade.sources.SourceInformation;
+
+/**
+ * Append-only journal of library mutations, written next to the library cache snapshot
+ * <p>
+ * Every record is framed as (length, crc32, payload) ; on load, records are replayed on top
+ * of the snapshot, and a torn record at the end of the file (crash while appending) is dropped.
+ * When the journal grows past {@link #COMPACTION_THRESHOLD}, a new snapshot is saved in the
+ * background.
+ * <p>
+ * The journal is split in generations, one file each : saving a snapshot starts a new generation,
+ * and the snapshot records the first generation it does not contain. Only journals from that
+ * generation on are replayed ; older ones are deleted once the snapshot is written, so a crash in
+ * between never replays records twice.
+ */
+class LibraryJournal
+{
+    private static final byte OP_ADD_SONG = 1;
+    private static final byte OP_REMOVE_SONG = 2;
+    private static final byte OP_SET_SOURCE = 3;
+    private static final byte OP_PLAYLIST_INSERT = 4;
+    private static final byte OP_PLAYLIST_REMOVE = 5;
+    private static final byte OP_CREATE_PLAYLIST = 6;
+    private static final byte OP_DELETE_PLAYLIST = 7;
+    private static final byte OP_SET_PLAYLIST = 8;
+
+    private static final long COMPACTION_THRESHOLD = 256 * 1024;
+    private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024; //a whole playlist is one record
+
+    private final String fileName;
+    private File directory;
+    private long generation = 0; //of the journal records are appended to
+    private long size = -1;
+    private boolean compactionScheduled = false;
+
+    //Records of the batch in progress, appended all at once when it ends
+    private ByteArrayOutputStream batch;
+    private int batchDepth = 0;
+
+    LibraryJournal(String fileName)
+    {
+        this.fileName = fileName.substring(fileName.lastIndexOf('/') + 1);
+    }
+
+    private File directory()
+    {
+        if(directory == null) directory = BladeApplication.appContext.getFilesDir();
+        return directory;
+    }
+
+    private File file(long generation)
+    {
+        //Generation 0 keeps the name of the journal written before generations
+        return new File(directory(), generation == 0 ? fileName : fileName + "." + generation);
+    }
+
+    /**
+     * @return the generations of the journal files on disk, in increasing order
+     */
+    private long[] generations()
+    {
+        String[] names = directory().list();
+        if(names == null) return new long[0];
+
+        long[] generations = new long[names.length];
+        int count = 0;
+        for(String name : names)
+        {
+            if(name.equals(fileName)) generations[count++] = 0;
+            else if(name.startsWith(fileName + "."))
+            {
+                try
+                {
+                    generations[count++] = Long.parseLong(name.substring(fileName.length() + 1));
+                }
+                catch(NumberFormatException ignored)
+                {
+                }
+            }
+        }
+        long[] found = new long[count];
+        System.arraycopy(generations, 0, found, 0, count);
+        Arrays.sort(found);
+        return found;
+    }
+
+    /* Mutations ; the caller applies them in memory */
+
+    synchronized void addSong(Song song)
+    {
+        try
+        {
+            Record record = new Record(OP_ADD_SONG);
+            writeSong(record.out, song);
+            record.out.writeLong(song.added_at);
+            append(record);
+        }
+        catch(IOException e)
+        {
+            journalError(e);
+        }
+    }
+
+    synchronized void removeSong(Song song)
+    {
+        try
+        {
+            Record record = new Record(OP_REMOVE_SONG);
+            writeSongKey(record.out, song);
+            append(record);
+        }
+        catch(IOException e)
+        {
+            journalError(e);
+        }
+    }
+
+    synchronized void setSource(Song song, SourceInformation sourceInformation)
+    {
+        try
+        {
+            Record record = new Record(OP_SET_SOURCE);
+            writeSongKey(record.out, song);
+            writeSource(record.out, sourceInformation);
+            append(record);
+        }
+        catch(IOException e)
+        {
+            journalError(e);
+        }
+    }
+
+    synchronized void playlistInsert(Playlist playlist, int position, Song song)
+    {
+        try
+        {
+            Record record = new Record(OP_PLAYLIST_INSERT);
+            writePlaylistRef(record.out, playlist);
+            record.out.writeInt(position);
+            writeSong(record.out, song);
+            append(record);
+        }
+        catch(IOException e)
+        {
+            journalError(e);
+        }
+    }
+
+    synchronized void playlistRemove(Playlist playlist, int position, Song song)
+    {
+        try
+        {
+            Record record = new Record(OP_PLAYLIST_REMOVE);
+            writePlaylistRef(record.out, playlist);
+            record.out.writeInt(position);
+            writeSongKey(record.out, song);
+            append(record);
+        }
+        catch(IOException e)
+        {
+            journalError(e);
+        }
+    }
+
+    synchronized void createPlaylist(Playlist playlist)
+    {
+        try
+        {
+            Record record = new Record(OP_CREATE_PLAYLIST);
+            writePlaylistRef(record.out, playlist);
+            writeString(record.out, playlist.getName());
+            writeString(record.out, playlist.imageStr);
+            writeString(record.out, playlist.getSubtitle());
+            append(record);
+        }
+        catch(IOException e)
+        {
+            journalError(e);
+        }
+    }
+
+    /**
+     * Journals a whole playlist, replacing the one with the same source and id ; a single record,
+     * replayed with a single copy of the song list
+     */
+    synchronized void setPlaylist(Playlist playlist)
+    {
+        try
+        {
+            Record record = new Record(OP_SET_PLAYLIST);
+            writePlaylistRef(record.out, playlist);
+            writeString(record.out, playlist.getName());
+            writeString(record.out, playlist.imageStr);
+            writeString(record.out, playlist.getSubtitle());
+            List<Song> songs = playlist.getSongs();
+            record.out.writeInt(songs.size());
+            for(Song song : songs) writeSong(record.out, song);
+            append(record);
+        }
+        catch(IOException e)
+        {
+            journalError(e);
+        }
+    }
+
+    synchronized void deletePlaylist(Playlist playlist)
+    {
+        try
+        {
+            Record record = new Record(OP_DELETE_PLAYLIST);
+            writePlaylistRef(record.out, playlist);
+            append(record);
+        }
+        catch(IOException e)
+        {
+            journalError(e);
+        }
+    }
+
+    /**
+     * Groups the following records until {@link #endBatch()} : they are appended and synced to
+     * disk once, instead of once per record
+     * Each record keeps its own framing, so a crash while appending a batch still keeps its valid records
+     */
+    synchronized void beginBatch()
+    {
+        if(batchDepth++ == 0) batch = new ByteArrayOutputStream();
+    }
+
+    synchronized void endBatch()
+    {
+        if(batchDepth == 0 || --batchDepth > 0) return;
+
+        byte[] frames = batch.toByteArray();
+        batch = null;
+        if(frames.length == 0) return;
+
+        try
+        {
+            write(frames);
+        }
+        catch(IOException e)
+        {
+            journalError(e);
+        }
+    }
+
+    /**
+     * Starts a new generation : the following records go to a new journal file ; to be called, with
+     * the library copied for a snapshot, under the same lock as mutations
+     *
+     * @return the generation to save in that snapshot
+     */
+    synchronized long rotate()
+    {
+        generation++;
+        size = 0;
+        return generation;
+    }
+
+    /**
+     * Deletes the journals that are in a saved snapshot
+     *
+     * @param snapshotGeneration the generation saved in that snapshot
+     */
+    synchronized void release(long snapshotGeneration)
+    {
+        for(long g : generations())
+        {
+            if(g >= snapshotGeneration) break;
+            if(!file(g).delete()) System.err.println("BLADE: Could not delete library journal " + g);
+        }
+    }
+
+    /**
+     * Replays the journals on top of the library snapshot currently in memory
+     *
+     * @param snapshotGeneration the generation saved in that snapshot, 0 if there is none
+     */
+    synchronized void replay(long snapshotGeneration)
+    {
+        generation = snapshotGeneration;
+        int replayed = 0;
+        for(long g : generations())
+        {
+            //Already in the snapshot (crash before the journal was deleted)
+            if(g < snapshotGeneration)
+            {
+                if(!file(g).delete()) System.err.println("BLADE: Could not delete library journal " + g);
+                continue;
+            }
+
+            replayed += replay(file(g));
+            generation = g;
+        }
+
+        size = file(generation).length();
+        System.out.println("BLADE: Replayed " + replayed + " library journal records");
+    }
+
+    /**
+     * @return the number of records replayed from that journal file
+     */
+    private static int replay(File journalFile)
+    {
+        long valid = 0;
+        int replayed = 0;
+        try
+        {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+            try
+            {
+                //noinspection InfiniteLoopStatement
+                while(true)
+                {
+                    int length = in.readInt();
+                    long crc = in.readInt() & 0xFFFFFFFFL;
+                    if(length <= 0 || length > MAX_RECORD_SIZE) break;
+
+                    byte[] payload = new byte[length];
+                    in.readFully(payload);
+
+                    CRC32 crc32 = new CRC32();
+                    crc32.update(payload);
+                    if(crc32.getValue() != crc) break;
+
+                    try
+                    {
+                        apply(new DataInputStream(new ByteArrayInputStream(payload)));
+                        replayed++;
+                    }
+                    catch(IOException | RuntimeException e)
+                    {
+                        //The record is valid but does not apply anymore (e.g. source removed) ; skip it
+                        System.err.println("BLADE: Skipping library journal record : " + e);
+                    }
+                    valid += 8 + length;
+                }
+            }
+            catch(EOFException ignored)
+            {
+                //End of journal, or torn record
+            }
+            finally
+            {
+                in.close();
+            }
+
+            //Drop the torn/corrupted tail, so that new records are appended after valid ones
+            if(valid < journalFile.length())
+            {
+                RandomAccessFile randomAccessFile = new RandomAccessFile(journalFile, "rw");
+                randomAccessFile.setLength(valid);
+                randomAccessFile.close();
+            }
+        }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+        }
+        return replayed;
+    }
+
+    private static class Record
+    {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        private Record(byte op) throws IOException
+        {
+            out.writeByte(op);
+        }
+    }
+
+    private void append(Record record) throws IOException
+    {
+        record.out.flush();
+        byte[] payload = record.bytes.toByteArray();
+        CRC32 crc32 = new CRC32();
+        crc32.update(payload);
+
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(8 + payload.length);
+        DataOutputStream out = new DataOutputStream(frame);
+        out.writeInt(payload.length);
+        out.writeInt((int) crc32.getValue());
+        out.write(payload);
+        out.flush();
+
+        if(batch != null) frame.writeTo(batch);
+        else write(frame.toByteArray());
+    }
+
+    private void write(byte[] frames) throws IOException
+    {
+        FileOutputStream fileOut = new FileOutputStream(file(generation), true);
+        try
+        {
+            fileOut.write(frames);
+            fileOut.getFD().sync();
+        }
+        finally
+        {
+            fileOut.close();
+        }
+
+        if(size < 0) size = file(generation).length();
+        else size += frames.length;
+
+        //Compact in background : a new snapshot starts a new journal ; not while synchronizing, as
+        //the library is half synchronized (it is saved at the end)
+        if(size > COMPACTION_THRESHOLD && !compactionScheduled && !Source.isSyncing)
+        {
+            compactionScheduled = true;
+            BladeApplication.obtainExecutorService().execute(() ->
+            {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                try
+                {
+                    Library.save();
+                }
+                finally
+                {
+                    //Even if the save failed, so that it does not stop compactions
+                    compactionDone();
+                }
+            });
+        }
+    }
+
+    private synchronized void compactionDone()
+    {
+        compactionScheduled = false;
+    }
+
+    private static void journalError(IOException e)
+    {
+        //The mutation stays in memory ; it will be persisted by the next snapshot
+        System.err.println("BLADE: Could not append to library journal : " + e.getMessage());
+    }
+
+    /* Encoding */
+
+    private static void writeString(DataOutputStream out, String s) throws IOException
+    {
+        out.writeBoolean(s != null);
+        if(s != null) out.writeUTF(s);
+    }
+
+    private static String readString(DataInputStream in) throws IOException
+    {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeId(DataOutputStream out, Object id) throws IOException
+    {
+        if(id instanceof Number)
+        {
+            out.writeBoolean(false);
+            out.writeLong(((Number) id).longValue());
+        }
+        else
+        {
+            out.writeBoolean(true);
+            out.writeUTF(id.toString());
+        }
+    }
+
+    private static Object readId(DataInputStream in) throws IOException
+    {
+        return in.readBoolean() ? in.readUTF() : (Object) in.readLong();
+    }
+
+    private static void writeSource(DataOutputStream out, SourceInformation si) throws IOException
+    {
+        out.writeInt(si.source.getIndex());
+        writeId(out, si.id);
+        out.writeBoolean(si.handled);
+    }
+
+    private static void writeSongKey(DataOutputStream out, Song song) throws IOException
+    {
+        out.writeUTF(song.artists[0].name);
+        out.writeUTF(song.album.name);
+        out.writeUTF(song.name);
+    }
+
+    private static void writeArtists(DataOutputStream out, Artist[] artists) throws IOException
+    {
+        out.writeInt(artists.length);
+        for(Artist a : artists)
+        {
+            out.writeUTF(a.name);
+            writeString(out, a.imageStr);
+        }
+    }
+
+    private static void writeSong(DataOutputStream out, Song song) throws IOException
+    {
+        out.writeUTF(song.name);
+        out.writeUTF(song.album.name);
+        out.writeInt(song.track_number);
+        writeArtists(out, song.artists);
+        writeArtists(out, song.album.artists);
+        writeString(out, song.album.imageStr);
+        writeString(out, song.album.imageBigStr);
+        out.writeInt(song.album.imageLevel);
+
+        List<SourceInformation> sources = new ArrayList<>();
+        for(SourceInformation si : song.getSources())
+            if(si.source != null && si.id != null) sources.add(si);
+        out.writeInt(sources.size());
+        for(SourceInformation si : sources) writeSource(out, si);
+    }
+
+    private static void writePlaylistRef(DataOutputStream out, Playlist playlist) throws IOException
+    {
+        out.writeInt(playlist.getSource().source.getIndex());
+        writeId(out, playlist.getSource().id);
+    }
+
+    /* Replay */
+
+    private static Source source(int index)
+    {
+        if(index < 0 || index >= Source.SOURCES.size())
+            throw new IllegalStateException("source " + index + " does not exist");
+        return Source.SOURCES.get(index);
+    }
+
+    private static Song readSongKey(DataInputStream in) throws IOException
+    {
+        String artist = in.readUTF();
+        String album = in.readUTF();
+        String title = in.readUTF();
+        return Library.lookupSong(artist, album, title);
+    }
+
+    private static Playlist readPlaylistRef(DataInputStream in) throws IOException
+    {
+        Source source = source(in.readInt());
+        Object id = readId(in);
+        return Library.lookupPlaylist(source, id);
+    }
+
+    private static void readSource(DataInputStream in, Song song) throws IOException
+    {
+        Source source = source(in.readInt());
+        Object id = readId(in);
+        boolean handled = in.readBoolean();
+
+        for(SourceInformation si : song.getSources())
+        {
+            if(si.source == source)
+            {
+                si.id = id;
+                si.handled = handled;
+                return;
+            }
+        }
+        song.addSource(source, id, handled);
+    }
+
+    /**
+     * Reads a song record, and obtains the corresponding song, creating a handle if needed
+     */
+    private static Song readSong(DataInputStream in) throws IOException
+    {
+        String title = in.readUTF();
+        String album = in.readUTF();
+        int trackNumber = in.readInt();
+
+        int artistCount = in.readInt();
+        String[] artists = new String[artistCount];
+        String[] artistsImages = new String[artistCount];
+        for(int i = 0; i < artistCount; i++)
+        {
+            artists[i] = in.readUTF();
+            artistsImages[i] = readString(in);
+        }
+
+        int albumArtistCount = in.readInt();
+        String[] albumArtists = new String[albumArtistCount];
+        String[] albumArtistsImages = new String[albumArtistCount];
+        for(int i = 0; i < albumArtistCount; i++)
+        {
+            albumArtists[i] = in.readUTF();
+            albumArtistsImages[i] = readString(in);
+        }
+
+        String albumImage = readString(in);
+        String albumBigImage = readString(in);
+        int albumImageLevel = in.readInt();
+
+        Song song = Library.lookupSong(artists[0], album, title);
+        if(song == null)
+            song = Library.addSongHandle(title, album, artists, null, null, albumArtists,
+                    albumImage, trackNumber, artistsImages, albumArtistsImages, albumBigImage, albumImageLevel);
+
+        int sourceCount = in.readInt();
+        for(int i = 0; i < sourceCount; i++) readSource(in, song);
+
+        return song;
+    }
+
+    private static void apply(DataInputStream in) throws IOException
+    {
+        byte op = in.readByte();
+        switch(op)
+        {
+            case OP_ADD_SONG:
+            {
+                Song song = readSong(in);
+                //Records written before songs had a date added end with the song
+                long addedAt = in.available() >= 8 ? in.readLong() : 0;
+                if(song.added_at == 0) song.added_at = addedAt;
+                Library.addSongFromHandle(song);
+                break;
+            }
+            case OP_REMOVE_SONG:
+            {
+                Song song = readSongKey(in);
+                //Handles are not in the library : nothing to remove
+                if(song != null && Library.isLibrarySong(song)) Library.removeSong(song);
+                break;
+            }
+            case OP_SET_SOURCE:
+            {
+                Song song = readSongKey(in);
+                if(song != null) readSource(in, song);
+                break;
+            }
+            case OP_PLAYLIST_INSERT:
+            {
+                Playlist playlist = readPlaylistRef(in);
+                int position = in.readInt();
+                Song song = readSong(in);
+                if(playlist != null) playlist.insert(position, Collections.singletonList(song));
+                break;
+            }
+            case OP_PLAYLIST_REMOVE:
+            {
+                Playlist playlist = readPlaylistRef(in);
+                int position = in.readInt();
+                Song song = readSongKey(in);
+                if(playlist != null && song != null) playlist.remove(position, song);
+                break;
+            }
+            case OP_CREATE_PLAYLIST:
+            {
+                Source source = source(in.readInt());
+                Object id = readId(in);
+                String name = readString(in);
+                String image = readString(in);
+                String subtitle = readString(in);
+                if(Library.lookupPlaylist(source, id) == null)
+                    Library.addPlaylist(name, new ArrayList<>(), image, subtitle, source, id);
+                break;
+            }
+            case OP_SET_PLAYLIST:
+            {
+                Source source = source(in.readInt());
+                Object id = readId(in);
+                String name = readString(in);
+                String image = readString(in);
+                String subtitle = readString(in);
+                int count = in.readInt();
+                ArrayList<Song> songs = new ArrayList<>(count);
+                for(int i = 0; i < count; i++) songs.add(readSong(in));
+
+                Playlist existing = Library.lookupPlaylist(source, id);
+                if(existing != null) Library.removePlaylist(existing);
+                Library.addPlaylist(name, songs, image, subtitle, source, id);
+                break;
+            }
+            case OP_DELETE_PLAYLIST:
+            {
+                Playlist playlist = readPlaylistRef(in);
+                if(playlist != null) Library.removePlaylist(playlist);
+                break;
+            }
+            default:
+                throw new IOException("Unknown journal operation " + op);
+        }
+    }
+}
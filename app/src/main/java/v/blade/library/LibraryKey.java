@@ -0,0 +1,40 @@
+package v.blade.library;
+
+/**
+ * Base of the keys of the Library HashMaps
+ * Keys compare their names ignoring case ; the case-insensitive hash is computed once,
+ * when the key is built, so that no lowercase copy of the names is ever allocated
+ */
+abstract class LibraryKey
+{
+    private final int hash;
+
+    LibraryKey(int hash)
+    {
+        this.hash = hash;
+    }
+
+    @Override
+    public final int hashCode()
+    {
+        return hash;
+    }
+
+    /**
+     * Case-insensitive hash of a name, consistent with String.equalsIgnoreCase()
+     */
+    static int hash(int h, String s)
+    {
+        if(s == null) return 31 * h;
+
+        for(int i = 0; i < s.length(); i++)
+            h = 31 * h + Character.toLowerCase(Character.toUpperCase(s.charAt(i)));
+        return 31 * h + s.length();
+    }
+
+    static boolean same(String a, String b)
+    {
+        //noinspection StringEquality
+        return a == b || (a != null && a.equalsIgnoreCase(b));
+    }
+}
@@ -1,8 +1,10 @@
 package v.blade.library;
 
-import com.squareup.picasso.RequestCreator;
-
+import java.text.CollationKey;
+import java.text.Collator;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
 
 import v.blade.sources.SourceInformation;
 
@@ -10,26 +12,54 @@ public abstract class LibraryObject
 {
     protected String name;
     protected ArrayList<SourceInformation> sources;
-    protected RequestCreator imageRequest = null;
-    protected String imageStr = null;
+    protected String imageStr = null; //url of the miniature ; requests are created when shown, cf. ImageResolver
+
+    //Collators are not thread-safe, and lists are sorted in parallel
+    private static final ThreadLocal<Collator> collator = new ThreadLocal<Collator>()
+    {
+        @Override
+        protected Collator initialValue()
+        {
+            Collator collator = Collator.getInstance();
+            //Case-insensitive ; accents only break ties between otherwise equal names
+            collator.setStrength(Collator.SECONDARY);
+            return collator;
+        }
+    };
+
+    /* Sort order of library lists : locale-aware order of names, using the precomputed keys */
+    static final Comparator<LibraryObject> BY_NAME = (o1, o2) -> o1.getSortKey().compareTo(o2.getSortKey());
+
+    private volatile CollationKey sortKey = null;
+
+    private static final AtomicLong uids = new AtomicLong();
+    private final long uid = uids.incrementAndGet();
 
     public String getName()
     {
         return name;
     }
 
-    public RequestCreator getImageRequest()
+    public String getImageStr()
     {
-        return imageRequest;
+        return imageStr;
     }
 
-    public void setImageRequest(RequestCreator request)
+    /**
+     * @return an id unique to this object while the app runs (e.g. for stable ids of list items)
+     */
+    public long getUid()
     {
-        this.imageRequest = request;
+        return uid;
     }
 
-    public String getImageStr()
+    /**
+     * @return the collation key of the name, computed once (names do not change)
+     */
+    CollationKey getSortKey()
     {
-        return imageStr;
+        CollationKey key = sortKey;
+        if(key == null) sortKey = key = collator.get().getCollationKey(name == null ? "" : name);
+        return key;
     }
 }
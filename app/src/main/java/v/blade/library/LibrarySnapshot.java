@@ -0,0 +1,103 @@
+package v.blade.library;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable view of the library, published by Library.generateLists() once ingestion is done
+ * <p>
+ * Nothing reachable from a snapshot list is modified after publication (albums, artists and playlists
+ * publish copies of their songs and albums, see Album.getSongs(), Artist.getAlbums() and
+ * Playlist.getSongs()), so snapshots can be read from any thread without locking. While a synchronization rebuilds the library, readers
+ * keep the previous snapshot : they never see an empty or half-built library.
+ */
+public final class LibrarySnapshot
+{
+    static final LibrarySnapshot EMPTY = new LibrarySnapshot(0, Collections.<Artist>emptyList(),
+            Collections.<Album>emptyList(), null, Collections.<Playlist>emptyList(), SearchIndex.EMPTY,
+            null, null, null);
+
+    private final int version;
+    private final List<Artist> artists;
+    private final List<Album> albums;
+    private final List<List<Song>> songs; //one list per SongOrderings.Order, null if empty
+    private final List<Playlist> playlists;
+    final SearchIndex searchIndex; //the exception : maintained in place by Library, and thread safe
+
+    //Alphabetical sections of the lists, null if not indexed
+    private final SectionIndex artistSections;
+    private final SectionIndex albumSections;
+    private final List<SectionIndex> songSections; //one per SongOrderings.Order, null for orders that are not alphabetical
+
+    LibrarySnapshot(int version, List<Artist> artists, List<Album> albums, List<List<Song>> songs,
+                    List<Playlist> playlists, SearchIndex searchIndex,
+                    SectionIndex artistSections, SectionIndex albumSections, List<SectionIndex> songSections)
+    {
+        this.version = version;
+        this.artists = Collections.unmodifiableList(artists);
+        this.albums = Collections.unmodifiableList(albums);
+        this.songs = songs;
+        this.playlists = Collections.unmodifiableList(playlists);
+        this.searchIndex = searchIndex;
+        this.artistSections = artistSections;
+        this.albumSections = albumSections;
+        this.songSections = songSections;
+    }
+
+    /**
+     * @return the same snapshot, with other playlists (playlists are created and deleted by the user,
+     * without a generation of the lists)
+     */
+    LibrarySnapshot withPlaylists(List<Playlist> playlists)
+    {
+        return new LibrarySnapshot(version + 1, artists, albums, songs, playlists, searchIndex,
+                artistSections, albumSections, songSections);
+    }
+
+    /**
+     * @return the generation of this snapshot ; increases every time a snapshot is published
+     */
+    public int getVersion()
+    {
+        return version;
+    }
+
+    public List<Artist> getArtists()
+    {
+        return artists;
+    }
+
+    public List<Album> getAlbums()
+    {
+        return albums;
+    }
+
+    public List<Song> getSongs()
+    {
+        return getSongs(SongOrderings.Order.TITLE);
+    }
+
+    public List<Song> getSongs(SongOrderings.Order order)
+    {
+        return songs == null ? Collections.<Song>emptyList() : songs.get(order.ordinal());
+    }
+
+    public List<Playlist> getPlaylists()
+    {
+        return playlists;
+    }
+
+    /**
+     * @param list one of the lists of this snapshot
+     * @return the alphabetical sections of that list, or null if it is not one of ours or is not indexed
+     */
+    public SectionIndex getSections(List<?> list)
+    {
+        if(list == artists) return artistSections;
+        if(list == albums) return albumSections;
+        if(songs != null && songSections != null)
+            for(int i = 0; i < songs.size(); i++)
+                if(list == songs.get(i)) return songSections.get(i);
+        return null;
+    }
+}
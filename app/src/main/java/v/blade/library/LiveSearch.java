@@ -0,0 +1,120 @@
+package v.blade.library;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import v.blade.BladeApplication;
+
+/**
+ * Search-as-you-type over a SearchIndex
+ * <p>
+ * The matches of the last queries are kept (LRU) : going back to a previous query is a cache hit,
+ * and a query extending a cached one ('lov' after 'lo') only checks the cached matches instead of
+ * the whole index. Queries run one at a time on a background thread ; a new query cancels the
+ * previous one if it did not start yet, and results of a stale query are never delivered.
+ */
+final class LiveSearch
+{
+    private static final int CACHE_SIZE = 16;
+
+    private static class CachedQuery
+    {
+        private final SearchIndex.Matches matches;
+        private final SearchIndex.Result result;
+
+        private CachedQuery(SearchIndex.Matches matches, SearchIndex.Result result)
+        {
+            this.matches = matches;
+            this.result = result;
+        }
+    }
+
+    private final int limit;
+
+    //Access-ordered : the eldest entry is the least recently used
+    private final LinkedHashMap<String, CachedQuery> cache = new LinkedHashMap<String, CachedQuery>(CACHE_SIZE, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedQuery> eldest)
+        {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private static final ThreadPoolExecutor searchExecutor = new ThreadPoolExecutor(1, 1, 30L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), runnable -> new Thread(runnable, "blade-search"));
+
+    static
+    {
+        searchExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private final AtomicInteger generation = new AtomicInteger();
+    private final Object pendingLock = new Object();
+    private Future<?> pending;
+
+    /**
+     * @param limit maximum number of results of each kind
+     */
+    LiveSearch(int limit)
+    {
+        this.limit = limit;
+    }
+
+    /**
+     * Searches the index, reusing the cached matches of previous queries
+     */
+    synchronized SearchIndex.Result find(SearchIndex index, String query)
+    {
+        String key = SearchIndex.join(SearchIndex.tokenize(query));
+
+        CachedQuery cached = cache.get(key);
+        if(cached != null && cached.matches.isCurrent(index)) return cached.result;
+
+        //Narrow down the most specific cached query this one extends ; matches of a previous (or modified) index are dropped
+        SearchIndex.Matches base = null;
+        boolean stale = false;
+        for(CachedQuery c : cache.values())
+        {
+            if(!c.matches.isCurrent(index)) stale = true;
+            else if(c.matches.contains(key) && (base == null || c.matches.query.length() > base.query.length()))
+                base = c.matches;
+        }
+        if(stale) cache.clear();
+
+        SearchIndex.Matches matches = base == null ? index.match(query) : index.refine(base, query);
+        SearchIndex.Result result = index.rank(matches, limit);
+        cache.put(key, new CachedQuery(matches, result));
+        return result;
+    }
+
+    /**
+     * Runs Library.search in the background, cancelling the previous query ; callback is called on
+     * the search thread, unless another query was submitted meanwhile
+     */
+    void submit(String query, BladeApplication.Callback<List<LibraryObject>> callback)
+    {
+        final int current = generation.incrementAndGet();
+        synchronized(pendingLock)
+        {
+            if(pending != null) pending.cancel(false);
+            pending = searchExecutor.submit(() ->
+            {
+                if(generation.get() != current) return;
+                List<LibraryObject> result = Library.search(query);
+                if(generation.get() == current) callback.run(result);
+            });
+        }
+    }
+
+    synchronized void clear()
+    {
+        cache.clear();
+    }
+}
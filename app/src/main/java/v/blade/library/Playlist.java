@@ -1,14 +1,15 @@
 package v.blade.library;
 
-import com.squareup.picasso.Picasso;
-
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import v.blade.sources.SourceInformation;
 
 public class Playlist extends LibraryObject
 {
-    final List<Song> songs;
+    //Copy-on-write : every change publishes a new list, readers never see one being modified
+    private volatile List<Song> songs;
     private final SourceInformation sourceInformation;
     private final String playlistSubtitle;
 
@@ -16,8 +17,7 @@ public class Playlist extends LibraryObject
     {
         this.name = name;
         this.imageStr = image;
-        this.imageRequest = (image == null || image.equals("")) ? null : Picasso.get().load(image);
-        this.songs = songList;
+        this.songs = songList == null ? null : Collections.unmodifiableList(new ArrayList<>(songList));
         this.sourceInformation = sourceInformation;
         this.playlistSubtitle = subtitle;
     }
@@ -27,11 +27,64 @@ public class Playlist extends LibraryObject
         return sourceInformation;
     }
 
+    /**
+     * @return the songs of this playlist ; a read-only list, that is never modified once returned
+     */
     public List<Song> getSongs()
     {
         return songs;
     }
 
+    /**
+     * Sets the songs of a playlist restored from the library cache ; the list is kept as is, it can
+     * build its songs on first access
+     */
+    void restoreSongs(List<Song> songList)
+    {
+        this.songs = songList;
+    }
+
+    /**
+     * @return a copy of this playlist as it is now, unaffected by later changes of its songs
+     */
+    Playlist copy()
+    {
+        Playlist copy = new Playlist(name, null, imageStr, playlistSubtitle, sourceInformation);
+        copy.songs = songs;
+        return copy;
+    }
+
+    /**
+     * Inserts songs at the given position, clamped to the end of the playlist
+     *
+     * @return the position of the first inserted song
+     */
+    synchronized int insert(int position, List<Song> inserted)
+    {
+        ArrayList<Song> copy = new ArrayList<>(songs.size() + inserted.size());
+        copy.addAll(songs);
+        position = Math.min(position, copy.size());
+        copy.addAll(position, inserted);
+        songs = Collections.unmodifiableList(copy);
+        return position;
+    }
+
+    /**
+     * Removes the song at the given position, or else its first occurrence
+     *
+     * @return the position of the removed song, or -1 if it is not in the playlist
+     */
+    synchronized int remove(int position, Song song)
+    {
+        if(position < 0 || position >= songs.size() || songs.get(position) != song) position = songs.indexOf(song);
+        if(position == -1) return -1;
+
+        ArrayList<Song> copy = new ArrayList<>(songs);
+        copy.remove(position);
+        songs = Collections.unmodifiableList(copy);
+        return position;
+    }
+
     public String getSubtitle()
     {
         return playlistSubtitle;
@@ -0,0 +1,430 @@
+package v.blade.library;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * Token index of the library songs, albums and artists ; built by Library.generateLists() after a
+ * cache load or a synchronization, then maintained as they are added to and removed from the library
+ * <p>
+ * Names are normalized (lower case, no accents) and split into words ; the sorted dictionary of
+ * every word maps to the entries that contain it, so a word prefix is a lookup and a scan of
+ * the following words. A query matches an entry if each query word is the prefix of one of its words.
+ * Matches are ranked : exact name, then name starting with the query, then whole words, then prefixes.
+ * The index is thread safe ; every modification invalidates the matches obtained before it.
+ */
+final class SearchIndex
+{
+    static final SearchIndex EMPTY = new SearchIndex(); //never modified
+
+    private static final byte KIND_SONG = 0;
+    private static final byte KIND_ALBUM = 1;
+    private static final byte KIND_ARTIST = 2;
+
+    private static final int SCORE_EXACT = 0;
+    private static final int SCORE_NAME_PREFIX = 1;
+    private static final int SCORE_WORDS = 2;
+    private static final int SCORE_WORD_PREFIXES = 3;
+    static final int MAX_SCORE = SCORE_WORD_PREFIXES;
+
+    static class Result
+    {
+        final List<Song> songs;
+        final List<Album> albums;
+        final List<Artist> artists;
+
+        private Result(List<Song> songs, List<Album> albums, List<Artist> artists)
+        {
+            this.songs = songs;
+            this.albums = albums;
+            this.artists = artists;
+        }
+    }
+
+    /* Entries ; the slots of removed entries are null, and reused */
+    private LibraryObject[] objects = new LibraryObject[16];
+    private String[] names = new String[16]; //normalized
+    private String[][] tokens = new String[16][];
+    private byte[] kinds = new byte[16];
+    private boolean[] handles = new boolean[16];
+    private int size = 0;
+    private final IntList freeSlots = new IntList();
+    private final Map<LibraryObject, Integer> positions = new IdentityHashMap<>();
+
+    /* Sorted dictionary of tokens, and the entries containing each of them */
+    private final TreeMap<String, IntList> dictionary = new TreeMap<>();
+
+    private volatile int modifications = 0;
+
+    static SearchIndex build(Collection<Song> songs, Collection<Song> handledSongs, Collection<Album> albums, Collection<Artist> artists)
+    {
+        SearchIndex index = new SearchIndex();
+        index.addAll(songs, handledSongs, albums, artists);
+        return index;
+    }
+
+    synchronized void addAll(Collection<Song> songs, Collection<Song> handledSongs, Collection<Album> albums, Collection<Artist> artists)
+    {
+        for(Song song : songs) add(song, false);
+        for(Song song : handledSongs) add(song, true);
+        for(Album album : albums) add(album, false);
+        for(Artist artist : artists) add(artist, false);
+    }
+
+    /**
+     * Indexes a song, album or artist ; if it is already indexed, only updates whether it is an handle
+     */
+    void add(LibraryObject object, boolean handle)
+    {
+        String[] objectTokens = tokenize(object.getName());
+        String name = join(objectTokens);
+        byte kind = object instanceof Song ? KIND_SONG : object instanceof Album ? KIND_ALBUM : KIND_ARTIST;
+
+        synchronized(this)
+        {
+            Integer position = positions.get(object);
+            if(position != null)
+            {
+                if(handles[position] != handle)
+                {
+                    handles[position] = handle;
+                    modifications++;
+                }
+                return;
+            }
+
+            int entry = freeSlots.size > 0 ? freeSlots.values[--freeSlots.size] : size++;
+            if(entry == objects.length)
+            {
+                int capacity = entry * 2;
+                objects = Arrays.copyOf(objects, capacity);
+                names = Arrays.copyOf(names, capacity);
+                tokens = Arrays.copyOf(tokens, capacity);
+                kinds = Arrays.copyOf(kinds, capacity);
+                handles = Arrays.copyOf(handles, capacity);
+            }
+            objects[entry] = object;
+            names[entry] = name;
+            tokens[entry] = objectTokens;
+            kinds[entry] = kind;
+            handles[entry] = handle;
+            positions.put(object, entry);
+
+            for(int i = 0; i < objectTokens.length; i++)
+            {
+                //A word repeated in a name is only indexed once
+                if(isRepeated(objectTokens, i)) continue;
+
+                IntList list = dictionary.get(objectTokens[i]);
+                if(list == null)
+                {
+                    list = new IntList();
+                    dictionary.put(objectTokens[i], list);
+                }
+                list.add(entry);
+            }
+            modifications++;
+        }
+    }
+
+    synchronized void remove(LibraryObject object)
+    {
+        Integer position = positions.remove(object);
+        if(position == null) return;
+
+        int entry = position;
+        String[] objectTokens = tokens[entry];
+        for(int i = 0; i < objectTokens.length; i++)
+        {
+            if(isRepeated(objectTokens, i)) continue;
+
+            IntList list = dictionary.get(objectTokens[i]);
+            list.remove(entry);
+            if(list.size == 0) dictionary.remove(objectTokens[i]);
+        }
+
+        objects[entry] = null;
+        names[entry] = null;
+        tokens[entry] = null;
+        freeSlots.add(entry);
+        modifications++;
+    }
+
+    private static boolean isRepeated(String[] tokens, int index)
+    {
+        for(int i = 0; i < index; i++) if(tokens[i].equals(tokens[index])) return true;
+        return false;
+    }
+
+    /**
+     * Every entry matching a query (not ranked nor limited), so that it can be refined
+     */
+    static final class Matches
+    {
+        final SearchIndex index;
+        private final int modifications;
+        final String query; //normalized
+        final String[] tokens;
+        final BitSet entries;
+
+        private Matches(SearchIndex index, String query, String[] tokens, BitSet entries)
+        {
+            this.index = index;
+            this.modifications = index.modifications;
+            this.query = query;
+            this.tokens = tokens;
+            this.entries = entries;
+        }
+
+        /**
+         * @return true if every match of that query is one of ours : it extends our query
+         * (e.g. 'lov' after 'lo', or 'love m' after 'love')
+         */
+        boolean contains(String normalizedQuery)
+        {
+            return tokens.length > 0 && normalizedQuery.startsWith(query);
+        }
+
+        /**
+         * @return true if these are matches of that index, and it was not modified since
+         */
+        boolean isCurrent(SearchIndex index)
+        {
+            return this.index == index && modifications == index.modifications;
+        }
+    }
+
+    /**
+     * @param limit maximum number of results of each kind
+     */
+    Result search(String query, int limit)
+    {
+        return rank(match(query), limit);
+    }
+
+    synchronized Matches match(String query)
+    {
+        String[] queryTokens = tokenize(query);
+        String normalizedQuery = join(queryTokens);
+        BitSet matching = new BitSet(size);
+        if(queryTokens.length == 0) return new Matches(this, normalizedQuery, queryTokens, matching);
+
+        //The longest query word is the most selective : its matches are the candidates
+        String driver = queryTokens[0];
+        for(String token : queryTokens) if(token.length() >= driver.length()) driver = token;
+
+        BitSet candidates = new BitSet(size);
+        for(Map.Entry<String, IntList> word : dictionary.tailMap(driver, true).entrySet())
+        {
+            if(!word.getKey().startsWith(driver)) break;
+            IntList list = word.getValue();
+            for(int i = 0; i < list.size; i++) candidates.set(list.values[i]);
+        }
+
+        for(int entry = candidates.nextSetBit(0); entry >= 0; entry = candidates.nextSetBit(entry + 1))
+            if(score(names[entry], tokens[entry], normalizedQuery, queryTokens) >= 0) matching.set(entry);
+
+        return new Matches(this, normalizedQuery, queryTokens, matching);
+    }
+
+    /**
+     * Matches a query that extends a previous one, by only checking the previous matches
+     */
+    synchronized Matches refine(Matches previous, String query)
+    {
+        String[] queryTokens = tokenize(query);
+        String normalizedQuery = join(queryTokens);
+        if(!previous.isCurrent(this) || !previous.contains(normalizedQuery)) return match(query);
+
+        BitSet matching = new BitSet(size);
+        for(int entry = previous.entries.nextSetBit(0); entry >= 0; entry = previous.entries.nextSetBit(entry + 1))
+            if(score(names[entry], tokens[entry], normalizedQuery, queryTokens) >= 0) matching.set(entry);
+
+        return new Matches(this, normalizedQuery, queryTokens, matching);
+    }
+
+    /**
+     * @param limit maximum number of results of each kind
+     */
+    synchronized Result rank(Matches matches, int limit)
+    {
+        List<PriorityQueue<Hit>> best = new ArrayList<>(3);
+        for(int i = 0; i < 3; i++) best.add(new PriorityQueue<>(Math.max(1, limit) + 1, WORST_FIRST));
+        if(limit <= 0) return new Result(new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+
+        for(int entry = matches.entries.nextSetBit(0); entry >= 0; entry = matches.entries.nextSetBit(entry + 1))
+        {
+            //The index may have been modified since the match : the entry can be gone, or another one
+            if(objects[entry] == null) continue;
+            int score = score(names[entry], tokens[entry], matches.query, matches.tokens);
+            if(score < 0) continue;
+
+            PriorityQueue<Hit> queue = best.get(kinds[entry]);
+            Hit hit = new Hit(entry, score, handles[entry], names[entry]);
+            if(queue.size() < limit) queue.add(hit);
+            else if(BEST_FIRST.compare(hit, queue.peek()) < 0)
+            {
+                queue.poll();
+                queue.add(hit);
+            }
+        }
+
+        return new Result(this.<Song>sorted(best.get(KIND_SONG)), this.<Album>sorted(best.get(KIND_ALBUM)),
+                this.<Artist>sorted(best.get(KIND_ARTIST)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends LibraryObject> List<T> sorted(PriorityQueue<Hit> queue)
+    {
+        List<Hit> hits = new ArrayList<>(queue);
+        Collections.sort(hits, BEST_FIRST);
+        List<T> result = new ArrayList<>(hits.size());
+        for(Hit hit : hits) result.add((T) objects[hit.entry]);
+        return result;
+    }
+
+    /**
+     * Ranks a name against a query (both normalized)
+     *
+     * @return the score (lower is better), or -1 if the name does not match
+     */
+    static int score(String name, String[] nameTokens, String query, String[] queryTokens)
+    {
+        boolean wholeWords = true;
+        for(String queryToken : queryTokens)
+        {
+            boolean found = false;
+            boolean whole = false;
+            for(String token : nameTokens)
+            {
+                if(token.startsWith(queryToken))
+                {
+                    found = true;
+                    if(token.length() == queryToken.length())
+                    {
+                        whole = true;
+                        break;
+                    }
+                }
+            }
+            if(!found) return -1;
+            wholeWords &= whole;
+        }
+
+        if(name.equals(query)) return SCORE_EXACT;
+        if(name.startsWith(query)) return SCORE_NAME_PREFIX;
+        return wholeWords ? SCORE_WORDS : SCORE_WORD_PREFIXES;
+    }
+
+    private static class Hit
+    {
+        final int entry;
+        final int score;
+        final boolean handle;
+        final String name;
+
+        Hit(int entry, int score, boolean handle, String name)
+        {
+            this.entry = entry;
+            this.score = score;
+            this.handle = handle;
+            this.name = name;
+        }
+    }
+
+    //Better score, then library before handles, then shorter name, then alphabetical
+    private static final Comparator<Hit> BEST_FIRST = (a, b) ->
+    {
+        if(a.score != b.score) return a.score - b.score;
+        if(a.handle != b.handle) return a.handle ? 1 : -1;
+        if(a.name.length() != b.name.length()) return a.name.length() - b.name.length();
+        int names = a.name.compareTo(b.name);
+        return names != 0 ? names : a.entry - b.entry;
+    };
+    private static final Comparator<Hit> WORST_FIRST = Collections.reverseOrder(BEST_FIRST);
+
+    /* Normalization */
+
+    /**
+     * @return the words of s, in lower case and without accents
+     */
+    static String[] tokenize(String s)
+    {
+        if(s == null) return new String[0];
+
+        String lower = s.toLowerCase(Locale.ROOT);
+        for(int i = 0; i < lower.length(); i++)
+        {
+            if(lower.charAt(i) >= 0x80)
+            {
+                //Decompose accented letters, the accents are dropped below
+                lower = Normalizer.normalize(lower, Normalizer.Form.NFD);
+                break;
+            }
+        }
+
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        for(int i = 0; i < lower.length(); i++)
+        {
+            char c = lower.charAt(i);
+            if(Character.isLetterOrDigit(c)) word.append(c);
+            else if(Character.getType(c) != Character.NON_SPACING_MARK) flush(word, words);
+        }
+        flush(word, words);
+        return words.toArray(new String[0]);
+    }
+
+    private static void flush(StringBuilder word, List<String> words)
+    {
+        if(word.length() == 0) return;
+        words.add(word.toString());
+        word.setLength(0);
+    }
+
+    static String join(String[] tokens)
+    {
+        if(tokens.length == 1) return tokens[0];
+
+        StringBuilder builder = new StringBuilder();
+        for(String token : tokens)
+        {
+            if(builder.length() > 0) builder.append(' ');
+            builder.append(token);
+        }
+        return builder.toString();
+    }
+
+    private static class IntList
+    {
+        int[] values = new int[2];
+        int size = 0;
+
+        void add(int value)
+        {
+            if(size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        void remove(int value)
+        {
+            for(int i = 0; i < size; i++)
+            {
+                if(values[i] != value) continue;
+                values[i] = values[--size];
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package v.blade.library;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Alphabetical sections of a sorted library list (e.g. 'A' starts at 0, 'B' at 312), built once by
+ * Library.generateLists() so that the fast scroller can show the section of any position, and jump
+ * to it, without reading the list
+ * <p>
+ * The section of an object is the first letter of its name, without accent and in upper case ;
+ * names that do not start with a letter (digits, symbols) are in section '#'. Lists are sorted by
+ * collation, so each letter is one run of consecutive positions.
+ */
+public final class SectionIndex
+{
+    static final String OTHER = "#";
+
+    private final String[] labels;
+    private final int[] starts; //first position of each section, increasing
+    private final int size;
+
+    private SectionIndex(String[] labels, int[] starts, int size)
+    {
+        this.labels = labels;
+        this.starts = starts;
+        this.size = size;
+    }
+
+    /**
+     * @return the sections of a list, by the name of its objects
+     */
+    static SectionIndex build(List<? extends LibraryObject> objects)
+    {
+        String[] labels = new String[8];
+        int[] starts = new int[8];
+        int count = 0;
+        String previous = null;
+        for(int i = 0; i < objects.size(); i++)
+        {
+            String label = label(objects.get(i).getName());
+            if(label.equals(previous)) continue;
+
+            if(count == labels.length)
+            {
+                labels = Arrays.copyOf(labels, count * 2);
+                starts = Arrays.copyOf(starts, count * 2);
+            }
+            labels[count] = label;
+            starts[count] = i;
+            count++;
+            previous = label;
+        }
+        return new SectionIndex(Arrays.copyOf(labels, count), Arrays.copyOf(starts, count), objects.size());
+    }
+
+    /**
+     * @return the sections of songs in that order, or null if that order is not alphabetical
+     */
+    static SectionIndex build(final List<Song> songs, SongOrderings.Order order)
+    {
+        switch(order)
+        {
+            case TITLE:
+                return build(songs);
+            case ARTIST:
+            {
+                Artist[] artists = new Artist[songs.size()];
+                for(int i = 0; i < artists.length; i++) artists[i] = songs.get(i).getArtists()[0];
+                return build(Arrays.asList(artists));
+            }
+            case ALBUM:
+            {
+                Album[] albums = new Album[songs.size()];
+                for(int i = 0; i < albums.length; i++) albums[i] = songs.get(i).getAlbum();
+                return build(Arrays.asList(albums));
+            }
+            default:
+                return null;
+        }
+    }
+
+    static String label(String name)
+    {
+        if(name == null || name.isEmpty()) return OTHER;
+
+        char first = name.charAt(0);
+        if(first >= 0x80)
+        {
+            //Decompose accented letters : the base letter comes first
+            first = Normalizer.normalize(name.substring(0, 1), Normalizer.Form.NFD).charAt(0);
+        }
+        if(!Character.isLetter(first)) return OTHER;
+        return String.valueOf(first).toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * @return the labels of the sections, in list order
+     */
+    public String[] getSections()
+    {
+        return labels.clone();
+    }
+
+    public int getSectionCount()
+    {
+        return labels.length;
+    }
+
+    public String getLabel(int section)
+    {
+        return labels[section];
+    }
+
+    /**
+     * @return the first position of that section
+     */
+    public int getPositionForSection(int section)
+    {
+        return starts[section];
+    }
+
+    /**
+     * @return the section containing that position, or -1 if the list is empty
+     */
+    public int getSectionForPosition(int position)
+    {
+        if(starts.length == 0) return -1;
+
+        int found = Arrays.binarySearch(starts, Math.max(0, Math.min(position, size - 1)));
+        return found >= 0 ? found : -found - 2;
+    }
+
+    /**
+     * @return the number of positions of the indexed list
+     */
+    public int size()
+    {
+        return size;
+    }
+}
@@ -1,9 +1,8 @@
 package v.blade.library;
 
-import com.squareup.picasso.RequestCreator;
-
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import v.blade.sources.Source;
 import v.blade.sources.SourceInformation;
@@ -14,6 +13,7 @@ public class Song extends LibraryObject
     Artist[] artists;
     Album album;
     int track_number;
+    long added_at = 0; //when the song was added to the library (ms), 0 if unknown
 
     protected Song(String name, Album album, Artist[] artists, int track_number)
     {
@@ -21,19 +21,106 @@ public class Song extends LibraryObject
         this.artists = artists;
         this.album = album;
         this.track_number = track_number;
-        this.sources = new ArrayList<>();
+        this.sources = new CopyOnWriteArrayList<>();
     }
 
-    protected void addSource(Source source, Object id, boolean handled)
+    protected synchronized void addSource(Source source, Object id, boolean handled)
     {
         if(source == null || id == null) return;
 
-        //check if song contains same source
-        for(SourceInformation si : sources) if(si.source == source) return;
+        //check if song contains same source ; a library source wins over a handle,
+        //and its id replaces the old one (e.g. the song was re-added under a new id)
+        for(SourceInformation si : sources)
+        {
+            if(si.source == source)
+            {
+                if(!handled)
+                {
+                    si.handled = false;
+                    si.id = id;
+                }
+                return;
+            }
+        }
 
         sources.add(new SourceInformation(source, id, handled));
     }
 
+    /**
+     * @return true if the song was in the library for that source
+     */
+    synchronized boolean removeSource(Source source)
+    {
+        for(int i = 0; i < sources.size(); i++)
+        {
+            if(sources.get(i).source == source)
+                return !sources.remove(i).handled;
+        }
+        return false;
+    }
+
+    /**
+     * Marks the song as a handle for that source
+     *
+     * @return true if the song was in the library for that source
+     */
+    synchronized boolean setHandled(Source source)
+    {
+        for(SourceInformation si : sources)
+        {
+            if(si.source == source)
+            {
+                boolean wasInLibrary = !si.handled;
+                si.handled = true;
+                return wasInLibrary;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes the sources that are not in the given list
+     *
+     * @return true if a library source was removed
+     */
+    synchronized boolean retainSources(List<Source> retained)
+    {
+        boolean removed = false;
+        for(int i = sources.size() - 1; i >= 0; i--)
+        {
+            if(!retained.contains(sources.get(i).source))
+                removed |= !sources.remove(i).handled;
+        }
+        return removed;
+    }
+
+    /**
+     * @return the id of this song for that source, or null if that source does not have it
+     */
+    public synchronized Object getSourceId(Source source)
+    {
+        SourceInformation si = getSourceInformation(source);
+        return si == null ? null : si.id;
+    }
+
+    /**
+     * @return the source information of this song for that source, or null if that source does not have it
+     */
+    public synchronized SourceInformation getSourceInformation(Source source)
+    {
+        for(SourceInformation si : sources) if(si.source == source) return si;
+        return null;
+    }
+
+    /**
+     * @return true if at least one source has this song in its library
+     */
+    synchronized boolean hasLibrarySource()
+    {
+        for(SourceInformation si : sources) if(!si.handled) return true;
+        return false;
+    }
+
     public Artist[] getArtists()
     {
         return artists;
@@ -52,16 +139,14 @@ public class Song extends LibraryObject
 
     public SourceInformation getBestSource()
     {
-        if(sources.size() == 0) return null;
-
         SourceInformation best = null;
         int min = Source.SOURCES.size();
-        for(int i = 0; i < sources.size(); i++)
+        //Iterates over a snapshot of the sources : no lock needed
+        for(SourceInformation si : sources)
         {
-            if(sources.get(i).source.getIndex() < min
-                    && sources.get(i).source.getStatus() == Source.SourceStatus.STATUS_READY)
+            if(si.source.getIndex() < min && si.source.getStatus() == Source.SourceStatus.STATUS_READY)
             {
-                best = sources.get(i);
+                best = si;
                 min = best.source.getIndex();
             }
         }
@@ -73,24 +158,32 @@ public class Song extends LibraryObject
         return track_number;
     }
 
+    public long getAddedAt()
+    {
+        return added_at;
+    }
+
     public Album getAlbum()
     {
         return album;
     }
 
+    /**
+     * @return the sources of this song ; a read-only view, safe to iterate while sources change
+     */
     public List<SourceInformation> getSources()
     {
-        return sources;
+        return Collections.unmodifiableList(sources);
     }
 
     @Override
-    public RequestCreator getImageRequest()
+    public String getImageStr()
     {
-        return album.imageRequest;
+        return album.imageStr;
     }
 
-    public RequestCreator getBigImageRequest()
+    public String getImageBigStr()
     {
-        return album.imageBig;
+        return album.imageBigStr;
     }
 }
@@ -0,0 +1,34 @@
+package v.blade.library;
+
+/**
+ * Key of a song : its first artist, its album and its title, ignoring case
+ */
+final class SongKey extends LibraryKey
+{
+    private final String artist;
+    private final String album;
+    private final String title;
+
+    SongKey(String artist, String album, String title)
+    {
+        super(hash(hash(hash(2, artist), album), title));
+        this.artist = artist;
+        this.album = album;
+        this.title = title;
+    }
+
+    static SongKey of(Song song)
+    {
+        return new SongKey(song.artists[0].name, song.album.name, song.name);
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if(this == o) return true;
+        if(!(o instanceof SongKey)) return false;
+        SongKey other = (SongKey) o;
+        return hashCode() == other.hashCode() && same(title, other.title)
+                && same(album, other.album) && same(artist, other.artist);
+    }
+}
@@ -0,0 +1,351 @@
+package v.blade.library;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Orderings of the library songs, kept as permutations over a stable array of songs
+ * <p>
+ * Every library song gets a slot in the array ; each ordering is an int[] of slots. Additions and
+ * removals are only recorded, and merged into the orderings the next time one is read : the added
+ * songs are sorted, then merged with the previous ordering in one pass (no full re-sort).
+ * Orderings are never modified in place, so the list returned by {@link #songs(Order)} is an
+ * immutable view that stays valid (and safe to read) while the library changes
+ */
+public final class SongOrderings
+{
+    public enum Order
+    {
+        TITLE,
+        ARTIST, // by artist, then album, then track number
+        ALBUM, // by album, then track number
+        TRACK_COUNT, // artists with the most songs first
+        DATE_ADDED // most recently added first
+    }
+
+    private static final Order[] ORDERS = Order.values();
+
+    private Song[] slots = new Song[64];
+    private int slotCount = 0;
+    private final IdentityHashMap<Song, Integer> slotOf = new IdentityHashMap<>();
+
+    //Changes not merged yet
+    private int[] added = new int[16];
+    private int addedCount = 0;
+    private BitSet removed = new BitSet();
+    private int removedCount = 0;
+
+    //Artist track counts, per slot, as of the last merge : TRACK_COUNT must not change during a sort
+    private int[] trackCounts = new int[64];
+
+    private final int[][] orders = new int[ORDERS.length][];
+    private final SongList[] views = new SongList[ORDERS.length];
+
+    public SongOrderings()
+    {
+        for(int i = 0; i < ORDERS.length; i++) orders[i] = new int[0];
+    }
+
+    synchronized void add(Song song)
+    {
+        if(slotOf.containsKey(song)) return;
+
+        if(slotCount == slots.length)
+        {
+            //Views keep the previous array : it is never written again below slotCount
+            slots = Arrays.copyOf(slots, slotCount * 2);
+            trackCounts = Arrays.copyOf(trackCounts, slotCount * 2);
+        }
+        int slot = slotCount++;
+        slots[slot] = song;
+        slotOf.put(song, slot);
+
+        if(addedCount == added.length) added = Arrays.copyOf(added, addedCount * 2);
+        added[addedCount++] = slot;
+    }
+
+    synchronized void remove(Song song)
+    {
+        Integer slot = slotOf.remove(song);
+        if(slot == null) return;
+
+        removed.set(slot);
+        removedCount++;
+    }
+
+    synchronized void clear()
+    {
+        slots = new Song[64];
+        slotCount = 0;
+        slotOf.clear();
+        added = new int[16];
+        addedCount = 0;
+        removed = new BitSet();
+        removedCount = 0;
+        trackCounts = new int[64];
+        for(int i = 0; i < ORDERS.length; i++)
+        {
+            orders[i] = new int[0];
+            views[i] = null;
+        }
+    }
+
+    /**
+     * @return the library songs in that order ; an immutable view, obtained in O(1) when the
+     * library did not change since the last call
+     */
+    public synchronized List<Song> songs(Order order)
+    {
+        merge(null);
+        return view(order);
+    }
+
+    /**
+     * Merges the pending changes, and returns every ordering, all from the same state
+     *
+     * @param executor if not null, orderings are merged in parallel on that executor
+     * @return the songs in each order, indexed by Order.ordinal()
+     */
+    synchronized List<List<Song>> snapshot(ExecutorService executor)
+    {
+        merge(executor);
+
+        List<List<Song>> snapshot = new ArrayList<>(ORDERS.length);
+        for(Order order : ORDERS) snapshot.add(view(order));
+        return Collections.unmodifiableList(snapshot);
+    }
+
+    private SongList view(Order order)
+    {
+        SongList view = views[order.ordinal()];
+        if(view == null)
+        {
+            view = new SongList(slots, orders[order.ordinal()]);
+            views[order.ordinal()] = view;
+        }
+        return view;
+    }
+
+    /**
+     * Merges the pending changes into every ordering
+     *
+     * @param executor if not null, orderings are merged in parallel on that executor
+     */
+    synchronized void merge(ExecutorService executor)
+    {
+        if(addedCount == 0 && removedCount == 0) return;
+
+        //Songs added then removed before any merge are just dropped
+        int[] inserted = new int[addedCount];
+        int insertedCount = 0;
+        for(int i = 0; i < addedCount; i++)
+            if(!removed.get(added[i])) inserted[insertedCount++] = added[i];
+        inserted = Arrays.copyOf(inserted, insertedCount);
+
+        //The track count of the artists of added and removed songs changed : their songs move in TRACK_COUNT
+        IdentityHashMap<Artist, Boolean> touched = new IdentityHashMap<>();
+        for(int slot : inserted) for(Artist a : slots[slot].artists) touched.put(a, Boolean.TRUE);
+        for(int slot = removed.nextSetBit(0); slot >= 0; slot = removed.nextSetBit(slot + 1))
+            for(Artist a : slots[slot].artists) touched.put(a, Boolean.TRUE);
+        for(int slot : inserted) trackCounts[slot] = slots[slot].artists[0].getTrackCount();
+        for(int slot : orders[Order.TRACK_COUNT.ordinal()])
+            if(touched.containsKey(slots[slot].artists[0]))
+                trackCounts[slot] = slots[slot].artists[0].getTrackCount();
+
+        if(executor == null)
+        {
+            for(Order order : ORDERS) orders[order.ordinal()] = merge(order, inserted, touched);
+        }
+        else
+        {
+            final int[] toInsert = inserted;
+            List<Future<int[]>> futures = new ArrayList<>(ORDERS.length);
+            for(Order order : ORDERS) futures.add(executor.submit(() -> merge(order, toInsert, touched)));
+            try
+            {
+                for(Order order : ORDERS) orders[order.ordinal()] = futures.get(order.ordinal()).get();
+            }
+            catch(InterruptedException e)
+            {
+                //Changes are still pending : next merge will do them
+                Thread.currentThread().interrupt();
+                return;
+            }
+            catch(ExecutionException e)
+            {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+
+        addedCount = 0;
+        removed = new BitSet();
+        if(removedCount > 0 && removedCount > slotCount / 2) compact();
+        removedCount = 0;
+        Arrays.fill(views, null);
+    }
+
+    /**
+     * @return a new ordering : the previous one without the removed songs, merged with the inserted
+     * ones (and, for TRACK_COUNT, with the songs of the touched artists, as their key changed)
+     */
+    private int[] merge(Order order, int[] inserted, IdentityHashMap<Artist, Boolean> touched)
+    {
+        int[] previous = orders[order.ordinal()];
+        boolean moveTouched = order == Order.TRACK_COUNT && !touched.isEmpty();
+
+        int[] kept = new int[previous.length];
+        int keptCount = 0;
+        int[] moving = Arrays.copyOf(inserted, inserted.length + (moveTouched ? previous.length : 0));
+        int movingCount = inserted.length;
+        for(int slot : previous)
+        {
+            if(removed.get(slot)) continue;
+            if(moveTouched && touched.containsKey(slots[slot].artists[0])) moving[movingCount++] = slot;
+            else kept[keptCount++] = slot;
+        }
+
+        Comparator<Integer> comparator = comparator(order);
+        Integer[] sorted = new Integer[movingCount];
+        for(int i = 0; i < movingCount; i++) sorted[i] = moving[i];
+        Arrays.sort(sorted, comparator);
+
+        int[] result = new int[keptCount + movingCount];
+        int k = 0, m = 0, r = 0;
+        while(k < keptCount && m < movingCount)
+        {
+            if(comparator.compare(kept[k], sorted[m]) <= 0) result[r++] = kept[k++];
+            else result[r++] = sorted[m++];
+        }
+        while(k < keptCount) result[r++] = kept[k++];
+        while(m < movingCount) result[r++] = sorted[m++];
+        return result;
+    }
+
+    /**
+     * Drops the slots of removed songs, so that the array does not grow forever
+     */
+    private void compact()
+    {
+        int[] newSlot = new int[slotCount];
+        Song[] compacted = new Song[Math.max(64, slotOf.size() * 2)];
+        int[] compactedCounts = new int[compacted.length];
+        int count = 0;
+        for(int slot = 0; slot < slotCount; slot++)
+        {
+            Song song = slots[slot];
+            if(slotOf.get(song) == null || slotOf.get(song) != slot) continue;
+            newSlot[slot] = count;
+            compacted[count] = song;
+            compactedCounts[count] = trackCounts[slot];
+            slotOf.put(song, count);
+            count++;
+        }
+
+        for(int i = 0; i < ORDERS.length; i++)
+        {
+            int[] order = new int[orders[i].length];
+            for(int j = 0; j < order.length; j++) order[j] = newSlot[orders[i][j]];
+            orders[i] = order;
+        }
+        slots = compacted;
+        trackCounts = compactedCounts;
+        slotCount = count;
+    }
+
+    /* Orders ; every comparator ends with the slot, so that the order is total and merges are stable */
+
+    private Comparator<Integer> comparator(Order order)
+    {
+        final Song[] songs = slots;
+        switch(order)
+        {
+            case ARTIST:
+                return (a, b) ->
+                {
+                    int c = compareByArtist(songs[a], songs[b]);
+                    return c != 0 ? c : a - b;
+                };
+            case ALBUM:
+                return (a, b) ->
+                {
+                    int c = compareByAlbum(songs[a], songs[b]);
+                    return c != 0 ? c : a - b;
+                };
+            case TRACK_COUNT:
+                final int[] counts = trackCounts;
+                return (a, b) ->
+                {
+                    if(counts[a] != counts[b]) return counts[a] > counts[b] ? -1 : 1;
+                    int c = compareByArtist(songs[a], songs[b]);
+                    return c != 0 ? c : a - b;
+                };
+            case DATE_ADDED:
+                return (a, b) ->
+                {
+                    if(songs[a].added_at != songs[b].added_at)
+                        return songs[a].added_at > songs[b].added_at ? -1 : 1;
+                    int c = LibraryObject.BY_NAME.compare(songs[a], songs[b]);
+                    return c != 0 ? c : a - b;
+                };
+            case TITLE:
+            default:
+                return (a, b) ->
+                {
+                    int c = LibraryObject.BY_NAME.compare(songs[a], songs[b]);
+                    if(c == 0) c = compareByArtist(songs[a], songs[b]);
+                    return c != 0 ? c : a - b;
+                };
+        }
+    }
+
+    private static int compareByArtist(Song a, Song b)
+    {
+        int c = LibraryObject.BY_NAME.compare(a.artists[0], b.artists[0]);
+        return c != 0 ? c : compareByAlbum(a, b);
+    }
+
+    private static int compareByAlbum(Song a, Song b)
+    {
+        int c = LibraryObject.BY_NAME.compare(a.album, b.album);
+        if(c == 0 && a.album != b.album) c = a.album.getArtistsString().compareTo(b.album.getArtistsString());
+        if(c == 0 && a.track_number != b.track_number) c = a.track_number < b.track_number ? -1 : 1;
+        return c != 0 ? c : LibraryObject.BY_NAME.compare(a, b);
+    }
+
+    /**
+     * Songs of an ordering : read-only view of the slots array through the permutation
+     */
+    private static final class SongList extends AbstractList<Song> implements RandomAccess
+    {
+        private final Song[] slots;
+        private final int[] order;
+
+        private SongList(Song[] slots, int[] order)
+        {
+            this.slots = slots;
+            this.order = order;
+        }
+
+        @Override
+        public Song get(int index)
+        {
+            return slots[order[index]];
+        }
+
+        @Override
+        public int size()
+        {
+            return order.length;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package v.blade.player;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import com.squareup.picasso.MemoryPolicy;
+import com.squareup.picasso.RequestCreator;
+
+import java.io.IOException;
+
+import v.blade.library.Album;
+import v.blade.library.Song;
+import v.blade.ui.ImageResolver;
+
+/**
+ * Album artwork of the notification and of the media session, decoded once per album, and already
+ * scaled to the sizes shown : notification large icon, and lock screen art
+ */
+final class ArtworkCache
+{
+    private static final int ART_SIZE = 720; //lock screen
+    private static final int MAX_ALBUMS = 4;
+
+    static final class Artwork
+    {
+        final String url;
+        final Bitmap icon; //null if the album has no image
+        final Bitmap art;
+
+        private Artwork(String url, Bitmap icon, Bitmap art)
+        {
+            this.url = url;
+            this.icon = icon;
+            this.art = art;
+        }
+    }
+
+    private final LruCache<Album, Artwork> artworks = new LruCache<>(MAX_ALBUMS);
+    private final int iconSize;
+
+    ArtworkCache(Context context)
+    {
+        iconSize = context.getResources().getDimensionPixelSize(android.R.dimen.notification_large_icon_width);
+    }
+
+    /**
+     * @return the artwork of the album of that song, or null if it is not loaded yet
+     */
+    Artwork get(Song song)
+    {
+        Artwork artwork = artworks.get(song.getAlbum());
+        //The album image can be replaced by a better one (cf. Album.setImage)
+        if(artwork == null || !equals(artwork.url, song.getImageBigStr())) return null;
+        return artwork;
+    }
+
+    /**
+     * Loads the artwork of the album of that song ; blocking, not on the main thread
+     * <p>
+     * An album without image is cached as such ; an image that could not be loaded is not, so that
+     * it is tried again next time.
+     *
+     * @return the artwork ; without bitmaps if the album has no image or it could not be loaded
+     */
+    Artwork load(Song song)
+    {
+        String url = song.getImageBigStr();
+        RequestCreator request = ImageResolver.big(song);
+        Bitmap art = null;
+        if(request != null)
+        {
+            try
+            {
+                //Downsampled while decoded ; this cache keeps it, not Picasso's
+                art = request.resize(ART_SIZE, ART_SIZE).centerInside().onlyScaleDown()
+                        .memoryPolicy(MemoryPolicy.NO_CACHE, MemoryPolicy.NO_STORE).get();
+            }
+            catch(IOException e)
+            {
+                System.err.println("BLADE: could not load artwork of " + song.getAlbum().getName() + " : " + e.getMessage());
+            }
+        }
+
+        if(request != null && art == null) return new Artwork(url, null, null);
+
+        Bitmap icon = null;
+        if(art != null)
+        {
+            float scale = (float) iconSize / Math.max(art.getWidth(), art.getHeight());
+            icon = scale >= 1 ? art : Bitmap.createScaledBitmap(art, Math.max(1, Math.round(art.getWidth() * scale)),
+                    Math.max(1, Math.round(art.getHeight() * scale)), true);
+        }
+
+        Artwork artwork = new Artwork(url, icon, art);
+        artworks.put(song.getAlbum(), artwork);
+        return artwork;
+    }
+
+    private static boolean equals(String a, String b)
+    {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -98,6 +98,13 @@ public class MediaBrowserService extends MediaBrowserServiceCompat
         notification = new PlayerNotification(this);
     }
 
+    @Override
+    public void onDestroy()
+    {
+        notification.release();
+        super.onDestroy();
+    }
+
     /*
      * onGetRoot(), onLoadChildren() allows external to browse our media
      * TODO implement browsing and playFromMediaId as described in project notes
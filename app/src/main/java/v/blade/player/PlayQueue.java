@@ -0,0 +1,92 @@
+package v.blade.player;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+import v.blade.library.Song;
+
+/**
+ * Play queue over a list of songs, that is only copied when the queue is first modified
+ * <p>
+ * Playing a song from a library list (e.g. the 100k songs of the library snapshot) then costs
+ * nothing : the queue reads that list, and copies it only if the user reorders or adds songs.
+ * The wrapped list must not be modified by anyone else (library snapshot lists never are).
+ */
+public final class PlayQueue extends AbstractList<Song> implements RandomAccess
+{
+    private List<Song> songs;
+    private boolean copied = false;
+
+    public PlayQueue(List<Song> songs)
+    {
+        this.songs = songs;
+    }
+
+    private List<Song> modifiable()
+    {
+        if(!copied)
+        {
+            songs = new ArrayList<>(songs);
+            copied = true;
+        }
+        return songs;
+    }
+
+    @Override
+    public Song get(int index)
+    {
+        return songs.get(index);
+    }
+
+    @Override
+    public int size()
+    {
+        return songs.size();
+    }
+
+    @Override
+    public Song set(int index, Song song)
+    {
+        return modifiable().set(index, song);
+    }
+
+    @Override
+    public void add(int index, Song song)
+    {
+        modifiable().add(index, song);
+        modCount++;
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends Song> added)
+    {
+        modCount++;
+        return modifiable().addAll(index, added);
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Song> added)
+    {
+        modCount++;
+        return modifiable().addAll(added);
+    }
+
+    @Override
+    public Song remove(int index)
+    {
+        Song removed = modifiable().remove(index);
+        modCount++;
+        return removed;
+    }
+
+    @Override
+    public void clear()
+    {
+        songs = new ArrayList<>();
+        copied = true;
+        modCount++;
+    }
+}
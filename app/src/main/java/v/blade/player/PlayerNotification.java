@@ -8,9 +8,10 @@ import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.graphics.drawable.Drawable;
 import android.media.MediaMetadata;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
 
@@ -21,10 +22,6 @@ import androidx.core.app.ServiceCompat;
 import androidx.core.content.ContextCompat;
 import androidx.media.session.MediaButtonReceiver;
 
-import com.squareup.picasso.Picasso;
-import com.squareup.picasso.RequestCreator;
-import com.squareup.picasso.Target;
-
 import v.blade.R;
 import v.blade.library.Song;
 import v.blade.ui.PlayActivity;
@@ -37,19 +34,47 @@ public class PlayerNotification
 
     private final MediaBrowserService service;
     private final NotificationManagerCompat notificationManager;
-    private Notification notification;
     private final NotificationCompat.Action playAction;
     private final NotificationCompat.Action pauseAction;
     private final NotificationCompat.Action nextAction;
     private final NotificationCompat.Action prevAction;
 
+    private static final long COALESCE_DELAY = 50; //ms
+
+    //Notification and metadata are built on this thread, once per burst of updates
+    private final Handler worker;
+    //Artworks are decoded on this one, so that they never delay a notification
+    private final Handler loader;
+    private final ArtworkCache artworks;
+    private final Runnable publish = this::publish;
+
+    //Latest requested state
+    private Song pendingSong;
+    private boolean pendingPlaying;
+    private long pendingDuration;
+
+    //Worker thread only
+    private Notification notification;
     private boolean isServiceForeground = false;
+    private Song publishedSong = null;
+    private ArtworkCache.Artwork publishedArtwork = null;
+    private long publishedDuration = -1;
+    private Song artworkRequested = null;
+    private Bitmap defaultIcon = null;
 
     protected PlayerNotification(MediaBrowserService service)
     {
         this.service = service;
 
         notificationManager = NotificationManagerCompat.from(service);
+        artworks = new ArtworkCache(service);
+
+        HandlerThread thread = new HandlerThread("blade-notification");
+        thread.start();
+        worker = new Handler(thread.getLooper());
+        HandlerThread loaderThread = new HandlerThread("blade-artwork");
+        loaderThread.start();
+        loader = new Handler(loaderThread.getLooper());
 
         playAction = new NotificationCompat.Action(R.drawable.ic_play_notification, service.getString(R.string.play),
                 MediaButtonReceiver.buildMediaButtonPendingIntent(service, PlaybackStateCompat.ACTION_PLAY));
@@ -74,105 +99,126 @@ public class PlayerNotification
         Song song = service.playlist.get(service.index);
         if(song == null) return;
 
-        //Update notification
-        if(this.notification == null)
+        synchronized(this)
+        {
+            pendingSong = song;
+            pendingPlaying = service.mediaSession.getController().getPlaybackState().getState() == PlaybackStateCompat.STATE_PLAYING;
+            pendingDuration = service.current == null ? 0 : service.current.getDuration();
+        }
+
+        //A burst of updates (e.g. track change, then play) is published once
+        worker.removeCallbacks(publish);
+        worker.postDelayed(publish, COALESCE_DELAY);
+    }
+
+    /**
+     * Stops the worker and loader threads ; the notification is not updated anymore
+     */
+    public void release()
+    {
+        worker.removeCallbacks(publish);
+        worker.getLooper().quitSafely();
+        loader.getLooper().quitSafely();
+    }
+
+    /**
+     * Publishes the latest requested state ; on the worker thread
+     */
+    private void publish()
+    {
+        Song song;
+        boolean isPlaying;
+        long duration;
+        synchronized(this)
+        {
+            song = pendingSong;
+            isPlaying = pendingPlaying;
+            duration = pendingDuration;
+        }
+
+        //Artwork is only decoded when the album changes ; play/pause reuse it
+        ArtworkCache.Artwork artwork = artworks.get(song);
+        if(artwork == null && song != artworkRequested)
+        {
+            //Shown at once with the default icon (foreground service), and again once the image is loaded
+            artworkRequested = song;
+            loader.post(() -> loadArtwork(song));
+        }
+        show(song, isPlaying, duration, artwork);
+    }
+
+    /**
+     * Loads the artwork of that song, then publishes it if the song is still the current one ; on the
+     * loader thread
+     */
+    private void loadArtwork(Song song)
+    {
+        artworks.load(song);
+
+        synchronized(this)
+        {
+            if(song != pendingSong) return;
+        }
+        worker.removeCallbacks(publish);
+        worker.post(publish);
+    }
+
+    private void show(Song song, boolean isPlaying, long duration, ArtworkCache.Artwork artwork)
+    {
+        //Metadata only changes with the song, its artwork, or its duration once known
+        if(song != publishedSong || artwork != publishedArtwork || duration != publishedDuration)
         {
-            //Update mediaSession metadata
-            service.mediaSession.setMetadata(new MediaMetadataCompat.Builder()
+            MediaMetadataCompat.Builder metadata = new MediaMetadataCompat.Builder()
                     .putString(MediaMetadata.METADATA_KEY_TITLE, song.getName())
                     .putString(MediaMetadata.METADATA_KEY_ARTIST, song.getArtistsString())
                     .putString(MediaMetadata.METADATA_KEY_ALBUM, song.getAlbum().getName())
                     .putString(MediaMetadata.METADATA_KEY_DISPLAY_TITLE, song.getName())
                     .putLong(MediaMetadata.METADATA_KEY_TRACK_NUMBER, song.getTrackNumber())
-                    .putLong(MediaMetadata.METADATA_KEY_DURATION, service.current == null ? 0 : service.current.getDuration())
-                    .build());
+                    .putLong(MediaMetadata.METADATA_KEY_DURATION, duration);
+            if(artwork != null && artwork.art != null)
+            {
+                metadata.putBitmap(MediaMetadata.METADATA_KEY_ART, artwork.art)
+                        .putBitmap(MediaMetadataCompat.METADATA_KEY_ALBUM_ART, artwork.art);
+            }
+            service.mediaSession.setMetadata(metadata.build());
+
+            publishedSong = song;
+            publishedArtwork = artwork;
+            publishedDuration = duration;
+        }
 
-            //There is no notification ; we must display it quick and update it for image later
-            Notification notification = getNotification(song, null);
+        Notification notification = buildNotification(song, isPlaying, artwork == null ? null : artwork.icon).build();
+        boolean first = this.notification == null;
+        this.notification = notification;
+        if(first)
+        {
             service.startForeground(NOTIFICATION_ID, notification);
             isServiceForeground = true;
-            this.notification = notification;
-        }
-        else
-        {
-            //We can wait image loading to update notification
-            RequestCreator bigImage = song.getBigImageRequest();
-            Target target = new Target()
-            {
-                void updateEverything(Bitmap bitmap)
-                {
-                    //Update mediaSession metadata
-                    service.mediaSession.setMetadata(new MediaMetadataCompat.Builder()
-                            .putString(MediaMetadata.METADATA_KEY_TITLE, song.getName())
-                            .putString(MediaMetadata.METADATA_KEY_ARTIST, song.getArtistsString())
-                            .putString(MediaMetadata.METADATA_KEY_ALBUM, song.getAlbum().getName())
-                            .putString(MediaMetadata.METADATA_KEY_DISPLAY_TITLE, song.getName())
-                            .putLong(MediaMetadata.METADATA_KEY_TRACK_NUMBER, song.getTrackNumber())
-                            .putLong(MediaMetadata.METADATA_KEY_DURATION, service.current == null ? 0 : service.current.getDuration())
-                            .putBitmap(MediaMetadata.METADATA_KEY_ART, bitmap)
-                            .putBitmap(MediaMetadataCompat.METADATA_KEY_ALBUM_ART, bitmap)
-                            .build());
-
-                    Notification notification = getNotification(song, bitmap);
-                    PlayerNotification.this.notification = notification;
-                    notificationManager.notify(PlayerNotification.NOTIFICATION_ID, notification);
-
-                    //This makes our service 'killable' if unbound to activity, as it is
-                    // no longer viewed as foreground to the system ;
-                    // however it also allows to swipe out the notification
-                    if(service.mediaSession.getController().getPlaybackState().getState() == PlaybackStateCompat.STATE_PLAYING)
-                    {
-                        if(!isServiceForeground)
-                        {
-                            service.startForeground(NOTIFICATION_ID, notification);
-                            isServiceForeground = true;
-                        }
-                    }
-                    else
-                    {
-                        ServiceCompat.stopForeground(service, ServiceCompat.STOP_FOREGROUND_DETACH);
-                        isServiceForeground = false;
-                    }
-                }
-
-                @Override
-                public void onBitmapLoaded(Bitmap bitmap, Picasso.LoadedFrom from)
-                {
-                    updateEverything(bitmap);
-                }
-
-                @Override
-                public void onBitmapFailed(Exception e, Drawable errorDrawable)
-                {
-                    updateEverything(null);
-                }
-
-                @Override
-                public void onPrepareLoad(Drawable placeHolderDrawable)
-                {
-                }
-            };
-            if(bigImage != null) bigImage.into(target);
-            else target.onBitmapFailed(null, null);
+            return;
         }
-    }
 
-    private void updateForImage(Bitmap image)
-    {
-        Notification notification = getNotification(service.playlist.get(service.index), image);
         notificationManager.notify(PlayerNotification.NOTIFICATION_ID, notification);
-        this.notification = notification;
-    }
 
-    private Notification getNotification(Song playing, Bitmap largeIcon)
-    {
-        return buildNotification(playing, largeIcon).build();
+        //This makes our service 'killable' if unbound to activity, as it is
+        // no longer viewed as foreground to the system ;
+        // however it also allows to swipe out the notification
+        if(isPlaying)
+        {
+            if(!isServiceForeground)
+            {
+                service.startForeground(NOTIFICATION_ID, notification);
+                isServiceForeground = true;
+            }
+        }
+        else
+        {
+            ServiceCompat.stopForeground(service, ServiceCompat.STOP_FOREGROUND_DETACH);
+            isServiceForeground = false;
+        }
     }
 
-    private NotificationCompat.Builder buildNotification(Song playing, Bitmap largeIcon)
+    private NotificationCompat.Builder buildNotification(Song playing, boolean isPlaying, Bitmap largeIcon)
     {
-        boolean isPlaying = service.mediaSession.getController().getPlaybackState().getState() == PlaybackStateCompat.STATE_PLAYING;
-
         NotificationCompat.Builder builder = new NotificationCompat.Builder(service, CHANNEL_ID);
 
         Intent openUI = new Intent(service, PlayActivity.class);
@@ -216,49 +262,9 @@ public class PlayerNotification
         builder.addAction(isPlaying ? pauseAction : playAction);
         builder.addAction(nextAction);
 
-        //TODO : actually we should replace that with remoteview and stuff like here i think :
-        // https://stackoverflow.com/questions/26888247/easiest-way-to-use-picasso-in-notification-icon
-        //TODO : there could be a weird race condition here, if you skip before image loading, and
-        // then notification is updated, you get notification for older song ; adding a volatile variable
-        // to control the notification change should fix that
-        //Set large icon if not null, on image load
-        if(largeIcon != null) builder.setLargeIcon(largeIcon);
-        else if(playing.getBigImageRequest() != null)
-            playing.getBigImageRequest().into(new Target()
-            {
-                @Override
-                public void onBitmapLoaded(Bitmap bitmap, Picasso.LoadedFrom from)
-                {
-                    ContextCompat.getMainExecutor(service).execute(() ->
-                    {
-                        //Update mediaSession metadata
-                        service.mediaSession.setMetadata(new MediaMetadataCompat.Builder()
-                                .putString(MediaMetadata.METADATA_KEY_TITLE, playing.getName())
-                                .putString(MediaMetadata.METADATA_KEY_ARTIST, playing.getArtistsString())
-                                .putString(MediaMetadata.METADATA_KEY_ALBUM, playing.getAlbum().getName())
-                                .putString(MediaMetadata.METADATA_KEY_DISPLAY_TITLE, playing.getName())
-                                .putLong(MediaMetadata.METADATA_KEY_TRACK_NUMBER, playing.getTrackNumber())
-                                .putLong(MediaMetadata.METADATA_KEY_DURATION, service.current == null ? 0 : service.current.getDuration())
-                                .putBitmap(MediaMetadata.METADATA_KEY_ART, bitmap)
-                                .putBitmap(MediaMetadataCompat.METADATA_KEY_ALBUM_ART, bitmap)
-                                .build());
-
-                        updateForImage(bitmap);
-                    });
-                }
-
-                @Override
-                public void onBitmapFailed(Exception e, Drawable errorDrawable)
-                {
-                }
-
-                @Override
-                public void onPrepareLoad(Drawable placeHolderDrawable)
-                {
-                }
-            });
-        else
-            builder.setLargeIcon(BitmapFactory.decodeResource(service.getResources(), R.drawable.ic_album));
+        if(defaultIcon == null)
+            defaultIcon = BitmapFactory.decodeResource(service.getResources(), R.drawable.ic_album);
+        builder.setLargeIcon(largeIcon != null ? largeIcon : defaultIcon);
 
         return builder;
     }
@@ -0,0 +1,363 @@
+package v.blade.sources;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.os.Process;
+
+import androidx.annotation.NonNull;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import v.blade.BladeApplication;
+
+/**
+ * Library and playlist mutations of a remote source that are not sent yet
+ * <p>
+ * The source applies mutations to the Library right away, and queues them here ; they are sent in
+ * the background. While they wait, mutations are coalesced : adding then removing the same song
+ * cancels out, and consecutive mutations of the same kind on the same target are sent as one batch.
+ * When sending fails (offline, server error), it is retried with exponential backoff, and as soon as
+ * the network comes back. The outbox is persisted with its source (see {@link #toJSON()})
+ */
+public class MutationOutbox
+{
+    public static final int OP_LIBRARY_ADD = 0;
+    public static final int OP_LIBRARY_REMOVE = 1;
+    public static final int OP_PLAYLIST_ADD = 2;
+    public static final int OP_PLAYLIST_REMOVE = 3;
+
+    public enum Result
+    {
+        SENT,
+        RETRY, //transient failure (offline, server error, rate limited...)
+        REJECTED //the source will never accept it (e.g. playlist deleted) ; dropped
+    }
+
+    public interface Sender
+    {
+        /**
+         * @return the maximum number of items the source accepts in one request for that operation
+         */
+        int batchSize(int op);
+
+        /**
+         * Sends mutations to the source
+         *
+         * @param target the playlist id, or null for library operations
+         * @param items  source ids of the songs
+         */
+        Result send(int op, String target, List<String> items) throws IOException;
+    }
+
+    private static final long BASE_BACKOFF_MS = 5_000;
+    private static final long MAX_BACKOFF_MS = 15 * 60_000;
+
+    private static final ScheduledThreadPoolExecutor outboxExecutor = new ScheduledThreadPoolExecutor(1, runnable ->
+            new Thread(() ->
+            {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, "blade-outbox"));
+
+    static
+    {
+        outboxExecutor.setKeepAliveTime(30L, TimeUnit.SECONDS);
+        outboxExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private static class Mutation
+    {
+        private final int op;
+        private final String target;
+        private final String item;
+
+        private Mutation(int op, String target, String item)
+        {
+            this.op = op;
+            this.target = target;
+            this.item = item;
+        }
+
+        private boolean sameKey(String target, String item)
+        {
+            return this.item.equals(item) && (this.target == null ? target == null : this.target.equals(target));
+        }
+    }
+
+    private final Sender sender;
+    private final Runnable onChange;
+    private final ScheduledExecutorService executor;
+
+    private final ArrayList<Mutation> pending = new ArrayList<>();
+    private List<Mutation> inFlight = Collections.emptyList();
+    private int failures = 0;
+    private ScheduledFuture<?> retry;
+    private ConnectivityManager.NetworkCallback networkCallback;
+
+    /**
+     * @param onChange called when the pending mutations changed, to persist them
+     */
+    public MutationOutbox(Sender sender, Runnable onChange)
+    {
+        this(sender, onChange, outboxExecutor);
+    }
+
+    MutationOutbox(Sender sender, Runnable onChange, ScheduledExecutorService executor)
+    {
+        this.sender = sender;
+        this.onChange = onChange;
+        this.executor = executor;
+    }
+
+    /**
+     * Queues a mutation of these songs, and sends it unless we are waiting for a retry
+     */
+    public void enqueue(int op, String target, List<String> items)
+    {
+        synchronized(this)
+        {
+            for(String item : items)
+            {
+                Mutation last = lastPending(target, item);
+                if(last != null && cancels(last.op, op)) pending.remove(last);
+                else if(last != null && last.op == op && isLibraryOp(op)) continue; //already queued
+                else pending.add(new Mutation(op, target, item));
+            }
+
+            if(retry == null) executor.execute(this::send);
+        }
+        onChange.run();
+    }
+
+    /**
+     * Sends pending mutations now, without waiting for the backoff (e.g. the network is back)
+     */
+    public synchronized void flush()
+    {
+        if(retry != null)
+        {
+            retry.cancel(false);
+            retry = null;
+        }
+        failures = 0;
+        executor.execute(this::send);
+    }
+
+    /**
+     * Sends pending mutations, and waits for them to be sent (e.g. before synchronizing the source)
+     *
+     * @return true if nothing is pending anymore
+     */
+    public boolean drain(long timeoutMs)
+    {
+        Future<?> future;
+        synchronized(this)
+        {
+            if(pending.isEmpty()) return true;
+            if(retry != null)
+            {
+                retry.cancel(false);
+                retry = null;
+            }
+            future = executor.submit(this::send);
+        }
+
+        try
+        {
+            future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch(ExecutionException | TimeoutException ignored)
+        {
+        }
+        return isEmpty();
+    }
+
+    public synchronized boolean isEmpty()
+    {
+        return pending.isEmpty();
+    }
+
+    /**
+     * Flushes the outbox every time the network comes back
+     */
+    public synchronized void watchConnectivity()
+    {
+        if(networkCallback != null) return;
+
+        ConnectivityManager connectivityManager = (ConnectivityManager) BladeApplication.appContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if(connectivityManager == null) return;
+
+        networkCallback = new ConnectivityManager.NetworkCallback()
+        {
+            @Override
+            public void onAvailable(@NonNull Network network)
+            {
+                if(!isEmpty()) flush();
+            }
+        };
+        NetworkRequest request = new NetworkRequest.Builder()
+                .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET).build();
+        connectivityManager.registerNetworkCallback(request, networkCallback);
+    }
+
+    /**
+     * @return the last mutation of that song on that target, if it can still be coalesced
+     */
+    private Mutation lastPending(String target, String item)
+    {
+        for(int i = pending.size() - 1; i >= 0; i--)
+        {
+            Mutation mutation = pending.get(i);
+            if(mutation.sameKey(target, item))
+                return inFlight.contains(mutation) ? null : mutation;
+        }
+        return null;
+    }
+
+    private static boolean isLibraryOp(int op)
+    {
+        return op == OP_LIBRARY_ADD || op == OP_LIBRARY_REMOVE;
+    }
+
+    /**
+     * @return true if next undoes previous
+     */
+    private static boolean cancels(int previous, int next)
+    {
+        return (previous == OP_LIBRARY_ADD && next == OP_LIBRARY_REMOVE)
+                || (previous == OP_LIBRARY_REMOVE && next == OP_LIBRARY_ADD)
+                //Removing then adding back moves the song at the end of the playlist : it does not cancel out
+                || (previous == OP_PLAYLIST_ADD && next == OP_PLAYLIST_REMOVE);
+    }
+
+    /**
+     * @return the next batch to send : the first pending mutation, and the following ones of the same
+     * kind on the same target (mutations on other targets are independent, and can be skipped over)
+     */
+    private List<Mutation> nextBatch()
+    {
+        if(pending.isEmpty()) return null;
+
+        Mutation first = pending.get(0);
+        int size = Math.max(1, sender.batchSize(first.op));
+        List<Mutation> batch = new ArrayList<>();
+        for(Mutation mutation : pending)
+        {
+            if(first.target == null ? mutation.target != null : !first.target.equals(mutation.target))
+                continue;
+            //Mutations on the same target are sent in order
+            if(mutation.op != first.op) break;
+
+            batch.add(mutation);
+            if(batch.size() == size) break;
+        }
+        return batch;
+    }
+
+    private void send()
+    {
+        while(true)
+        {
+            List<Mutation> batch;
+            synchronized(this)
+            {
+                batch = nextBatch();
+                if(batch == null) return;
+                inFlight = batch;
+            }
+
+            Mutation first = batch.get(0);
+            List<String> items = new ArrayList<>(batch.size());
+            for(Mutation mutation : batch) items.add(mutation.item);
+
+            Result result;
+            try
+            {
+                result = sender.send(first.op, first.target, items);
+            }
+            catch(IOException e)
+            {
+                result = Result.RETRY;
+            }
+
+            synchronized(this)
+            {
+                inFlight = Collections.emptyList();
+
+                if(result == Result.RETRY)
+                {
+                    failures++;
+                    long delay = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << Math.min(failures - 1, 16));
+                    System.err.println("BLADE: Could not send " + pending.size() + " pending mutations, retrying in " + delay / 1000 + "s");
+                    if(retry != null) retry.cancel(false);
+                    retry = executor.schedule(this::retry, delay, TimeUnit.MILLISECONDS);
+                    return;
+                }
+
+                if(result == Result.REJECTED)
+                    System.err.println("BLADE: Dropping " + batch.size() + " mutations rejected by source (op " + first.op + ")");
+                pending.removeAll(batch);
+                failures = 0;
+            }
+            onChange.run();
+        }
+    }
+
+    private void retry()
+    {
+        synchronized(this)
+        {
+            retry = null;
+        }
+        send();
+    }
+
+    /* Persistence */
+
+    public synchronized JsonArray toJSON()
+    {
+        return new Gson().toJsonTree(pending).getAsJsonArray();
+    }
+
+    public synchronized void restoreFromJSON(JsonElement json)
+    {
+        pending.clear();
+        if(json == null || !json.isJsonArray()) return;
+
+        Gson gson = new Gson();
+        for(JsonElement element : json.getAsJsonArray())
+        {
+            try
+            {
+                Mutation mutation = gson.fromJson(element, Mutation.class);
+                if(mutation != null && mutation.item != null) pending.add(mutation);
+            }
+            catch(JsonParseException e)
+            {
+                System.err.println("BLADE: Dropping unreadable pending mutation : " + e.getMessage());
+            }
+        }
+    }
+}
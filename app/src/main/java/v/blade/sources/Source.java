@@ -25,7 +25,7 @@ import java.io.IOException;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import v.blade.BladeApplication;
 import v.blade.BuildConfig;
@@ -40,6 +40,8 @@ public abstract class Source
     public static final ArrayList<Source> SOURCES = new ArrayList<>();
 
     public static volatile boolean isSyncing = false;
+    private static volatile boolean syncCancelled = false;
+    private static volatile SyncListener syncListener;
 
     public enum SourceStatus
     {
@@ -68,6 +70,18 @@ public abstract class Source
         public abstract boolean isPaused();
     }
 
+    /**
+     * Observes a library synchronization ; methods are called from background threads
+     */
+    public interface SyncListener
+    {
+        void onSourceProgress(Source source, int done, int total);
+
+        void onSourceDone(Source source);
+
+        void onSyncDone(boolean cancelled);
+    }
+
     protected String name;
     protected SourceStatus status;
     protected int index;
@@ -144,12 +158,8 @@ public abstract class Source
      */
     public void addSongToPlaylist(Song song, Playlist playlist, Runnable callback, Runnable failureCallback)
     {
-        //Add track to playlist locally
-        playlist.getSongs().add(song);
-
-        //Save library
-        Library.save();
-        saveSources();
+        //Add track to playlist locally (journaled, no need to save the whole library)
+        Library.addToPlaylist(song, playlist);
 
         //Run callback
         callback.run();
@@ -162,11 +172,7 @@ public abstract class Source
      */
     public void removePlaylist(Playlist playlist, Runnable callback, Runnable failureCallback)
     {
-        Library.removePlaylist(playlist);
-
-        //Save library
-        Library.save();
-        saveSources();
+        Library.deletePlaylist(playlist);
 
         //Run callback
         callback.run();
@@ -177,10 +183,7 @@ public abstract class Source
      */
     public void addToLibrary(Song song, Runnable callback, Runnable failureCallback)
     {
-        //We have to modify song in place
-        Library.addSongFromHandle(song);
-
-        //Mark song as 'not handled' for us
+        //Find song source information for us
         SourceInformation current = null;
         for(SourceInformation si : song.getSources())
         {
@@ -195,15 +198,13 @@ public abstract class Source
             failureCallback.run();
             return;
         }
-        current.handled = false;
+
+        //We have to modify song in place, and mark song as 'not handled' for us
+        Library.addToLibrary(song, current);
 
         //Re-generate lists
         Library.generateLists();
 
-        //Save library
-        Library.save();
-        saveSources();
-
         //Run callback
         callback.run();
     }
@@ -213,9 +214,7 @@ public abstract class Source
      */
     public void removeFromLibrary(Song song, Runnable callback, Runnable failureCallback)
     {
-        Library.removeSong(song);
-
-        //Mark song as 'handled' for us
+        //Find song source information for us
         SourceInformation current = null;
         for(SourceInformation si : song.getSources())
         {
@@ -230,15 +229,13 @@ public abstract class Source
             failureCallback.run();
             return;
         }
-        current.handled = true;
+
+        //Remove song, and mark song as 'handled' for us
+        Library.removeFromLibrary(song, current);
 
         //Re-generate lists
         Library.generateLists();
 
-        //Save library
-        Library.save();
-        saveSources();
-
         //Run callback
         callback.run();
     }
@@ -248,16 +245,93 @@ public abstract class Source
      */
     public void removeFromPlaylist(Song song, Playlist playlist, Runnable callback, Runnable failureCallback)
     {
-        playlist.getSongs().remove(song);
+        Library.removeFromPlaylist(song, playlist);
+
+        //Run callback
+        callback.run();
+    }
+
+    /*
+     * Batch variants : one request per api batch for network sources, and one journal write
+     */
+
+    /**
+     * This method can't be kept this way ; each source NEEDS to override it
+     */
+    public void addSongsToPlaylist(List<Song> songs, Playlist playlist, Runnable callback, Runnable failureCallback)
+    {
+        Library.addToPlaylist(songs, playlist);
+
+        //Run callback
+        callback.run();
+    }
+
+    /**
+     * This method can't be kept this way ; each source NEEDS to override it
+     * Songs that this source does not have are ignored
+     */
+    public void addToLibrary(List<Song> songs, Runnable callback, Runnable failureCallback)
+    {
+        List<Song> ours = songsOf(songs);
+        if(ours.isEmpty())
+        {
+            failureCallback.run();
+            return;
+        }
 
-        //Save library
-        Library.save();
-        saveSources();
+        Library.addToLibrary(ours, this);
+
+        //Re-generate lists
+        Library.generateLists();
 
         //Run callback
         callback.run();
     }
 
+    /**
+     * This method can't be kept this way ; each source NEEDS to override it
+     * Songs that this source does not have are ignored
+     */
+    public void removeFromLibrary(List<Song> songs, Runnable callback, Runnable failureCallback)
+    {
+        List<Song> ours = songsOf(songs);
+        if(ours.isEmpty())
+        {
+            failureCallback.run();
+            return;
+        }
+
+        Library.removeFromLibrary(ours, this);
+
+        //Re-generate lists
+        Library.generateLists();
+
+        //Run callback
+        callback.run();
+    }
+
+    /**
+     * This method can't be kept this way ; each source NEEDS to override it
+     */
+    public void removeFromPlaylist(List<Song> songs, Playlist playlist, Runnable callback, Runnable failureCallback)
+    {
+        Library.removeFromPlaylist(songs, playlist);
+
+        //Run callback
+        callback.run();
+    }
+
+    /**
+     * @return the songs that this source has
+     */
+    protected List<Song> songsOf(List<Song> songs)
+    {
+        List<Song> ours = new ArrayList<>(songs.size());
+        for(Song song : songs)
+            if(song.getSourceInformation(this) != null) ours.add(song);
+        return ours;
+    }
+
     /**
      * Blade saves all sources informations/configurations in a cache sources json file
      */
@@ -331,49 +405,125 @@ public abstract class Source
         }
     }
 
-    @SuppressWarnings("rawtypes")
-    public static void synchronizeSources(Runnable doneCallback)
+    /**
+     * Synchronizes the library of every ready source, in parallel ; the listener is called from
+     * background threads
+     */
+    public static void synchronizeSources(SyncListener listener)
     {
         isSyncing = true;
-
-        //Reset the library
-        Library.reset();
-
-        //Synchronize every source
-        final List<Future> futures = new ArrayList<>();
+        syncCancelled = false;
+        syncListener = listener;
+
+        //The library is not reset : every source merges its changes into it, and it is indexed again at the end
+        Library.invalidateSearchIndex();
+        //Every source arrives on this barrier when done ; it starts at 1 so that it can't reach 0
+        //before every source is submitted
+        final AtomicInteger remaining = new AtomicInteger(1);
         for(Source s : SOURCES)
         {
             if(s.status != SourceStatus.STATUS_READY) continue;
 
-            futures.add(BladeApplication.obtainExecutorService().submit(() ->
+            remaining.incrementAndGet();
+            BladeApplication.obtainExecutorService().execute(() ->
             {
                 Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
-                s.synchronizeLibrary();
-            }));
+                try
+                {
+                    if(!syncCancelled) s.synchronizeLibrary();
+                }
+                finally
+                {
+                    //A failing listener must not keep the synchronization from completing
+                    try
+                    {
+                        listener.onSourceDone(s);
+                    }
+                    catch(RuntimeException e)
+                    {
+                        e.printStackTrace();
+                    }
+                    //The last source to finish runs the continuation
+                    if(remaining.decrementAndGet() == 0) onSynchronizationDone();
+                }
+            });
         }
 
-        //Save library and sources after synchronization
-        BladeApplication.obtainExecutorService().execute(() ->
+        if(remaining.decrementAndGet() == 0)
+            BladeApplication.obtainExecutorService().execute(Source::onSynchronizationDone);
+    }
+
+    private static void onSynchronizationDone()
+    {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+        SyncListener listener = syncListener;
+        boolean cancelled = syncCancelled;
+        if(cancelled)
         {
-            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            //Drop the partial library, and go back to the last saved one
+            Library.reset();
+            Library.loadFromCache();
+        }
 
-            //TODO : This is active waiting ; we could actually do passive waiting using a callback
-            // on synchronizeLibrary (using a lambda instead, synchronizeLibrary and call callback, checking
-            // if alldone...) ; the problem on that is that we need to wait for the for loop end to start all threads
-            boolean allDone = false;
-            while(!allDone)
-            {
-                allDone = true;
-                for(Future f : futures) if(!f.isDone()) allDone = false;
-            }
+        for(Source s : SOURCES) s.onSyncFinished(cancelled);
+
+        if(!cancelled)
+        {
+            //Drop content of removed sources, and give sources their final indexes
+            Library.pruneSources(SOURCES);
+            for(int i = 0; i < SOURCES.size(); i++) SOURCES.get(i).setIndex(i);
+            Library.pruneHandles();
 
             //Every source synchronization is done, we can now sort and save library
             Library.generateLists();
             Library.save();
             Source.saveSources(); //scheduleSave, if a source changed, we stay ok...
-            doneCallback.run();
-            isSyncing = false;
-        });
+        }
+
+        syncListener = null;
+        syncCancelled = false;
+        isSyncing = false;
+        listener.onSyncDone(cancelled);
+    }
+
+    /**
+     * Called at the end of every synchronization, before sources are saved ; sources keeping
+     * synchronization state (e.g. for delta synchronization) should only commit it if not cancelled,
+     * as a cancelled synchronization goes back to the last saved library (and its journal)
+     */
+    protected void onSyncFinished(boolean cancelled)
+    {
+    }
+
+    /**
+     * Cancels the synchronization in progress ; sources stop at their next check, and the library
+     * goes back to its last saved state : what sources ingested is dropped, except what they
+     * journaled along with a checkpoint (see Library.journalSynchronization)
+     */
+    public static void cancelSync()
+    {
+        if(isSyncing) syncCancelled = true;
+    }
+
+    /**
+     * Sources should check this regularly in synchronizeLibrary(), and return early if true
+     */
+    protected static boolean isSyncCancelled()
+    {
+        return syncCancelled;
+    }
+
+    /**
+     * Reports synchronization progress of this source to the UI
+     *
+     * @param done  items synchronized so far
+     * @param total items to synchronize ; this can grow as the source discovers its content
+     */
+    protected void reportSyncProgress(int done, int total)
+    {
+        SyncListener listener = syncListener;
+        if(listener != null) listener.onSourceProgress(this, done, total);
     }
 
     public static void initSources()
@@ -21,6 +21,10 @@ import androidx.fragment.app.Fragment;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 import v.blade.BladeApplication;
 import v.blade.R;
 import v.blade.databinding.SettingsFragmentLocalBinding;
@@ -67,7 +71,11 @@ public class Local extends Source
         Cursor musicCursor = ContentResolverCompat.query(contentResolver,
                 MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, null, null, null,
                 null, null);
-        if(musicCursor != null && musicCursor.moveToFirst())
+        if(musicCursor == null) return;
+
+        //Songs we find ; the others are not on the device anymore
+        Set<Song> seen = new HashSet<>();
+        if(musicCursor.moveToFirst())
         {
             int titleColumn = musicCursor.getColumnIndex(MediaStore.MediaColumns.TITLE);
             int idColumn = musicCursor.getColumnIndex(MediaStore.MediaColumns._ID);
@@ -75,9 +83,12 @@ public class Local extends Source
             int albumColumn = musicCursor.getColumnIndex(MediaStore.Audio.Albums.ALBUM);
             int trackNumberColumn = musicCursor.getColumnIndex(MediaStore.Audio.Media.TRACK);
             int albumIdColumn = musicCursor.getColumnIndex(MediaStore.Audio.Albums.ALBUM_ID);
+            int total = musicCursor.getCount();
 
             do
             {
+                if(isSyncCancelled()) break;
+
                 String title = musicCursor.getString(titleColumn);
 
                 //MediaStore only allows one artist String
@@ -97,12 +108,16 @@ public class Local extends Source
                 long albumId = musicCursor.getLong(albumIdColumn);
                 String pathUri = "content://media/external/audio/albumart/" + albumId;
 
-                Library.addSong(title, album, artists, this, id, artists, pathUri, track_number, new String[artists.length], new String[artists.length], pathUri, LOCAL_IMAGE_LEVEL);
+                seen.add(Library.addSong(title, album, artists, this, id, artists, pathUri, track_number, new String[artists.length], new String[artists.length], pathUri, LOCAL_IMAGE_LEVEL));
+
+                int done = musicCursor.getPosition() + 1;
+                if(done % 100 == 0 || done == total) reportSyncProgress(done, total);
             }
             while(musicCursor.moveToNext());
-
-            musicCursor.close();
         }
+        musicCursor.close();
+
+        if(!isSyncCancelled()) Library.sweepSource(this, seen, true);
 
         //Obtain playlists
 
@@ -179,6 +194,30 @@ public class Local extends Source
         failureCallback.run();
     }
 
+    @Override
+    public void addSongsToPlaylist(List<Song> songs, Playlist playlist, Runnable callback, Runnable failureCallback)
+    {
+        failureCallback.run();
+    }
+
+    @Override
+    public void addToLibrary(List<Song> songs, Runnable callback, Runnable failureCallback)
+    {
+        failureCallback.run();
+    }
+
+    @Override
+    public void removeFromLibrary(List<Song> songs, Runnable callback, Runnable failureCallback)
+    {
+        failureCallback.run();
+    }
+
+    @Override
+    public void removeFromPlaylist(List<Song> songs, Playlist playlist, Runnable callback, Runnable failureCallback)
+    {
+        failureCallback.run();
+    }
+
     private boolean checkPermission()
     {
         if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.M)
@@ -16,6 +16,7 @@ import androidx.fragment.app.Fragment;
 import com.google.gson.Gson;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import com.spotify.sdk.android.auth.AuthorizationClient;
 import com.spotify.sdk.android.auth.AuthorizationRequest;
 import com.spotify.sdk.android.auth.AuthorizationResponse;
@@ -24,10 +25,20 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 import okhttp3.FormBody;
 import okhttp3.MediaType;
@@ -45,6 +56,7 @@ import v.blade.databinding.SettingsFragmentSpotifyBinding;
 import v.blade.library.Library;
 import v.blade.library.Playlist;
 import v.blade.library.Song;
+import v.blade.sources.MutationOutbox;
 import v.blade.sources.Source;
 import v.blade.sources.SourceInformation;
 import v.blade.ui.ExploreFragment;
@@ -77,6 +89,10 @@ public class Spotify extends Source
     protected static final String[] SCOPES = {"app-remote-control", "streaming", "playlist-modify-public", "playlist-modify-private", "playlist-read-private", "playlist-read-collaborative", "user-follow-modify", "user-follow-read", "user-library-modify", "user-library-read", "user-read-email", "user-read-private",
             "user-read-recently-played", "user-top-read", "user-read-playback-position", "user-read-playback-state", "user-modify-playback-state", "user-read-currently-playing"};
     private static final int SPOTIFY_REQUEST_CODE = 0x11;
+
+    //Batch limits of the api : ids for me/tracks, uris for playlists tracks
+    private static final int SAVED_TRACKS_BATCH = 50;
+    private static final int PLAYLIST_TRACKS_BATCH = 100;
     protected static final String REDIRECT_URI = "spotify-sdk://auth";
 
     public Spotify()
@@ -111,11 +127,15 @@ public class Spotify extends Source
     private String ACCESS_TOKEN;
     private String REFRESH_TOKEN;
     private int TOKEN_EXPIRES_IN;
-    protected String AUTH_STRING;
+    volatile long tokenExpiresAt = 0; //when ACCESS_TOKEN expires (System.currentTimeMillis() time)
+    protected volatile String AUTH_STRING;
 
     private Retrofit retrofit;
     protected SpotifyService service;
 
+    //Library and playlists mutations not sent to Spotify yet
+    private final MutationOutbox outbox = new MutationOutbox(new OutboxSender(), Source::saveSources);
+
     @Override
     public int getImageResource()
     {
@@ -130,12 +150,11 @@ public class Spotify extends Source
         status = SourceStatus.STATUS_CONNECTING;
 
         //build retrofit client
-        retrofit = new Retrofit.Builder().baseUrl(BASE_API_URL).addConverterFactory(GsonConverterFactory.create()).build();
-        service = retrofit.create(SpotifyService.class);
+        buildService();
 
         //refresh access token
         System.out.println("BLADE-SPOTIFY: Refresh token " + REFRESH_TOKEN);
-        OkHttpClient client = new OkHttpClient();
+        OkHttpClient client = BladeApplication.obtainHttpClient();
         RequestBody requestBody = new FormBody.Builder()
                 .add("grant_type", "refresh_token")
                 .add("refresh_token", REFRESH_TOKEN)
@@ -190,18 +209,16 @@ public class Spotify extends Source
                     return;
                 }
 
-                ACCESS_TOKEN = sr.access_token;
-                TOKEN_EXPIRES_IN = sr.expires_in;
-
-                if(sr.refresh_token != null && !sr.refresh_token.equals(""))
-                    REFRESH_TOKEN = sr.refresh_token;
-
-                AUTH_STRING = AUTH_TYPE + ACCESS_TOKEN;
+                setToken(sr);
 
                 status = SourceStatus.STATUS_READY;
 
                 Source.saveSources();
                 System.out.println("BLADE-SPOTIFY: Spotify initialized");
+
+                //Send what was changed while we were offline, and every time the network comes back
+                outbox.watchConnectivity();
+                if(!outbox.isEmpty()) outbox.flush();
             }
             catch(IOException e)
             {
@@ -212,15 +229,34 @@ public class Spotify extends Source
         });
     }
 
-    protected void refreshAccessTokenSync()
+    /**
+     * Builds the Web API service, on the application http stack ; the token manager authorizes
+     * every request
+     */
+    private void buildService()
     {
-        //build retrofit client
-        retrofit = new Retrofit.Builder().baseUrl(BASE_API_URL).addConverterFactory(GsonConverterFactory.create()).build();
+        if(service != null) return;
+
+        SpotifyTokenManager tokenManager = new SpotifyTokenManager(this);
+        OkHttpClient client = BladeApplication.obtainHttpClient().newBuilder()
+                .addInterceptor(tokenManager)
+                .authenticator(tokenManager)
+                .build();
+        retrofit = new Retrofit.Builder().baseUrl(BASE_API_URL).client(client)
+                .addConverterFactory(GsonConverterFactory.create()).build();
         service = retrofit.create(SpotifyService.class);
+    }
 
+    /**
+     * Refreshes the access token ; this is done by the token manager, when needed
+     *
+     * @return true if the token was refreshed
+     */
+    protected boolean refreshAccessTokenSync()
+    {
         //refresh access token
         System.out.println("BLADE-SPOTIFY: Refresh token " + REFRESH_TOKEN);
-        OkHttpClient client = new OkHttpClient();
+        OkHttpClient client = BladeApplication.obtainHttpClient();
         RequestBody requestBody = new FormBody.Builder()
                 .add("grant_type", "refresh_token")
                 .add("refresh_token", REFRESH_TOKEN)
@@ -238,7 +274,7 @@ public class Spotify extends Source
                 //noinspection ConstantConditions
                 String responseBody = response.body() == null ? "Unknown error" : response.body().string();
                 System.err.println("BLADE-SPOTIFY: Could not refresh token" + " (" + response.code() + " : " + responseBody + ")");
-                return;
+                return false;
             }
 
             Gson gson = new Gson();
@@ -248,66 +284,474 @@ public class Spotify extends Source
             if(sr == null)
             {
                 System.err.println("BLADE-SPOTIFY: Could not refresh token" + " (Could not parse JSON Token)");
-                return;
+                return false;
             }
 
-            ACCESS_TOKEN = sr.access_token;
-            TOKEN_EXPIRES_IN = sr.expires_in;
-
-            if(sr.refresh_token != null && !sr.refresh_token.equals(""))
-                REFRESH_TOKEN = sr.refresh_token;
-
-            AUTH_STRING = AUTH_TYPE + ACCESS_TOKEN;
+            setToken(sr);
 
             Source.saveSources();
+            return true;
         }
         catch(IOException e)
         {
             status = SourceStatus.STATUS_NEED_INIT;
             System.err.println("BLADE-SPOTIFY: Could not refresh access token (IOException trying to obtain token)");
+            return false;
+        }
+    }
+
+    private void setToken(SpotifyTokenResponse sr)
+    {
+        ACCESS_TOKEN = sr.access_token;
+        TOKEN_EXPIRES_IN = sr.expires_in;
+        tokenExpiresAt = System.currentTimeMillis() + TOKEN_EXPIRES_IN * 1000L;
+
+        if(sr.refresh_token != null && !sr.refresh_token.equals(""))
+            REFRESH_TOKEN = sr.refresh_token;
+
+        AUTH_STRING = AUTH_TYPE + ACCESS_TOKEN;
+    }
+
+    /*
+     * Delta synchronization : saved tracks and albums are listed most recent first, so we stop
+     * paging once we reach what we had at last synchronization (watermark) ; as that can't see
+     * removals, the totals are checked, and a full synchronization is done if they do not match.
+     * Playlists are only downloaded again if their snapshot_id changed.
+     */
+    private static class SyncState
+    {
+        String tracksWatermark; //added_at of the most recent saved track
+        String albumsWatermark;
+        int tracksCount = -1;
+        int albumsCount = -1;
+        HashMap<String, String> playlistSnapshots = new HashMap<>(); //playlist id -> snapshot_id
+    }
+
+    private static class SavedPaging
+    {
+        int total = -1;
+        int added = 0; //items more recent than the watermark
+        String newest;
+        boolean reachedWatermark = false;
+        boolean complete = false;
+    }
+
+    /*
+     * Checkpoint : an interrupted synchronization (network error, crash...) resumes where it stopped,
+     * instead of downloading everything again. The checkpoint is a snapshot of the SyncProgress, and
+     * is only persisted once what we ingested before it is journaled (see Library.journalSynchronization) ;
+     * the library itself is only saved at the end of the synchronization. The songs a full synchronization
+     * saw can be many : they are appended to a file of their own instead.
+     */
+    private static final int PHASE_TRACKS = 0;
+    private static final int PHASE_ALBUMS = 1;
+    private static final int PHASE_PLAYLISTS = 2;
+    private static final int PHASE_DONE = 3;
+    private static final int CHECKPOINT_PAGES = 20; //pages between two checkpoints
+    private static final long CHECKPOINT_MAX_AGE = 24L * 60 * 60 * 1000;
+    private static final long OUTBOX_DRAIN_TIMEOUT = 30_000;
+
+    private static class SyncProgress
+    {
+        long started;
+        boolean full;
+        int phase = PHASE_TRACKS;
+        int offset = 0; //next offset to fetch in current phase
+        SavedPaging tracks = new SavedPaging();
+        SavedPaging albums = new SavedPaging();
+        //Full synchronization : ids of the songs we saw ; they are not in the checkpoint, rewritten every
+        //time, but appended to a file of their own as we go (see appendSeenSongs)
+        transient HashSet<String> seenSongs = new HashSet<>();
+        HashSet<String> seenPlaylists = new HashSet<>();
+        HashMap<String, String> playlistSnapshots = new HashMap<>(); //playlists done
+
+        void nextPhase(int phase)
+        {
+            this.phase = phase;
+            this.offset = 0;
         }
     }
 
+    private final SpotifyPager pager = new SpotifyPager(SpotifyPager.MAX_IN_FLIGHT);
+    private SyncState syncState = new SyncState();
+    private SyncState pendingSyncState; //what this synchronization found ; committed in onSyncFinished()
+    private volatile JsonObject checkpoint; //last persisted checkpoint, if a synchronization was interrupted
+    private JsonObject pendingCheckpoint;
+    //Ingested since the last checkpoint ; sync thread only
+    private final ArrayList<Song> checkpointSongs = new ArrayList<>();
+    private final ArrayList<Song> checkpointSwept = new ArrayList<>();
+    private final ArrayList<Playlist> checkpointPlaylists = new ArrayList<>();
+    private final ArrayList<String> checkpointSeenSongs = new ArrayList<>();
+    private int syncProgress;
+    private int syncProgressTotal;
+
     @Override
     public void synchronizeLibrary()
     {
+        pendingSyncState = null;
+        pendingCheckpoint = null;
+        checkpointSongs.clear();
+        checkpointSwept.clear();
+        checkpointPlaylists.clear();
+        checkpointSeenSongs.clear();
+        syncProgress = 0;
+        syncProgressTotal = 0;
+
+        //Spotify has to know about our changes first, or the synchronization would revert them
+        if(!outbox.drain(OUTBOX_DRAIN_TIMEOUT))
+            System.err.println("BLADE-SPOTIFY: Synchronizing with pending changes not sent to Spotify");
+
+        SyncProgress progress = restoreCheckpoint();
+        if(progress != null)
+        {
+            System.out.println("BLADE-SPOTIFY: Resuming synchronization (phase " + progress.phase + ", offset " + progress.offset + ")");
+        }
+        else
+        {
+            progress = new SyncProgress();
+            progress.started = System.currentTimeMillis();
+            progress.full = syncState.tracksWatermark == null || syncState.albumsWatermark == null
+                    || syncState.tracksCount < 0 || syncState.albumsCount < 0 || !hasLibrarySongs();
+        }
+
         try
         {
-            /* Obtain user tracks */
-            int tracksLeft;
-            int tracksIndex = 0;
-            do
+            while(progress.phase != PHASE_DONE)
             {
-                Call<SpotifyService.PagingObject<SpotifyService.SavedTrackObject>> userTracks =
-                        service.getUserSavedTracks(AUTH_STRING, 50, tracksIndex * 50);
-                Response<SpotifyService.PagingObject<SpotifyService.SavedTrackObject>> response =
-                        userTracks.execute();
+                switch(progress.phase)
+                {
+                    /* Obtain user tracks and albums */
+                    case PHASE_TRACKS:
+                        if(!syncSavedTracks(progress))
+                        {
+                            onSyncInterrupted(progress);
+                            return;
+                        }
+                        progress.nextPhase(PHASE_ALBUMS);
+                        break;
 
-                if(response.code() == 401)
+                    case PHASE_ALBUMS:
+                        if(!syncSavedAlbums(progress))
+                        {
+                            onSyncInterrupted(progress);
+                            return;
+                        }
+
+                        if(!progress.full && (progress.tracks.total != syncState.tracksCount + progress.tracks.added
+                                || progress.albums.total != syncState.albumsCount + progress.albums.added))
+                        {
+                            //Something was removed : we need to see everything
+                            progress.full = true;
+                            progress.tracks = new SavedPaging();
+                            progress.albums = new SavedPaging();
+                            progress.nextPhase(PHASE_TRACKS);
+                            break;
+                        }
+
+                        //Songs we did not see are not in user library anymore
+                        if(progress.full) checkpointSwept.addAll(Library.sweepSourceIds(this, progress.seenSongs, false));
+                        progress.seenSongs.clear();
+                        checkpointSeenSongs.clear();
+                        deleteSeenSongs(progress);
+                        progress.nextPhase(PHASE_PLAYLISTS);
+                        break;
+
+                    /* Obtain user playlists */
+                    case PHASE_PLAYLISTS:
+                        if(!syncPlaylists(progress))
+                        {
+                            onSyncInterrupted(progress);
+                            return;
+                        }
+                        progress.nextPhase(PHASE_DONE);
+                        break;
+                }
+            }
+        }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+            onSyncInterrupted(progress);
+            return;
+        }
+
+        SyncState state = new SyncState();
+        state.tracksWatermark = progress.tracks.newest != null ? progress.tracks.newest : syncState.tracksWatermark;
+        state.albumsWatermark = progress.albums.newest != null ? progress.albums.newest : syncState.albumsWatermark;
+        state.tracksCount = progress.tracks.total;
+        state.albumsCount = progress.albums.total;
+        state.playlistSnapshots = progress.playlistSnapshots;
+        pendingSyncState = state;
+    }
+
+    /**
+     * The synchronization stopped before the end : if it was not cancelled, what we ingested will be
+     * saved with the library, so the next synchronization can resume from here
+     */
+    private void onSyncInterrupted(SyncProgress progress)
+    {
+        if(isSyncCancelled()) return;
+        if(appendSeenSongs(progress)) pendingCheckpoint = new Gson().toJsonTree(progress).getAsJsonObject();
+    }
+
+    @Override
+    protected void onSyncFinished(boolean cancelled)
+    {
+        //If cancelled, the library goes back to the last save and the journal, that match the last
+        //persisted checkpoint
+        if(!cancelled)
+        {
+            if(pendingSyncState != null)
+            {
+                syncState = pendingSyncState;
+                checkpoint = null;
+            }
+            else if(pendingCheckpoint != null) checkpoint = pendingCheckpoint;
+        }
+        pendingSyncState = null;
+        pendingCheckpoint = null;
+    }
+
+    /**
+     * Persists a checkpoint, after journaling what we ingested since the previous one
+     */
+    private void saveCheckpoint(SyncProgress progress)
+    {
+        Library.journalSynchronization(this, checkpointSongs, checkpointSwept, checkpointPlaylists);
+        checkpointSongs.clear();
+        checkpointSwept.clear();
+        checkpointPlaylists.clear();
+
+        //Without the songs we saw, the checkpoint could not be resumed : we keep the previous one
+        if(!appendSeenSongs(progress)) return;
+        checkpoint = new Gson().toJsonTree(progress).getAsJsonObject();
+        Source.saveSources();
+    }
+
+    private static File seenSongsFile(SyncProgress progress)
+    {
+        return new File(BladeApplication.appContext.getFilesDir(), "spotify_seen_" + progress.started);
+    }
+
+    /**
+     * Appends the ids of the songs we saw since the last checkpoint to the file of this synchronization
+     *
+     * @return false if they could not be written
+     */
+    private boolean appendSeenSongs(SyncProgress progress)
+    {
+        if(checkpointSeenSongs.isEmpty()) return true;
+
+        try(BufferedWriter writer = new BufferedWriter(new FileWriter(seenSongsFile(progress), true)))
+        {
+            for(String id : checkpointSeenSongs)
+            {
+                writer.write(id);
+                writer.newLine();
+            }
+        }
+        catch(IOException e)
+        {
+            System.err.println("BLADE-SPOTIFY: Could not save seen songs : " + e.getMessage());
+            return false;
+        }
+
+        checkpointSeenSongs.clear();
+        return true;
+    }
+
+    /**
+     * @return false if the songs seen by the interrupted synchronization could not be read
+     */
+    private static boolean readSeenSongs(SyncProgress progress)
+    {
+        File file = seenSongsFile(progress);
+        if(!file.exists()) return true;
+
+        try(BufferedReader reader = new BufferedReader(new FileReader(file)))
+        {
+            String id;
+            while((id = reader.readLine()) != null)
+                if(!id.isEmpty()) progress.seenSongs.add(id);
+            return true;
+        }
+        catch(IOException e)
+        {
+            System.err.println("BLADE-SPOTIFY: Could not read seen songs : " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static void deleteSeenSongs(SyncProgress progress)
+    {
+        File file = seenSongsFile(progress);
+        if(file.exists() && !file.delete())
+            System.err.println("BLADE-SPOTIFY: Could not delete " + file.getName());
+    }
+
+    /**
+     * @return the progress of the interrupted synchronization to resume, or null to start a new one
+     */
+    private SyncProgress restoreCheckpoint()
+    {
+        JsonObject saved = checkpoint;
+        if(saved == null) return null;
+
+        SyncProgress progress;
+        try
+        {
+            progress = new Gson().fromJson(saved, SyncProgress.class);
+        }
+        catch(JsonParseException e)
+        {
+            return null;
+        }
+
+        if(progress == null) return null;
+        if(System.currentTimeMillis() - progress.started > CHECKPOINT_MAX_AGE
+                //The library was lost : what we ingested before the checkpoint is not there anymore
+                || !hasLibrarySongs()
+                || (progress.full && progress.phase < PHASE_PLAYLISTS && !readSeenSongs(progress)))
+        {
+            deleteSeenSongs(progress);
+            return null;
+        }
+
+        return progress;
+    }
+
+    /**
+     * Checks that the library still has our songs ; if it was lost, our watermarks are meaningless
+     */
+    private boolean hasLibrarySongs()
+    {
+        if(syncState.tracksCount + syncState.albumsCount == 0) return true;
+
+        for(Song song : Library.getSongs())
+            for(SourceInformation si : song.getSources())
+                if(si.source == this && !si.handled) return true;
+        return false;
+    }
+
+    /**
+     * Adds user saved tracks to library, most recent first, until the watermark (of last
+     * synchronization) if the synchronization is not a full one
+     *
+     * @return false if interrupted
+     */
+    private boolean syncSavedTracks(SyncProgress progress) throws IOException
+    {
+        if(isSyncCancelled()) return false;
+
+        SavedPaging result = progress.tracks;
+        String watermark = progress.full ? null : syncState.tracksWatermark;
+        final int startOffset = progress.offset;
+        final int[] pages = {0};
+        //A delta synchronization usually stops in the first pages : do not request pages ahead of it
+        boolean fetched = pager.fetchAll(o -> service.getUserSavedTracks(AUTH_STRING, 50, o), 50, startOffset, watermark != null, trackPaging ->
+        {
+            if(pages[0]++ == 0 && progress.full) syncProgressTotal += trackPaging.total - startOffset;
+            result.total = trackPaging.total;
+
+            for(SpotifyService.SavedTrackObject savedTrack : trackPaging.items)
+            {
+                if(watermark != null && savedTrack.added_at != null && savedTrack.added_at.compareTo(watermark) <= 0)
                 {
-                    //Expired token
-                    refreshAccessTokenSync();
-                    synchronizeLibrary();
-                    return;
+                    //We already have this one, and all the ones after
+                    result.reachedWatermark = true;
+                    return false;
                 }
+                if(result.newest == null) result.newest = savedTrack.added_at;
+                result.added++;
 
-                if(response.code() != 200 || response.body() == null) break;
-                SpotifyService.PagingObject<SpotifyService.SavedTrackObject> trackPaging = response.body();
+                SpotifyService.TrackObject track = savedTrack.track;
+                if(track.album == null || track.artists == null || track.album.images.length == 0)
+                    continue; //TODO check ?
 
-                for(SpotifyService.SavedTrackObject savedTrack : trackPaging.items)
+                //album artists
+                String[] aartists = new String[track.album.artists.length];
+                String[] aartistsImages = new String[track.album.artists.length];
+                for(int j = 0; j < track.album.artists.length; j++)
                 {
-                    SpotifyService.TrackObject track = savedTrack.track;
-                    if(track.album == null || track.artists == null || track.album.images.length == 0)
-                        continue; //TODO check ?
-
-                    //album artists
-                    String[] aartists = new String[track.album.artists.length];
-                    String[] aartistsImages = new String[track.album.artists.length];
-                    for(int j = 0; j < track.album.artists.length; j++)
-                    {
-                        aartists[j] = track.album.artists[j].name;
-                    }
+                    aartists[j] = track.album.artists[j].name;
+                }
+
+                //song artists
+                String[] artists = new String[track.artists.length];
+                String[] artistsImages = new String[track.artists.length];
+                for(int j = 0; j < track.artists.length; j++)
+                {
+                    artists[j] = track.artists[j].name;
+                    //artistsImages[j] = track.artists[j].images //TODO artists images ?
+                }
 
+                checkpointSongs.add(Library.addSong(track.name, track.album.name, artists, this, track.id, aartists,
+                        track.album.images[track.album.images.length - 2].url, track.track_number,
+                        artistsImages, aartistsImages, track.album.images[0].url, SPOTIFY_IMAGE_LEVEL));
+                if(progress.full)
+                {
+                    progress.seenSongs.add(track.id);
+                    checkpointSeenSongs.add(track.id);
+                }
+            }
+
+            progress.offset += 50;
+            if(pages[0] % CHECKPOINT_PAGES == 0) saveCheckpoint(progress);
+
+            syncProgress += trackPaging.items.length;
+            reportSyncProgress(syncProgress, Math.max(syncProgress, syncProgressTotal));
+            return !isSyncCancelled();
+        });
+
+        result.complete = fetched && (result.reachedWatermark || !isSyncCancelled());
+        return result.complete;
+    }
+
+    /**
+     * Adds user saved albums to library, most recent first, until the watermark (of last
+     * synchronization) if the synchronization is not a full one
+     *
+     * @return false if interrupted
+     */
+    private boolean syncSavedAlbums(SyncProgress progress) throws IOException
+    {
+        if(isSyncCancelled()) return false;
+
+        SavedPaging result = progress.albums;
+        String watermark = progress.full ? null : syncState.albumsWatermark;
+        final int startOffset = progress.offset;
+        final int[] pages = {0};
+        boolean fetched = pager.fetchAll(o -> service.getUserSavedAlbums(AUTH_STRING, 50, o), 50, startOffset, watermark != null, albumPaging ->
+        {
+            if(pages[0]++ == 0 && progress.full) syncProgressTotal += albumPaging.total - startOffset;
+            result.total = albumPaging.total;
+
+            for(SpotifyService.SavedAlbumObject savedAlbum : albumPaging.items)
+            {
+                if(watermark != null && savedAlbum.added_at != null && savedAlbum.added_at.compareTo(watermark) <= 0)
+                {
+                    //We already have this one, and all the ones after
+                    result.reachedWatermark = true;
+                    return false;
+                }
+                if(result.newest == null) result.newest = savedAlbum.added_at;
+                result.added++;
+
+                SpotifyService.AlbumObject album = savedAlbum.album;
+                if(album.artists == null || album.tracks == null || album.images.length == 0)
+                    continue;
+
+                //album artists
+                String[] aartists = new String[album.artists.length];
+                String[] aartistsImages = new String[album.artists.length];
+                for(int j = 0; j < album.artists.length; j++)
+                {
+                    aartists[j] = album.artists[j].name;
+                }
+
+                //add every song in album
+                for(SpotifyService.SimplifiedTrackObject track : album.tracks.items)
+                {
                     //song artists
                     String[] artists = new String[track.artists.length];
                     String[] artistsImages = new String[track.artists.length];
@@ -317,147 +761,161 @@ public class Spotify extends Source
                         //artistsImages[j] = track.artists[j].images //TODO artists images ?
                     }
 
-                    Library.addSong(track.name, track.album.name, artists, this, track.id, aartists,
-                            track.album.images[track.album.images.length - 2].url, track.track_number,
-                            artistsImages, aartistsImages, track.album.images[0].url, SPOTIFY_IMAGE_LEVEL);
+                    checkpointSongs.add(Library.addSong(track.name, album.name, artists, this, track.id, aartists,
+                            album.images[album.images.length - 2].url, track.track_number,
+                            artistsImages, aartistsImages, album.images[0].url, SPOTIFY_IMAGE_LEVEL));
+                    if(progress.full)
+                    {
+                        progress.seenSongs.add(track.id);
+                        checkpointSeenSongs.add(track.id);
+                    }
                 }
+            }
+
+            progress.offset += 50;
+            if(pages[0] % CHECKPOINT_PAGES == 0) saveCheckpoint(progress);
+
+            syncProgress += albumPaging.items.length;
+            reportSyncProgress(syncProgress, Math.max(syncProgress, syncProgressTotal));
+            return !isSyncCancelled();
+        });
 
-                tracksLeft = trackPaging.total - 50 * (tracksIndex + 1);
-                tracksIndex++;
+        result.complete = fetched && (result.reachedWatermark || !isSyncCancelled());
+        return result.complete;
+    }
+
+    /**
+     * Synchronizes user playlists ; playlists with the same snapshot_id as last time are kept as is
+     *
+     * @return false if interrupted
+     */
+    private boolean syncPlaylists(SyncProgress progress) throws IOException
+    {
+        if(isSyncCancelled()) return false;
+
+        final int startOffset = progress.offset;
+        final boolean[] first = {true};
+        final IOException[] error = {null};
+        boolean fetched = pager.fetchAll(o -> service.getListOfCurrentUserPlaylists(AUTH_STRING, 50, o), 50, startOffset, playlistPaging ->
+        {
+            if(first[0])
+            {
+                first[0] = false;
+                syncProgressTotal += playlistPaging.total - startOffset;
             }
-            while(tracksLeft > 0);
 
-            /* Obtain user albums */
-            int albumsLeft;
-            int albumIndex = 0;
-            do
+            boolean changed = false;
+            for(SpotifyService.SimplifiedPlaylistObject playlist : playlistPaging.items)
             {
-                Call<SpotifyService.PagingObject<SpotifyService.SavedAlbumObject>> userAlbums =
-                        service.getUserSavedAlbums(AUTH_STRING, 50, albumIndex * 50);
-                Response<SpotifyService.PagingObject<SpotifyService.SavedAlbumObject>> response =
-                        userAlbums.execute();
+                if(isSyncCancelled()) return false;
 
-                if(response.code() != 200 || response.body() == null) break;
-                SpotifyService.PagingObject<SpotifyService.SavedAlbumObject> albumPaging = response.body();
+                //A resumed synchronization can already have done that playlist
+                String knownSnapshot = progress.playlistSnapshots.get(playlist.id);
+                if(knownSnapshot == null) knownSnapshot = syncState.playlistSnapshots.get(playlist.id);
 
-                for(SpotifyService.SavedAlbumObject savedAlbum : albumPaging.items)
+                Playlist existing = Library.lookupPlaylist(this, playlist.id);
+                if(existing != null && playlist.snapshot_id != null && playlist.snapshot_id.equals(knownSnapshot))
+                {
+                    //Unchanged since last synchronization
+                    progress.seenPlaylists.add(playlist.id);
+                    progress.playlistSnapshots.put(playlist.id, playlist.snapshot_id);
+                }
+                else
                 {
-                    SpotifyService.AlbumObject album = savedAlbum.album;
-                    if(album.artists == null || album.tracks == null || album.images.length == 0)
-                        continue;
-
-                    //album artists
-                    String[] aartists = new String[album.artists.length];
-                    String[] aartistsImages = new String[album.artists.length];
-                    for(int j = 0; j < album.artists.length; j++)
+                    //Obtain song list
+                    ArrayList<Song> songList;
+                    try
                     {
-                        aartists[j] = album.artists[j].name;
+                        songList = fetchPlaylistSongs(playlist.id);
                     }
-
-                    //add every song in album
-                    for(SpotifyService.SimplifiedTrackObject track : album.tracks.items)
+                    catch(IOException e)
                     {
-                        //song artists
-                        String[] artists = new String[track.artists.length];
-                        String[] artistsImages = new String[track.artists.length];
-                        for(int j = 0; j < track.artists.length; j++)
-                        {
-                            artists[j] = track.artists[j].name;
-                            //artistsImages[j] = track.artists[j].images //TODO artists images ?
-                        }
+                        error[0] = e;
+                        return false;
+                    }
 
-                        Library.addSong(track.name, album.name, artists, this, track.id, aartists,
-                                album.images[album.images.length - 2].url, track.track_number,
-                                artistsImages, aartistsImages, album.images[0].url, SPOTIFY_IMAGE_LEVEL);
+                    if(songList == null)
+                    {
+                        //Keep what we had ; no snapshot, so we will try again next time
+                        if(existing != null) progress.seenPlaylists.add(playlist.id);
+                    }
+                    else
+                    {
+                        if(existing != null) Library.removePlaylist(existing);
+                        Playlist added = Library.addPlaylist(playlist.name, songList,
+                                playlist.images.length == 0 ? null :
+                                        (playlist.images[0] == null ? null : playlist.images[0].url),
+                                (playlist.collaborative ? (BladeApplication.appContext.getString(R.string.collaborative) + " - ") : "") +
+                                        (playlist.owner.id.equals(user_id) ? "" : playlist.owner.display_name),
+                                this, playlist.id);
+                        checkpointPlaylists.add(added);
+                        progress.seenPlaylists.add(playlist.id);
+                        progress.playlistSnapshots.put(playlist.id, playlist.snapshot_id);
+                        changed = true;
                     }
                 }
 
-                albumsLeft = albumPaging.total - 50 * (albumIndex + 1);
-                albumIndex++;
+                reportSyncProgress(++syncProgress, Math.max(syncProgress, syncProgressTotal));
             }
-            while(albumsLeft > 0);
 
-            /* Obtain user playlists */
-            int playlistsLeft;
-            int playlistIndex = 0;
-            do
-            {
-                Call<SpotifyService.PagingObject<SpotifyService.SimplifiedPlaylistObject>> userPlaylists =
-                        service.getListOfCurrentUserPlaylists(AUTH_STRING, 50, playlistIndex * 50);
-                Response<SpotifyService.PagingObject<SpotifyService.SimplifiedPlaylistObject>> response =
-                        userPlaylists.execute();
+            progress.offset += 50;
+            if(changed) saveCheckpoint(progress);
+            return true;
+        });
+        if(error[0] != null) throw error[0];
+        if(!fetched || isSyncCancelled()) return false;
 
-                if(response.code() != 200 || response.body() == null) break;
-                SpotifyService.PagingObject<SpotifyService.SimplifiedPlaylistObject> playlistPaging = response.body();
+        //Playlists we did not see were deleted or unfollowed
+        Set<Playlist> seen = new HashSet<>();
+        for(String id : progress.seenPlaylists)
+        {
+            Playlist playlist = Library.lookupPlaylist(this, id);
+            if(playlist != null) seen.add(playlist);
+        }
+        Library.sweepPlaylists(this, seen);
+        return true;
+    }
 
-                for(SpotifyService.SimplifiedPlaylistObject playlist : playlistPaging.items)
+    /**
+     * @return the songs of the playlist, or null on error
+     */
+    private ArrayList<Song> fetchPlaylistSongs(String playlistId) throws IOException
+    {
+        ArrayList<Song> songList = new ArrayList<>();
+        boolean fetched = pager.fetchAll(o -> service.getPlaylistItems(AUTH_STRING, playlistId, 100, o), 100, songsPaging ->
+        {
+            for(SpotifyService.PlaylistTrackObject playlistTrack : songsPaging.items)
+            {
+                SpotifyService.TrackObject track = playlistTrack.track;
+                if(track.album == null || track.artists == null || track.album.images.length == 0)
+                    continue;
+
+                //album artists
+                String[] aartists = new String[track.album.artists.length];
+                String[] aartistsImages = new String[track.album.artists.length];
+                for(int j = 0; j < track.album.artists.length; j++)
                 {
-                    //Obtain song list
-                    ArrayList<Song> songList = new ArrayList<>();
-
-                    int songsLeft;
-                    int songIndex = 0;
-                    do
-                    {
-                        Call<SpotifyService.PagingObject<SpotifyService.PlaylistTrackObject>> playlistTracks =
-                                service.getPlaylistItems(AUTH_STRING, playlist.id, 100, songIndex * 100);
-                        Response<SpotifyService.PagingObject<SpotifyService.PlaylistTrackObject>> response2 =
-                                playlistTracks.execute();
-
-                        if(response2.code() != 200 || response2.body() == null) break;
-                        SpotifyService.PagingObject<SpotifyService.PlaylistTrackObject> songsPaging = response2.body();
-
-                        for(SpotifyService.PlaylistTrackObject playlistTrack : songsPaging.items)
-                        {
-                            SpotifyService.TrackObject track = playlistTrack.track;
-                            if(track.album == null || track.artists == null || track.album.images.length == 0)
-                                continue;
-
-                            //album artists
-                            String[] aartists = new String[track.album.artists.length];
-                            String[] aartistsImages = new String[track.album.artists.length];
-                            for(int j = 0; j < track.album.artists.length; j++)
-                            {
-                                aartists[j] = track.album.artists[j].name;
-                            }
-
-                            //song artists
-                            String[] artists = new String[track.artists.length];
-                            String[] artistsImages = new String[track.artists.length];
-                            for(int j = 0; j < track.artists.length; j++)
-                            {
-                                artists[j] = track.artists[j].name;
-                                //artistsImages[j] = track.artists[j].images //TODO artists images ?
-                            }
-
-                            Song song = Library.addSongHandle(track.name, track.album.name, artists, this, track.id, aartists,
-                                    track.album.images[track.album.images.length - 2].url, track.track_number,
-                                    artistsImages, aartistsImages, track.album.images[0].url, SPOTIFY_IMAGE_LEVEL);
-                            songList.add(song);
-                        }
+                    aartists[j] = track.album.artists[j].name;
+                }
 
-                        songsLeft = songsPaging.total - 100 * (songIndex + 1);
-                        songIndex++;
-                    }
-                    while(songsLeft > 0);
-
-                    Library.addPlaylist(playlist.name, songList,
-                            playlist.images.length == 0 ? null :
-                                    (playlist.images[0] == null ? null : playlist.images[0].url),
-                            (playlist.collaborative ? (BladeApplication.appContext.getString(R.string.collaborative) + " - ") : "") +
-                                    (playlist.owner.id.equals(user_id) ? "" : playlist.owner.display_name),
-                            this, playlist.id);
+                //song artists
+                String[] artists = new String[track.artists.length];
+                String[] artistsImages = new String[track.artists.length];
+                for(int j = 0; j < track.artists.length; j++)
+                {
+                    artists[j] = track.artists[j].name;
+                    //artistsImages[j] = track.artists[j].images //TODO artists images ?
                 }
 
-                playlistsLeft = playlistPaging.total - 50 * (playlistIndex + 1);
-                playlistIndex++;
+                Song song = Library.addSongHandle(track.name, track.album.name, artists, this, track.id, aartists,
+                        track.album.images[track.album.images.length - 2].url, track.track_number,
+                        artistsImages, aartistsImages, track.album.images[0].url, SPOTIFY_IMAGE_LEVEL);
+                songList.add(song);
             }
-            while(playlistsLeft > 0);
-        }
-        catch(IOException e)
-        {
-            e.printStackTrace();
-        }
+            return true;
+        });
+
+        return fetched ? songList : null;
     }
 
     @Override
@@ -478,6 +936,19 @@ public class Spotify extends Source
         jsonObject.addProperty("account_password", account_password);
         jsonObject.addProperty("user_id", user_id);
 
+        //Delta synchronization state
+        jsonObject.addProperty("tracks_watermark", syncState.tracksWatermark);
+        jsonObject.addProperty("albums_watermark", syncState.albumsWatermark);
+        jsonObject.addProperty("saved_tracks_count", syncState.tracksCount);
+        jsonObject.addProperty("saved_albums_count", syncState.albumsCount);
+        JsonObject snapshots = new JsonObject();
+        for(Map.Entry<String, String> snapshot : syncState.playlistSnapshots.entrySet())
+            snapshots.addProperty(snapshot.getKey(), snapshot.getValue());
+        jsonObject.add("playlist_snapshots", snapshots);
+        JsonObject savedCheckpoint = checkpoint;
+        if(savedCheckpoint != null) jsonObject.add("sync_checkpoint", savedCheckpoint);
+        jsonObject.add("outbox", outbox.toJSON());
+
         return jsonObject;
     }
 
@@ -507,6 +978,27 @@ public class Spotify extends Source
         JsonElement userIdJson = jsonObject.get("user_id");
         if(userIdJson != null) user_id = userIdJson.getAsString();
         else status = SourceStatus.STATUS_DOWN;
+
+        //Delta synchronization state ; if missing, next synchronization will be a full one
+        SyncState state = new SyncState();
+        JsonElement tracksWatermarkJson = jsonObject.get("tracks_watermark");
+        if(tracksWatermarkJson != null && !tracksWatermarkJson.isJsonNull()) state.tracksWatermark = tracksWatermarkJson.getAsString();
+        JsonElement albumsWatermarkJson = jsonObject.get("albums_watermark");
+        if(albumsWatermarkJson != null && !albumsWatermarkJson.isJsonNull()) state.albumsWatermark = albumsWatermarkJson.getAsString();
+        JsonElement tracksCountJson = jsonObject.get("saved_tracks_count");
+        if(tracksCountJson != null) state.tracksCount = tracksCountJson.getAsInt();
+        JsonElement albumsCountJson = jsonObject.get("saved_albums_count");
+        if(albumsCountJson != null) state.albumsCount = albumsCountJson.getAsInt();
+        JsonElement snapshotsJson = jsonObject.get("playlist_snapshots");
+        if(snapshotsJson != null && snapshotsJson.isJsonObject())
+            for(Map.Entry<String, JsonElement> snapshot : snapshotsJson.getAsJsonObject().entrySet())
+                state.playlistSnapshots.put(snapshot.getKey(), snapshot.getValue().getAsString());
+        syncState = state;
+
+        JsonElement checkpointJson = jsonObject.get("sync_checkpoint");
+        if(checkpointJson != null && checkpointJson.isJsonObject()) checkpoint = checkpointJson.getAsJsonObject();
+
+        outbox.restoreFromJSON(jsonObject.get("outbox"));
     }
 
     @Override
@@ -523,14 +1015,6 @@ public class Spotify extends Source
                 Response<SpotifyService.FeaturedPlaylistsResult> response =
                         call.execute();
 
-                if(response.code() == 401)
-                {
-                    //Expired token
-                    refreshAccessTokenSync();
-                    explore(view);
-                    return;
-                }
-
                 SpotifyService.FeaturedPlaylistsResult r = response.body();
                 if(response.code() != 200 || r == null || r.playlists == null)
                 {
@@ -572,14 +1056,6 @@ public class Spotify extends Source
             {
                 Response<SpotifyService.SearchResult> response = call.execute();
 
-                if(response.code() == 401)
-                {
-                    //Expired token
-                    refreshAccessTokenSync();
-                    exploreSearch(query, view);
-                    return;
-                }
-
                 SpotifyService.SearchResult r = response.body();
                 if(response.code() != 200 || r == null)
                 {
@@ -600,50 +1076,27 @@ public class Spotify extends Source
 
     @Override
     public void addSongToPlaylist(Song song, Playlist playlist, Runnable callback, Runnable failureCallback)
+    {
+        addSongsToPlaylist(Collections.singletonList(song), playlist, callback, failureCallback);
+    }
+
+    @Override
+    public void addSongsToPlaylist(List<Song> songs, Playlist playlist, Runnable callback, Runnable failureCallback)
     {
         BladeApplication.obtainExecutorService().execute(() ->
         {
             Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
 
-            String id = null;
-            for(SourceInformation s : song.getSources())
-            {
-                if(s.source == this)
-                {
-                    id = (String) s.id;
-                    break;
-                }
-            }
-
-            //Add track to playlist on Spotify
-            Call<SpotifyService.PlaylistAddResponse> call =
-                    service.appendTrackToPlaylist(AUTH_STRING, (String) playlist.getSource().id, "spotify:track:" + id);
-            try
-            {
-                Response<SpotifyService.PlaylistAddResponse> response = call.execute();
-
-                if(response.code() == 401)
-                {
-                    //Expired token
-                    refreshAccessTokenSync();
-                    addSongToPlaylist(song, playlist, callback, failureCallback);
-                    return;
-                }
-
-                if(response.code() != 201)
-                {
-                    System.err.println("BLADE-SPOTIFY: Could not add " + song.getName() + " to playlist " + playlist.getName() + " : " + response.code());
-                    failureCallback.run();
-                    return;
-                }
-            }
-            catch(IOException e)
+            List<Song> ours = songsOf(songs);
+            if(ours.isEmpty())
             {
                 failureCallback.run();
                 return;
             }
 
-            super.addSongToPlaylist(song, playlist, callback, failureCallback);
+            //Apply locally right away ; the outbox sends it to Spotify
+            super.addSongsToPlaylist(ours, playlist, callback, failureCallback);
+            outbox.enqueue(MutationOutbox.OP_PLAYLIST_ADD, (String) playlist.getSource().id, trackIds(ours));
         });
     }
 
@@ -665,13 +1118,6 @@ public class Spotify extends Source
             {
                 Response<SpotifyService.SimplifiedPlaylistObject> response = call.execute();
                 SpotifyService.SimplifiedPlaylistObject r = response.body();
-                if(response.code() == 401)
-                {
-                    //Expired token
-                    refreshAccessTokenSync();
-                    createPlaylist(name, callback, failureCallback);
-                    return;
-                }
 
                 if(response.code() != 201 || r == null)
                 {
@@ -681,11 +1127,7 @@ public class Spotify extends Source
                 }
 
                 //Create playlist locally
-                Playlist playlist = Library.addPlaylist(name, new ArrayList<>(), null, "", this, r.id);
-
-                //Save library
-                Library.save();
-                saveSources();
+                Playlist playlist = Library.createPlaylist(name, null, "", this, r.id);
 
                 //Run callback
                 callback.run(playlist);
@@ -709,13 +1151,6 @@ public class Spotify extends Source
             try
             {
                 Response<Void> response = call.execute();
-                if(response.code() == 401)
-                {
-                    //Expired token
-                    refreshAccessTokenSync();
-                    removePlaylist(playlist, callback, failureCallback);
-                    return;
-                }
                 if(response.code() != 200)
                 {
                     System.err.println("BLADE-SPOTIFY: Could not delete playlist " + playlist.getName() + " : " + response.code());
@@ -734,150 +1169,172 @@ public class Spotify extends Source
 
     @Override
     public void addToLibrary(Song song, Runnable callback, Runnable failureCallback)
+    {
+        addToLibrary(Collections.singletonList(song), callback, failureCallback);
+    }
+
+    @Override
+    public void addToLibrary(List<Song> songs, Runnable callback, Runnable failureCallback)
     {
         BladeApplication.obtainExecutorService().execute(() ->
         {
             Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
 
-            //Get song source
-            SourceInformation current = null;
-            for(SourceInformation s : song.getSources())
-                if(s.source == this) current = s;
-
-            if(current == null)
+            List<Song> ours = songsOf(songs);
+            if(ours.isEmpty())
             {
                 failureCallback.run();
                 return;
             }
 
-            Call<Void> call = service.saveTrack(AUTH_STRING, (String) current.id);
-
-            try
-            {
-                Response<Void> response = call.execute();
-                if(response.code() == 401)
-                {
-                    //Expired token
-                    refreshAccessTokenSync();
-                    addToLibrary(song, callback, failureCallback);
-                    return;
-                }
-                if(response.code() != 200)
-                {
-                    System.err.println("BLADE-SPOTIFY: Could not save song " + song.getName() + " : " + response.code());
-                    failureCallback.run();
-                    return;
-                }
-
-                super.addToLibrary(song, callback, failureCallback);
-            }
-            catch(IOException e)
-            {
-                failureCallback.run();
-            }
+            //Apply locally right away ; the outbox sends it to Spotify
+            super.addToLibrary(ours, callback, failureCallback);
+            outbox.enqueue(MutationOutbox.OP_LIBRARY_ADD, null, trackIds(ours));
         });
     }
 
     @Override
     public void removeFromLibrary(Song song, Runnable callback, Runnable failureCallback)
+    {
+        removeFromLibrary(Collections.singletonList(song), callback, failureCallback);
+    }
+
+    @Override
+    public void removeFromLibrary(List<Song> songs, Runnable callback, Runnable failureCallback)
     {
         BladeApplication.obtainExecutorService().execute(() ->
         {
             Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
 
-            //Get song source
-            SourceInformation current = null;
-            for(SourceInformation s : song.getSources())
-                if(s.source == this) current = s;
-
-            if(current == null)
+            List<Song> ours = songsOf(songs);
+            if(ours.isEmpty())
             {
                 failureCallback.run();
                 return;
             }
 
-            Call<Void> call = service.removeTrack(AUTH_STRING, (String) current.id);
-
-            try
-            {
-                Response<Void> response = call.execute();
-                if(response.code() == 401)
-                {
-                    //Expired token
-                    refreshAccessTokenSync();
-                    removeFromLibrary(song, callback, failureCallback);
-                    return;
-                }
-                if(response.code() != 200)
-                {
-                    System.err.println("BLADE-SPOTIFY: Could not remove song " + song.getName() + " : " + response.code());
-                    failureCallback.run();
-                    return;
-                }
-
-                super.removeFromLibrary(song, callback, failureCallback);
-            }
-            catch(IOException e)
-            {
-                failureCallback.run();
-            }
+            //Apply locally right away ; the outbox sends it to Spotify
+            super.removeFromLibrary(ours, callback, failureCallback);
+            outbox.enqueue(MutationOutbox.OP_LIBRARY_REMOVE, null, trackIds(ours));
         });
     }
 
     @Override
     public void removeFromPlaylist(Song song, Playlist playlist, Runnable callback, Runnable failureCallback)
+    {
+        removeFromPlaylist(Collections.singletonList(song), playlist, callback, failureCallback);
+    }
+
+    @Override
+    public void removeFromPlaylist(List<Song> songs, Playlist playlist, Runnable callback, Runnable failureCallback)
     {
         BladeApplication.obtainExecutorService().execute(() ->
         {
             Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
 
-            //Get song source
-            SourceInformation current = null;
-            for(SourceInformation s : song.getSources())
-                if(s.source == this) current = s;
-
-            if(current == null)
+            List<Song> ours = songsOf(songs);
+            if(ours.isEmpty())
             {
                 failureCallback.run();
                 return;
             }
 
-            try
-            {
-                //Generate request body
-                JSONObject track = new JSONObject();
-                track.put("uri", "spotify:track:" + current.id);
-                JSONArray array = new JSONArray();
-                array.put(track);
-                Map<String, Object> jsonParams = new ArrayMap<>();
-                jsonParams.put("tracks", array);
-                JSONObject jsonBody = new JSONObject(jsonParams);
-                System.out.println("json: " + jsonBody);
-                RequestBody body = RequestBody.create(jsonBody.toString(), MediaType.parse("application/json; charset=utf-8"));
-                Call<SpotifyService.PlaylistAddResponse> call = service.removePlaylistItem(AUTH_STRING, (String) playlist.getSource().id, body);
-
-                Response<SpotifyService.PlaylistAddResponse> response = call.execute();
-                if(response.code() == 401)
-                {
-                    //Expired token
-                    refreshAccessTokenSync();
-                    removeFromPlaylist(song, playlist, callback, failureCallback);
-                    return;
-                }
-                if(response.code() != 200)
-                {
-                    System.err.println("BLADE-SPOTIFY: Could not remove " + song.getName() + " from playlist " + playlist.getName() + " : " + response.code());
-                    failureCallback.run();
-                    return;
-                }
+            //Apply locally right away ; the outbox sends it to Spotify
+            super.removeFromPlaylist(ours, playlist, callback, failureCallback);
+            outbox.enqueue(MutationOutbox.OP_PLAYLIST_REMOVE, (String) playlist.getSource().id, trackIds(ours));
+        });
+    }
 
-                super.removeFromPlaylist(song, playlist, callback, failureCallback);
+    /**
+     * Sends the outbox mutations with the batch endpoints
+     */
+    private class OutboxSender implements MutationOutbox.Sender
+    {
+        @Override
+        public int batchSize(int op)
+        {
+            return op == MutationOutbox.OP_LIBRARY_ADD || op == MutationOutbox.OP_LIBRARY_REMOVE ? SAVED_TRACKS_BATCH : PLAYLIST_TRACKS_BATCH;
+        }
+
+        @Override
+        public MutationOutbox.Result send(int op, String target, List<String> items) throws IOException
+        {
+            if(status != SourceStatus.STATUS_READY || service == null) return MutationOutbox.Result.RETRY;
+
+            Response<?> response;
+            switch(op)
+            {
+                case MutationOutbox.OP_LIBRARY_ADD:
+                    response = service.saveTrack(AUTH_STRING, join(items)).execute();
+                    break;
+                case MutationOutbox.OP_LIBRARY_REMOVE:
+                    response = service.removeTrack(AUTH_STRING, join(items)).execute();
+                    break;
+                case MutationOutbox.OP_PLAYLIST_ADD:
+                    response = service.appendTrackToPlaylist(AUTH_STRING, target, join(trackUris(items))).execute();
+                    break;
+                case MutationOutbox.OP_PLAYLIST_REMOVE:
+                    response = service.removePlaylistItem(AUTH_STRING, target, removePlaylistItemsBody(items)).execute();
+                    break;
+                default:
+                    return MutationOutbox.Result.REJECTED;
             }
-            catch(IOException | JSONException e)
+
+            int code = response.code();
+            if(code >= 200 && code < 300) return MutationOutbox.Result.SENT;
+
+            System.err.println("BLADE-SPOTIFY: Could not send " + items.size() + " mutations (op " + op + ") : " + code);
+            if(code == 401 || code == 429 || code >= 500) return MutationOutbox.Result.RETRY;
+            return MutationOutbox.Result.REJECTED;
+        }
+    }
+
+    private static RequestBody removePlaylistItemsBody(List<String> ids) throws IOException
+    {
+        try
+        {
+            //{"tracks":[{"uri":...}, ...]}
+            JSONArray array = new JSONArray();
+            for(String uri : trackUris(ids))
             {
-                failureCallback.run();
+                JSONObject track = new JSONObject();
+                track.put("uri", uri);
+                array.put(track);
             }
-        });
+            Map<String, Object> jsonParams = new ArrayMap<>();
+            jsonParams.put("tracks", array);
+            JSONObject jsonBody = new JSONObject(jsonParams);
+            return RequestBody.create(jsonBody.toString(), MediaType.parse("application/json; charset=utf-8"));
+        }
+        catch(JSONException e)
+        {
+            throw new IOException(e);
+        }
+    }
+
+    private List<String> trackIds(List<Song> songs)
+    {
+        List<String> ids = new ArrayList<>(songs.size());
+        for(Song song : songs) ids.add((String) song.getSourceId(this));
+        return ids;
+    }
+
+    private static List<String> trackUris(List<String> ids)
+    {
+        List<String> uris = new ArrayList<>(ids.size());
+        for(String id : ids) uris.add("spotify:track:" + id);
+        return uris;
+    }
+
+    private static String join(List<String> items)
+    {
+        StringBuilder builder = new StringBuilder();
+        for(String item : items)
+        {
+            if(builder.length() > 0) builder.append(',');
+            builder.append(item);
+        }
+        return builder.toString();
     }
 
     public static class SettingsFragment extends Fragment
@@ -1037,7 +1494,7 @@ public class Spotify extends Source
             /* Authentication ok : we got code ; now we need to obtain access and refresh tokens */
             final String code = response.getCode();
 
-            OkHttpClient client = new OkHttpClient();
+            OkHttpClient client = BladeApplication.obtainHttpClient();
             RequestBody body = new FormBody.Builder()
                     .add("grant_type", "authorization_code")
                     .add("code", code)
@@ -1079,14 +1536,10 @@ public class Spotify extends Source
                     }
 
                     //set token
-                    spotify.ACCESS_TOKEN = sr.access_token;
-                    spotify.REFRESH_TOKEN = sr.refresh_token;
-                    spotify.TOKEN_EXPIRES_IN = sr.expires_in;
-                    spotify.AUTH_STRING = AUTH_TYPE + spotify.ACCESS_TOKEN;
+                    spotify.setToken(sr);
 
                     //init
-                    spotify.retrofit = new Retrofit.Builder().baseUrl(BASE_API_URL).addConverterFactory(GsonConverterFactory.create()).build();
-                    spotify.service = spotify.retrofit.create(SpotifyService.class);
+                    spotify.buildService();
 
                     //obtain account name and id
                     System.out.println("BLADE-SPOTIFY: AUTH_STRING=" + spotify.AUTH_STRING);
@@ -112,13 +112,6 @@ public class SpotifyExploreAdapter extends RecyclerView.Adapter<SpotifyExploreAd
             Response<SpotifyService.PagingObject<SpotifyService.SimplifiedTrackObject>> response =
                     call.execute();
 
-            if(response.code() == 401)
-            {
-                //Expired token
-                spotify.refreshAccessTokenSync();
-                return albumTracks(currentAlbum);
-            }
-
             SpotifyService.PagingObject<SpotifyService.SimplifiedTrackObject> r = response.body();
             if(response.code() != 200 || r == null)
             {
@@ -154,13 +147,6 @@ public class SpotifyExploreAdapter extends RecyclerView.Adapter<SpotifyExploreAd
             Response<SpotifyService.PagingObject<SpotifyService.PlaylistTrackObject>> response =
                     call.execute();
 
-            if(response.code() == 401)
-            {
-                //Expired token
-                spotify.refreshAccessTokenSync();
-                return playlistTracks(currentPlaylist);
-            }
-
             SpotifyService.PagingObject<SpotifyService.PlaylistTrackObject> r = response.body();
             if(response.code() != 200 || r == null)
             {
@@ -587,14 +573,6 @@ public class SpotifyExploreAdapter extends RecyclerView.Adapter<SpotifyExploreAd
                             Response<SpotifyService.PagingObject<SpotifyService.SimplifiedAlbumObject>> response =
                                     call.execute();
 
-                            if(response.code() == 401)
-                            {
-                                //Expired token
-                                spotify.refreshAccessTokenSync();
-                                holder.itemView.callOnClick();
-                                return;
-                            }
-
                             SpotifyService.PagingObject<SpotifyService.SimplifiedAlbumObject> r = response.body();
                             if(response.code() != 200 || r == null)
                             {
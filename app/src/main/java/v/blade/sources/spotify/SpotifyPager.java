@@ -0,0 +1,217 @@
+package v.blade.sources.spotify;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import retrofit2.Call;
+import retrofit2.Response;
+
+/**
+ * Fetches every page of a Spotify paging object
+ * The first page gives the total, so every other offset is known : the next pages are requested
+ * concurrently (at most maxInFlight at a time), and handed to the consumer in order, on the calling
+ * thread, while the following ones are downloading
+ * <p>
+ * When the consumer is likely to stop early (e.g. a delta synchronization, that stops at a watermark),
+ * the window can ramp up : the first page is fetched alone, then one page at a time, doubling every
+ * page up to maxInFlight, so that few requests are wasted past the page where it stops
+ */
+class SpotifyPager
+{
+    interface PageCall<T>
+    {
+        Call<SpotifyService.PagingObject<T>> page(int offset);
+    }
+
+    interface PageConsumer<T>
+    {
+        /**
+         * @return false to stop paging
+         */
+        boolean onPage(SpotifyService.PagingObject<T> page);
+    }
+
+    static final int MAX_IN_FLIGHT = 4;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long DEFAULT_RETRY_AFTER_MS = 1000;
+
+    private static final ThreadPoolExecutor pageExecutor = new ThreadPoolExecutor(MAX_IN_FLIGHT, MAX_IN_FLIGHT, 30L, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+
+    static
+    {
+        pageExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private final ExecutorService executor;
+    private final int maxInFlight;
+
+    //Set when we are rate limited (429) : no request is sent before that time
+    private volatile long resumeAt = 0;
+
+    SpotifyPager(int maxInFlight)
+    {
+        this(pageExecutor, maxInFlight);
+    }
+
+    SpotifyPager(ExecutorService executor, int maxInFlight)
+    {
+        this.executor = executor;
+        this.maxInFlight = Math.max(1, maxInFlight);
+    }
+
+    /**
+     * Fetches every page, and gives them to the consumer in order
+     *
+     * @param limit page size asked to the api ; every page but the last is expected to be full
+     * @return false if a page could not be fetched, true otherwise (even if the consumer stopped)
+     */
+    <T> boolean fetchAll(PageCall<T> call, int limit, PageConsumer<T> consumer) throws IOException
+    {
+        return fetchAll(call, limit, 0, consumer);
+    }
+
+    /**
+     * Fetches every page from startOffset (e.g. to resume an interrupted paging)
+     */
+    <T> boolean fetchAll(PageCall<T> call, int limit, int startOffset, PageConsumer<T> consumer) throws IOException
+    {
+        return fetchAll(call, limit, startOffset, false, consumer);
+    }
+
+    /**
+     * @param rampUp if true, the window starts at one page and grows as pages are consumed
+     */
+    <T> boolean fetchAll(PageCall<T> call, int limit, int startOffset, boolean rampUp, PageConsumer<T> consumer) throws IOException
+    {
+        SpotifyService.PagingObject<T> first = fetch(call, startOffset);
+        if(first == null) return false;
+        if(!consumer.onPage(first) || first.items.length == 0) return true;
+
+        ArrayDeque<Future<SpotifyService.PagingObject<T>>> window = new ArrayDeque<>();
+        int offset = startOffset + limit;
+        int inFlight = rampUp ? 1 : maxInFlight;
+        try
+        {
+            while(offset < first.total && window.size() < inFlight)
+            {
+                window.add(submit(call, offset));
+                offset += limit;
+            }
+
+            while(!window.isEmpty())
+            {
+                SpotifyService.PagingObject<T> page = await(window.poll());
+                if(page == null) return false;
+
+                //Keep the window full while this page is ingested
+                if(rampUp) inFlight = Math.min(maxInFlight, inFlight * 2);
+                while(offset < first.total && window.size() < inFlight)
+                {
+                    window.add(submit(call, offset));
+                    offset += limit;
+                }
+
+                if(!consumer.onPage(page)) return true;
+            }
+            return true;
+        }
+        finally
+        {
+            for(Future<SpotifyService.PagingObject<T>> pending : window) pending.cancel(true);
+        }
+    }
+
+    private <T> Future<SpotifyService.PagingObject<T>> submit(PageCall<T> call, int offset)
+    {
+        return executor.submit(() -> fetch(call, offset));
+    }
+
+    private static <T> T await(Future<T> future) throws IOException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        catch(ExecutionException e)
+        {
+            if(e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Fetches a page, waiting if we are rate limited
+     * Authorization is handled by the http client (see SpotifyTokenManager)
+     *
+     * @return the page, or null on error
+     */
+    <T> SpotifyService.PagingObject<T> fetch(PageCall<T> call, int offset) throws IOException
+    {
+        for(int attempt = 0; attempt < MAX_ATTEMPTS; attempt++)
+        {
+            waitForRateLimit();
+
+            Response<SpotifyService.PagingObject<T>> response = call.page(offset).execute();
+            if(response.code() == 429)
+            {
+                rateLimited(response.headers().get("Retry-After"));
+                continue;
+            }
+
+            if(response.code() != 200 || response.body() == null) return null;
+            return response.body();
+        }
+
+        System.err.println("BLADE-SPOTIFY: Giving up page at offset " + offset + " (rate limited)");
+        return null;
+    }
+
+    private void rateLimited(String retryAfter)
+    {
+        long delay = DEFAULT_RETRY_AFTER_MS;
+        if(retryAfter != null)
+        {
+            try
+            {
+                delay = Long.parseLong(retryAfter.trim()) * 1000;
+            }
+            catch(NumberFormatException ignored)
+            {
+            }
+        }
+
+        synchronized(this)
+        {
+            resumeAt = Math.max(resumeAt, System.currentTimeMillis() + delay);
+        }
+    }
+
+    private void waitForRateLimit() throws InterruptedIOException
+    {
+        long wait;
+        while((wait = resumeAt - System.currentTimeMillis()) > 0)
+        {
+            try
+            {
+                Thread.sleep(wait);
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+}
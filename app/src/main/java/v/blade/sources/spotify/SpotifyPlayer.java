@@ -305,11 +305,11 @@ public class SpotifyPlayer extends Source.Player
         if(spotifyPlayer.get() == null) init();
 
         SourceInformation current = null;
-        for(int i = 0; i < song.getSources().size(); i++)
+        for(SourceInformation si : song.getSources())
         {
-            if(song.getSources().get(i).source instanceof Spotify)
+            if(si.source instanceof Spotify)
             {
-                current = song.getSources().get(i);
+                current = si;
                 break;
             }
         }
@@ -325,6 +325,9 @@ public interface SpotifyService
     @GET("me")
     Call<UserInformationObject> getUser(@Header("Authorization") String token);
 
+    /**
+     * @param uris comma separated, max 100
+     */
     @POST("playlists/{playlist_id}/tracks")
     Call<PlaylistAddResponse> appendTrackToPlaylist(@Header("Authorization") String token, @Path("playlist_id") String playlist_id, @Query("uris") String uris);
 
@@ -334,12 +337,21 @@ public interface SpotifyService
     @DELETE("playlists/{playlist_id}/followers")
     Call<Void> unfollowPlaylist(@Header("Authorization") String token, @Path("playlist_id") String playlist_id);
 
+    /**
+     * @param ids comma separated, max 50
+     */
     @PUT("me/tracks")
-    Call<Void> saveTrack(@Header("Authorization") String token, @Query("ids") String id);
+    Call<Void> saveTrack(@Header("Authorization") String token, @Query("ids") String ids);
 
+    /**
+     * @param ids comma separated, max 50
+     */
     @DELETE("me/tracks")
-    Call<Void> removeTrack(@Header("Authorization") String token, @Query("ids") String id);
+    Call<Void> removeTrack(@Header("Authorization") String token, @Query("ids") String ids);
 
+    /**
+     * params is {"tracks":[{"uri":...}, ...]}, max 100 tracks
+     */
     @HTTP(method = "DELETE", path = "playlists/{playlist_id}/tracks", hasBody = true)
     Call<PlaylistAddResponse> removePlaylistItem(@Header("Authorization") String token, @Path("playlist_id") String playlist_id, @Body RequestBody params);
 
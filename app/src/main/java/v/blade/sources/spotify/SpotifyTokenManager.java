@@ -0,0 +1,83 @@
+package v.blade.sources.spotify;
+
+import java.io.IOException;
+
+import okhttp3.Authenticator;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.Route;
+
+/**
+ * Keeps the Web API requests authorized
+ * Every api request gets the current access token ; the token is refreshed before it expires, and
+ * if a request still gets a 401, it is refreshed and the request is retried once.
+ * Refreshes are single-flight : concurrent requests wait for the refresh in progress and use its
+ * token, instead of all refreshing.
+ */
+class SpotifyTokenManager implements Interceptor, Authenticator
+{
+    private static final String API_HOST = "api.spotify.com";
+    //Refresh that long before the token expires
+    private static final long EXPIRY_MARGIN_MS = 60_000;
+    //After a failed refresh, do not try again before that delay (every request would try)
+    private static final long FAILURE_BACKOFF_MS = 10_000;
+
+    private final Spotify spotify;
+    private long lastFailure = 0;
+
+    SpotifyTokenManager(Spotify spotify)
+    {
+        this.spotify = spotify;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException
+    {
+        Request request = chain.request();
+        if(!API_HOST.equals(request.url().host())) return chain.proceed(request);
+
+        String auth = spotify.AUTH_STRING;
+        if(auth == null || isExpiring()) auth = refresh(auth);
+        if(auth != null) request = request.newBuilder().header("Authorization", auth).build();
+
+        return chain.proceed(request);
+    }
+
+    @Override
+    public Request authenticate(Route route, Response response)
+    {
+        //We already retried this one
+        if(response.priorResponse() != null) return null;
+
+        Request request = response.request();
+        if(!API_HOST.equals(request.url().host())) return null;
+
+        String failed = request.header("Authorization");
+        String auth = refresh(failed);
+        if(auth == null || auth.equals(failed)) return null;
+
+        return request.newBuilder().header("Authorization", auth).build();
+    }
+
+    private boolean isExpiring()
+    {
+        return System.currentTimeMillis() > spotify.tokenExpiresAt - EXPIRY_MARGIN_MS;
+    }
+
+    /**
+     * Refreshes the access token, unless it was already refreshed since we obtained stale
+     *
+     * @param stale the authorization we had (that is expiring, or that was refused)
+     * @return the current authorization
+     */
+    private synchronized String refresh(String stale)
+    {
+        String current = spotify.AUTH_STRING;
+        if(current != null && !current.equals(stale) && !isExpiring()) return current;
+        if(System.currentTimeMillis() - lastFailure < FAILURE_BACKOFF_MS) return current;
+
+        if(!spotify.refreshAccessTokenSync()) lastFailure = System.currentTimeMillis();
+        return spotify.AUTH_STRING;
+    }
+}
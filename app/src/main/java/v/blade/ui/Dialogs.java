@@ -17,9 +17,9 @@ import android.widget.Toast;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.widget.SwitchCompat;
 
-import com.squareup.picasso.Picasso;
-
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import v.blade.BladeApplication;
 import v.blade.R;
@@ -33,26 +33,26 @@ import v.blade.sources.SourceInformation;
 public class Dialogs
 {
     public static void openAddToPlaylistDialog(Activity context, Song toAdd)
+    {
+        openAddToPlaylistDialog(context, Collections.singletonList(toAdd), toAdd.getName());
+    }
+
+    /**
+     * @param name what is added (song, album...), for the user
+     */
+    public static void openAddToPlaylistDialog(Activity context, List<Song> toAdd, String name)
     {
         //Build the lists of playlists suitable to receive toAdd
         ArrayList<Playlist> playlists = new ArrayList<>();
+        List<Source> sources = sourcesOf(toAdd);
 
         //Create the "new playlist" option
-        Playlist dummyNew = new Playlist(context.getString(R.string.new_playlist), null, null, null, null);
-        dummyNew.setImageRequest(Picasso.get().load(R.drawable.ic_playlist_add));
+        Playlist dummyNew = new Playlist(context.getString(R.string.new_playlist), null,
+                ImageResolver.resourceUri(context, R.drawable.ic_playlist_add), null, null);
         playlists.add(dummyNew);
 
         for(Playlist playlist : Library.getPlaylists())
-        {
-            for(SourceInformation s : toAdd.getSources())
-            {
-                if(s.source == playlist.getSource().source)
-                {
-                    playlists.add(playlist);
-                    break;
-                }
-            }
-        }
+            if(sources.contains(playlist.getSource().source)) playlists.add(playlist);
 
         //Build adapter and dialog with clickListener
         LibraryObjectAdapter adapter = new LibraryObjectAdapter(playlists, null);
@@ -67,7 +67,7 @@ public class Dialogs
 
             if(position == 0)
             {
-                openCreatePlaylistDialog(context, toAdd);
+                openCreatePlaylistDialog(context, toAdd, name);
                 dialog.dismiss();
                 return;
             }
@@ -75,11 +75,11 @@ public class Dialogs
             Playlist current = (Playlist) adapter.getItem(position);
             Source source = current.getSource().source;
 
-            source.addSongToPlaylist(toAdd, current, () -> context.runOnUiThread(() ->
-                            Toast.makeText(context, context.getString(R.string.song_added_to_list, toAdd.getName(), current.getName()),
+            source.addSongsToPlaylist(toAdd, current, () -> context.runOnUiThread(() ->
+                            Toast.makeText(context, context.getString(R.string.song_added_to_list, name, current.getName()),
                                     Toast.LENGTH_SHORT).show()),
                     () -> context.runOnUiThread(() ->
-                            Toast.makeText(context, context.getString(R.string.song_added_to_list_error, toAdd.getName(), current.getName()),
+                            Toast.makeText(context, context.getString(R.string.song_added_to_list_error, name, current.getName()),
                                     Toast.LENGTH_SHORT).show()));
 
             dialog.dismiss();
@@ -88,8 +88,22 @@ public class Dialogs
         dialog.show();
     }
 
-    protected static void openCreatePlaylistDialog(Activity context, Song first)
+    /**
+     * @return the sources that have at least one of the songs
+     */
+    private static List<Source> sourcesOf(List<Song> songs)
+    {
+        List<Source> sources = new ArrayList<>();
+        for(Song song : songs)
+            for(SourceInformation s : song.getSources())
+                if(!sources.contains(s.source)) sources.add(s.source);
+        return sources;
+    }
+
+    protected static void openCreatePlaylistDialog(Activity context, List<Song> toAdd, String songsName)
     {
+        List<Source> sources = sourcesOf(toAdd);
+
         AlertDialog.Builder builder = new AlertDialog.Builder(context)
                 .setTitle(R.string.new_playlist)
                 .setView(R.layout.dialog_create_playlist);
@@ -128,13 +142,13 @@ public class Dialogs
                 @Override
                 public int getCount()
                 {
-                    return first.getSources().size();
+                    return sources.size();
                 }
 
                 @Override
                 public Source getItem(int position)
                 {
-                    return first.getSources().get(position).source;
+                    return sources.get(position);
                 }
 
                 @Override
@@ -206,11 +220,11 @@ public class Dialogs
                 @Override
                 public void run(Playlist playlist)
                 {
-                    current.addSongToPlaylist(first, playlist, () -> context.runOnUiThread(() ->
-                                    Toast.makeText(context, context.getString(R.string.song_added_to_list, first.getName(), playlist.getName()),
+                    current.addSongsToPlaylist(toAdd, playlist, () -> context.runOnUiThread(() ->
+                                    Toast.makeText(context, context.getString(R.string.song_added_to_list, songsName, playlist.getName()),
                                             Toast.LENGTH_SHORT).show()),
                             () -> context.runOnUiThread(() ->
-                                    Toast.makeText(context, context.getString(R.string.song_added_to_list_error, first.getName(), playlist.getName()),
+                                    Toast.makeText(context, context.getString(R.string.song_added_to_list_error, songsName, playlist.getName()),
                                             Toast.LENGTH_SHORT).show()));
                 }
             }, () -> context.runOnUiThread(() ->
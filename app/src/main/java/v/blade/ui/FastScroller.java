@@ -0,0 +1,199 @@
+package v.blade.ui;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.drawable.Drawable;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.MotionEvent;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.appcompat.content.res.AppCompatResources;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.squareup.picasso.Picasso;
+
+import v.blade.R;
+import v.blade.library.SectionIndex;
+
+/**
+ * Fast scroll thumb for long RecyclerView lists, drawn over the right edge of the list
+ * <p>
+ * Dragging the thumb jumps directly to the position (scrollToPositionWithOffset), instead of
+ * scrolling through the rows in between : only the rows shown at the end are bound, and image
+ * loading is paused while dragging. If the list has a SectionIndex, a bubble shows the current letter.
+ */
+public class FastScroller extends View
+{
+    private static final int MIN_ITEMS = 50; //shorter lists are flung through easily
+    private static final long HIDE_DELAY = 1500;
+
+    private RecyclerView recyclerView;
+    private SectionIndex sections;
+
+    private final Drawable thumb;
+    private final Paint bubblePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final int thumbWidth;
+    private final int thumbHeight;
+    private final int touchWidth;
+    private final float bubbleRadius;
+
+    private boolean dragging = false;
+    private boolean shown = false;
+    private float fraction = 0; //thumb position, from 0 (top) to 1 (bottom)
+    private int lastPosition = -1;
+
+    private final Runnable hide = () ->
+    {
+        shown = false;
+        invalidate();
+    };
+
+    public FastScroller(Context context, @Nullable AttributeSet attrs)
+    {
+        super(context, attrs);
+
+        float density = getResources().getDisplayMetrics().density;
+        thumbWidth = (int) (6 * density);
+        thumbHeight = (int) (48 * density);
+        touchWidth = (int) (32 * density);
+        bubbleRadius = 36 * density;
+
+        thumb = AppCompatResources.getDrawable(context, R.drawable.fastscroll_thumb);
+
+        TypedValue colorPrimary = new TypedValue();
+        context.getTheme().resolveAttribute(R.attr.colorPrimary, colorPrimary, true);
+        bubblePaint.setColor(colorPrimary.data);
+        textPaint.setColor(Color.WHITE);
+        textPaint.setTextAlign(Paint.Align.CENTER);
+        textPaint.setTextSize(32 * density);
+    }
+
+    public void attachTo(RecyclerView recyclerView)
+    {
+        this.recyclerView = recyclerView;
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener()
+        {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy)
+            {
+                if(dragging || dy == 0) return;
+
+                int range = recyclerView.computeVerticalScrollRange() - recyclerView.computeVerticalScrollExtent();
+                fraction = range <= 0 ? 0 : Math.min(1f, (float) recyclerView.computeVerticalScrollOffset() / range);
+                show();
+            }
+        });
+    }
+
+    /**
+     * @param sections the sections of the list now shown, or null if it has none
+     */
+    public void setSections(SectionIndex sections)
+    {
+        this.sections = sections;
+        invalidate();
+    }
+
+    private boolean isScrollable()
+    {
+        return recyclerView != null && recyclerView.getAdapter() != null
+                && recyclerView.getAdapter().getItemCount() >= MIN_ITEMS;
+    }
+
+    private void show()
+    {
+        if(!isScrollable()) return;
+        shown = true;
+        removeCallbacks(hide);
+        if(!dragging) postDelayed(hide, HIDE_DELAY);
+        invalidate();
+    }
+
+    //Touches outside of the thumb strip go to the list below
+    @SuppressLint("ClickableViewAccessibility")
+    @Override
+    public boolean onTouchEvent(MotionEvent event)
+    {
+        switch(event.getActionMasked())
+        {
+            case MotionEvent.ACTION_DOWN:
+                if(!shown || !isScrollable() || event.getX() < getWidth() - touchWidth) return false;
+                dragging = true;
+                lastPosition = -1;
+                recyclerView.stopScroll();
+                Picasso.get().pauseTag(LibraryObjectAdapter.IMAGE_TAG);
+                getParent().requestDisallowInterceptTouchEvent(true);
+                show();
+                scrollTo(event.getY());
+                return true;
+
+            case MotionEvent.ACTION_MOVE:
+                if(!dragging) return false;
+                scrollTo(event.getY());
+                return true;
+
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                if(!dragging) return false;
+                dragging = false;
+                Picasso.get().resumeTag(LibraryObjectAdapter.IMAGE_TAG);
+                show();
+                return true;
+        }
+        return false;
+    }
+
+    private void scrollTo(float y)
+    {
+        float track = getHeight() - thumbHeight;
+        fraction = track <= 0 ? 0 : Math.max(0f, Math.min(1f, (y - thumbHeight / 2f) / track));
+
+        int count = recyclerView.getAdapter().getItemCount();
+        int position = Math.min(count - 1, (int) (fraction * count));
+        if(position != lastPosition && recyclerView.getLayoutManager() instanceof LinearLayoutManager)
+        {
+            lastPosition = position;
+            ((LinearLayoutManager) recyclerView.getLayoutManager()).scrollToPositionWithOffset(position, 0);
+        }
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas)
+    {
+        super.onDraw(canvas);
+        if(!shown || thumb == null || !isScrollable()) return;
+
+        int top = (int) (fraction * (getHeight() - thumbHeight));
+        thumb.setBounds(getWidth() - thumbWidth, top, getWidth(), top + thumbHeight);
+        thumb.setState(dragging ? new int[]{android.R.attr.state_pressed} : new int[0]);
+        thumb.draw(canvas);
+
+        if(!dragging || sections == null || lastPosition < 0) return;
+        int section = sections.getSectionForPosition(lastPosition);
+        if(section < 0) return;
+
+        //Letter bubble, left of the thumb
+        float cx = getWidth() - touchWidth - bubbleRadius;
+        float cy = Math.max(bubbleRadius, Math.min(getHeight() - bubbleRadius, top + thumbHeight / 2f));
+        canvas.drawCircle(cx, cy, bubbleRadius, bubblePaint);
+        canvas.drawText(sections.getLabel(section), cx, cy - (textPaint.descent() + textPaint.ascent()) / 2, textPaint);
+    }
+
+    @Override
+    protected void onDetachedFromWindow()
+    {
+        removeCallbacks(hide);
+        if(dragging) Picasso.get().resumeTag(LibraryObjectAdapter.IMAGE_TAG);
+        dragging = false;
+        super.onDetachedFromWindow();
+    }
+}
@@ -0,0 +1,83 @@
+package v.blade.ui;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+
+import com.squareup.picasso.LruCache;
+import com.squareup.picasso.Picasso;
+import com.squareup.picasso.RequestCreator;
+
+import v.blade.library.LibraryObject;
+import v.blade.library.Song;
+
+/**
+ * Creates the image requests of library objects, when they are shown
+ * <p>
+ * Library objects only keep the url of their images (and albums their level) : no request is
+ * built while syncing or loading the library, only for the rows and the notification displayed.
+ * List rows use thumbnails, scaled to their size and cached on disk (see ThumbnailRequestHandler) ;
+ * Picasso memory cache keys them by (url, size).
+ */
+public final class ImageResolver
+{
+    private static final int MEMORY_CACHE_FRACTION = 8; //of the heap
+
+    private ImageResolver()
+    {
+    }
+
+    /**
+     * @param size size of the view, in pixels
+     * @return the request of the thumbnail of that object (album image for songs), or null if it has no image
+     */
+    public static RequestCreator thumbnail(LibraryObject object, int size)
+    {
+        String url = object.getImageStr();
+        if(url == null || url.equals("")) return null;
+
+        //Drawables (e.g. 'new playlist' icon) are small already
+        String scheme = Uri.parse(url).getScheme();
+        if(!"http".equals(scheme) && !"https".equals(scheme) && !ContentResolver.SCHEME_CONTENT.equals(scheme)
+                && !ContentResolver.SCHEME_FILE.equals(scheme))
+            return load(url);
+
+        Uri uri = new Uri.Builder().scheme(ThumbnailRequestHandler.SCHEME).authority("thumbnail")
+                .appendQueryParameter(ThumbnailRequestHandler.PARAMETER_URL, url)
+                .appendQueryParameter(ThumbnailRequestHandler.PARAMETER_SIZE, String.valueOf(size))
+                .build();
+        return Picasso.get().load(uri);
+    }
+
+    /**
+     * @return the request of the full size image of the album of that song, or null if it has none
+     */
+    public static RequestCreator big(Song song)
+    {
+        return load(song.getImageBigStr());
+    }
+
+    /**
+     * @return the url of a drawable, to use it as a library object image
+     */
+    public static String resourceUri(Context context, int drawable)
+    {
+        return ContentResolver.SCHEME_ANDROID_RESOURCE + "://" + context.getPackageName() + "/" + drawable;
+    }
+
+    /**
+     * Sets the application Picasso instance up : thumbnail requests, and a bounded memory cache
+     */
+    public static void setupPicasso(Context context)
+    {
+        Picasso.setSingletonInstance(new Picasso.Builder(context)
+                .addRequestHandler(new ThumbnailRequestHandler(context))
+                .memoryCache(new LruCache((int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / MEMORY_CACHE_FRACTION)))
+                .build());
+    }
+
+    private static RequestCreator load(String url)
+    {
+        return (url == null || url.equals("")) ? null : Picasso.get().load(url);
+    }
+}
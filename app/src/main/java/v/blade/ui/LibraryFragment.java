@@ -2,6 +2,7 @@ package v.blade.ui;
 
 import android.annotation.SuppressLint;
 import android.os.Bundle;
+import android.os.Parcelable;
 import android.support.v4.media.session.MediaControllerCompat;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -9,13 +10,16 @@ import android.view.ViewGroup;
 import android.widget.PopupMenu;
 
 import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
 import androidx.fragment.app.Fragment;
 import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Stack;
 
+import v.blade.BladeApplication;
 import v.blade.R;
 import v.blade.databinding.FragmentLibraryBinding;
 import v.blade.library.Album;
@@ -23,8 +27,11 @@ import v.blade.library.Artist;
 import v.blade.library.Library;
 import v.blade.library.LibraryObject;
 import v.blade.library.Playlist;
+import v.blade.library.SectionIndex;
 import v.blade.library.Song;
+import v.blade.library.SongOrderings;
 import v.blade.player.MediaBrowserService;
+import v.blade.player.PlayQueue;
 
 public class LibraryFragment extends Fragment
 {
@@ -39,9 +46,12 @@ public class LibraryFragment extends Fragment
     }
 
     protected FragmentLibraryBinding binding;
+    private LibraryObjectAdapter adapter;
     private List<? extends LibraryObject> current;
     private CURRENT_TYPE currentType;
     private LibraryObject currentObject;
+    private String searchQuery;
+    private SongOrderings.Order songsOrder = SongOrderings.Order.TITLE;
 
     private static class BackInformation
     {
@@ -49,13 +59,15 @@ public class LibraryFragment extends Fragment
         private final List<? extends LibraryObject> list;
         private final CURRENT_TYPE type;
         private final LibraryObject object;
+        private final Parcelable scrollState;
 
-        private BackInformation(String title, List<? extends LibraryObject> list, CURRENT_TYPE type, LibraryObject object)
+        private BackInformation(String title, List<? extends LibraryObject> list, CURRENT_TYPE type, LibraryObject object, Parcelable scrollState)
         {
             this.title = title;
             this.list = list;
             this.type = type;
             this.object = object;
+            this.scrollState = scrollState;
         }
     }
 
@@ -70,6 +82,11 @@ public class LibraryFragment extends Fragment
         LinearLayoutManager linearLayoutManager = new LinearLayoutManager(getActivity());
         linearLayoutManager.setSmoothScrollbarEnabled(true);
         binding.mainListview.setLayoutManager(linearLayoutManager);
+        //The adapter is kept : new lists are diffed with the shown one
+        adapter = new LibraryObjectAdapter(this::onMoreClicked, this::onViewClicked);
+        binding.mainListview.setAdapter(adapter);
+        binding.mainFastScroller.attachTo(binding.mainListview);
+        binding.mainListview.addOnScrollListener(new ThumbnailPrefetcher(adapter, getResources().getDimensionPixelSize(R.dimen.item_image_size)));
         updateContent(getTitle(), null, CURRENT_TYPE.LIBRARY, null);
 
         instance = this;
@@ -85,9 +102,15 @@ public class LibraryFragment extends Fragment
     /*
      * Update content to list 'replacing', or to root directory
      * If we are updating because going back, we should not push to back : shouldPushToBack is false
+     * If scrollState is not null, it is restored once the list is shown
      */
-    private void updateContent(String title, List<? extends LibraryObject> replacing, CURRENT_TYPE type, LibraryObject object, boolean shouldPushToBack)
+    private void updateContent(String title, List<? extends LibraryObject> replacing, CURRENT_TYPE type, LibraryObject object, boolean shouldPushToBack,
+                               Parcelable scrollState)
     {
+        //Same place (e.g. library refresh after a sync) : keep the scroll position ; new search results start at the top
+        boolean refresh = title.equals(getTitle()) && currentType == (replacing == null ? CURRENT_TYPE.LIBRARY : type)
+                && currentObject == (replacing == null ? null : object) && currentType != CURRENT_TYPE.SEARCH;
+
         if(replacing == null)
         {
             /* we are going back to top directory : artists, albums, songs, playlists */
@@ -96,7 +119,7 @@ public class LibraryFragment extends Fragment
             else if(title.equals(getString(R.string.albums)))
                 current = Library.getAlbums();
             else if(title.equals(getString(R.string.songs)))
-                current = Library.getSongs();
+                current = Library.getSongs(songsOrder);
             else if(title.equals(getString(R.string.playlists)))
                 current = Library.getPlaylists();
             else return;
@@ -110,33 +133,46 @@ public class LibraryFragment extends Fragment
         {
             //Push previous state to backStack
             if(shouldPushToBack)
-                backStack.push(new BackInformation(getTitle(), current, currentType, currentObject));
+                backStack.push(new BackInformation(getTitle(), current, currentType, currentObject,
+                        binding.mainListview.getLayoutManager().onSaveInstanceState()));
 
             current = replacing;
             currentType = type;
             currentObject = object;
         }
 
-        LibraryObjectAdapter adapter = new LibraryObjectAdapter(current, this::onMoreClicked, this::onViewClicked);
-        binding.mainListview.setAdapter(adapter);
+        //Sections are indexed by Library.generateLists(), for its top-level lists
+        SectionIndex sections = Library.getSnapshot().getSections(current);
+        //Only refreshes are diffed : other lists have nothing in common with the shown one
+        adapter.submitList(current, refresh, () ->
+        {
+            if(binding == null) return;
+            binding.mainFastScroller.setSections(sections);
+            RecyclerView.LayoutManager layoutManager = binding.mainListview.getLayoutManager();
+            if(scrollState != null) layoutManager.onRestoreInstanceState(scrollState);
+            else if(!refresh) layoutManager.scrollToPosition(0);
+        });
         if(((MainActivity) requireActivity()).binding != null)
             ((MainActivity) requireActivity()).binding.appBarMain.toolbar.setTitle(title);
     }
 
     public void updateContent(String title, List<? extends LibraryObject> replacing, CURRENT_TYPE type, LibraryObject currentObject)
     {
-        updateContent(title, replacing, type, currentObject, true);
+        updateContent(title, replacing, type, currentObject, true, null);
     }
 
     private void updateContent(BackInformation backInformation)
     {
-        updateContent(backInformation.title, backInformation.list, backInformation.type, backInformation.object, false);
+        updateContent(backInformation.title, backInformation.list, backInformation.type, backInformation.object, false,
+                backInformation.scrollState);
     }
 
     private void onViewClicked(View view)
     {
-        int position = binding.mainListview.getChildLayoutPosition(view);
-        LibraryObject clicked = current.get(position);
+        //The adapter can still show the previous list while the new one is diffed
+        int position = binding.mainListview.getChildAdapterPosition(view);
+        if(position == RecyclerView.NO_POSITION) return;
+        LibraryObject clicked = adapter.getItem(position);
         onElementClicked(clicked, position);
     }
 
@@ -147,7 +183,11 @@ public class LibraryFragment extends Fragment
         else if(element instanceof Album)
             updateContent(element.getName(), ((Album) element).getSongs(), CURRENT_TYPE.LIBRARY, element);
         else if(element instanceof Playlist)
-            updateContent(element.getName(), ((Playlist) element).getSongs(), CURRENT_TYPE.PLAYLIST, element);
+        {
+            //Playlists publish a new list on every change : the adapter can keep this one
+            List<Song> songs = ((Playlist) element).getSongs();
+            updateContent(element.getName(), songs == null ? new ArrayList<>() : songs, CURRENT_TYPE.PLAYLIST, element);
+        }
         else if(element instanceof Song)
         {
             if(currentType == CURRENT_TYPE.SEARCH)
@@ -161,8 +201,9 @@ public class LibraryFragment extends Fragment
                 return;
             }
 
+            //The queue reads the shown list, and only copies it if modified
             //noinspection unchecked
-            MediaBrowserService.getInstance().setPlaylist(new ArrayList<>((List<Song>) current));
+            MediaBrowserService.getInstance().setPlaylist(new PlayQueue((List<Song>) adapter.getCurrentList()));
             MediaBrowserService.getInstance().setIndex(position);
             MediaControllerCompat.getMediaController(requireActivity()).getTransportControls().play();
         }
@@ -187,8 +228,13 @@ public class LibraryFragment extends Fragment
         }
         else if(element instanceof Playlist)
         {
+            popupMenu.getMenu().getItem(3).setVisible(true);
             popupMenu.getMenu().getItem(6).setVisible(true);
         }
+        else if(element instanceof Album || element instanceof Artist)
+        {
+            popupMenu.getMenu().getItem(3).setVisible(true);
+        }
 
         //Set actions
         popupMenu.setOnMenuItemClickListener(item ->
@@ -244,8 +290,14 @@ public class LibraryFragment extends Fragment
                     }
                     return true;
                 case R.id.action_add_to_list:
-                    assert element instanceof Song;
-                    Dialogs.openAddToPlaylistDialog(requireActivity(), (Song) element);
+                    ArrayList<Song> listAdd = new ArrayList<>();
+                    if(element instanceof Song) listAdd.add((Song) element);
+                    else if(element instanceof Album) listAdd.addAll(((Album) element).getSongs());
+                    else if(element instanceof Artist) for(Album a : ((Artist) element).getAlbums())
+                        listAdd.addAll(a.getSongs());
+                    else if(element instanceof Playlist)
+                        listAdd.addAll(((Playlist) element).getSongs());
+                    Dialogs.openAddToPlaylistDialog(requireActivity(), listAdd, element.getName());
                     return true;
                 case R.id.action_remove_from_library:
                     assert element instanceof Playlist;
@@ -283,8 +335,59 @@ public class LibraryFragment extends Fragment
             updateContent(backStack.pop());
     }
 
+    /*
+     * Choose the order of the songs list ; every order is maintained by the library, so switching is immediate
+     */
+    protected void onSortSelected()
+    {
+        new AlertDialog.Builder(requireContext())
+                .setTitle(R.string.sort_songs)
+                .setSingleChoiceItems(R.array.song_orders, songsOrder.ordinal(), (dialog, which) ->
+                {
+                    songsOrder = SongOrderings.Order.values()[which];
+                    dialog.dismiss();
+
+                    //Songs tab root is shown : show it again, in that order
+                    if(currentType == CURRENT_TYPE.LIBRARY && currentObject == null && getTitle().equals(getString(R.string.songs)))
+                        updateContent(getString(R.string.songs), null, CURRENT_TYPE.LIBRARY, null);
+                })
+                .show();
+    }
+
     protected void onSearch(String query)
     {
-        updateContent(getString(R.string.search), Library.search(query), CURRENT_TYPE.SEARCH, null);
+        searchQuery = query;
+        showSearchResults(Library.search(query));
+    }
+
+    /*
+     * Search as you type : the search runs in the background, and only the results of the latest
+     * query are shown
+     */
+    protected void onSearchTextChanged(String query)
+    {
+        if(query == null || query.trim().isEmpty()) return;
+
+        searchQuery = query;
+        Library.searchAsync(query, new BladeApplication.Callback<List<LibraryObject>>()
+        {
+            @Override
+            public void run(List<LibraryObject> results)
+            {
+                if(getActivity() == null) return;
+                requireActivity().runOnUiThread(() ->
+                {
+                    //The view is gone, or another query was typed (or submitted) meanwhile
+                    if(binding == null || !query.equals(searchQuery)) return;
+                    showSearchResults(results);
+                });
+            }
+        });
+    }
+
+    private void showSearchResults(List<LibraryObject> results)
+    {
+        //Refining a search replaces its results, instead of stacking them
+        updateContent(getString(R.string.search), results, CURRENT_TYPE.SEARCH, null, currentType != CURRENT_TYPE.SEARCH, null);
     }
 }
\ No newline at end of file
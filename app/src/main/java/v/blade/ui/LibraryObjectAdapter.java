@@ -2,6 +2,8 @@ package v.blade.ui;
 
 import android.annotation.SuppressLint;
 import android.database.DataSetObserver;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.TypedValue;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -12,13 +14,23 @@ import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.content.res.AppCompatResources;
+import androidx.recyclerview.widget.AdapterListUpdateCallback;
+import androidx.recyclerview.widget.AsyncDifferConfig;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.ItemTouchHelper;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.squareup.picasso.Picasso;
 import com.squareup.picasso.RequestCreator;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 import v.blade.R;
 import v.blade.library.Album;
@@ -70,6 +82,34 @@ public class LibraryObjectAdapter extends RecyclerView.Adapter<LibraryObjectAdap
         }
     }
 
+    //Tag of the image requests of library lists : the fast scroller pauses them while dragging
+    public static final Object IMAGE_TAG = new Object();
+
+    //Ids of the duplicates of an object in a list (e.g. a song twice in a playlist) : their position
+    private static final long DUPLICATE_ID = 1L << 62;
+
+    //Rows are the same if they show the same object ; separators are created again on every search
+    private static final DiffUtil.ItemCallback<LibraryObject> DIFF_CALLBACK = new DiffUtil.ItemCallback<LibraryObject>()
+    {
+        @Override
+        public boolean areItemsTheSame(@NonNull LibraryObject oldItem, @NonNull LibraryObject newItem)
+        {
+            if(oldItem instanceof Separator && newItem instanceof Separator)
+                return oldItem.getName().equals(newItem.getName());
+            return oldItem == newItem;
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull LibraryObject oldItem, @NonNull LibraryObject newItem)
+        {
+            //Names and images do not change ; the song count of artists and playlists can
+            return !(oldItem instanceof Artist || oldItem instanceof Playlist);
+        }
+    };
+
+    //Diffs and duplicates are computed on their own thread : the app executor is busy with synchronizations
+    private static final Executor LIST_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "blade-list"));
+
     private final List<? extends LibraryObject> objects;
     private View.OnClickListener moreClickListener;
     private ItemTouchHelper touchHelper;
@@ -77,6 +117,23 @@ public class LibraryObjectAdapter extends RecyclerView.Adapter<LibraryObjectAdap
 
     private int selectedPosition = -1;
 
+    //Only for adapters created without a list : lists are submitted, and diffed in background
+    private AsyncListDiffer<LibraryObject> differ;
+    private BitSet duplicates = new BitSet();
+    private int submitGeneration = 0;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Adapter with stable ids, showing the lists given to {@link #submitList(List, boolean, Runnable)}
+     */
+    public LibraryObjectAdapter(View.OnClickListener moreClickListener, View.OnClickListener clickListener)
+    {
+        this(null, moreClickListener, clickListener);
+        this.differ = new AsyncListDiffer<>(new AdapterListUpdateCallback(this),
+                new AsyncDifferConfig.Builder<>(DIFF_CALLBACK).setBackgroundThreadExecutor(LIST_EXECUTOR).build());
+        setHasStableIds(true);
+    }
+
     public LibraryObjectAdapter(List<? extends LibraryObject> objects, View.OnClickListener clickListener)
     {
         this.objects = objects == null ? new ArrayList<>() : objects;
@@ -97,6 +154,65 @@ public class LibraryObjectAdapter extends RecyclerView.Adapter<LibraryObjectAdap
         this.moreClickListener = null;
     }
 
+    /**
+     * Shows a new list ; it is not copied, rows are read from it when shown
+     *
+     * @param objects  the new list ; it must not be modified afterwards
+     * @param diff     if true, the difference with the current list is computed in background, and only
+     *                 the changed rows are notified (visible rows showing the same objects are not bound
+     *                 again) ; lists that have nothing in common should not be diffed, it is quadratic
+     * @param callback run on the main thread once the list is shown (not run if another list is submitted before)
+     */
+    public void submitList(List<? extends LibraryObject> objects, boolean diff, Runnable callback)
+    {
+        if(differ == null) throw new IllegalStateException("Adapter was created with a fixed list");
+
+        final List<LibraryObject> list = objects == null ? new ArrayList<>() : Collections.unmodifiableList(objects);
+        final int generation = ++submitGeneration;
+        LIST_EXECUTOR.execute(() ->
+        {
+            BitSet listDuplicates = findDuplicates(list);
+            mainHandler.post(() ->
+            {
+                if(generation != submitGeneration) return;
+
+                //Clearing first replaces the list without a diff
+                if(!diff) differ.submitList(null);
+                differ.submitList(list, () ->
+                {
+                    //Ids of duplicates depend on their position : they change with the list
+                    duplicates = listDuplicates;
+                    if(callback != null) callback.run();
+                });
+            });
+        });
+    }
+
+    /**
+     * @return the list currently shown
+     */
+    public List<? extends LibraryObject> getCurrentList()
+    {
+        return differ == null ? objects : differ.getCurrentList();
+    }
+
+    private static BitSet findDuplicates(List<LibraryObject> list)
+    {
+        BitSet duplicates = new BitSet();
+        IdentityHashMap<LibraryObject, Boolean> seen = new IdentityHashMap<>(list.size());
+        for(int i = 0; i < list.size(); i++)
+            if(seen.put(list.get(i), Boolean.TRUE) != null) duplicates.set(i);
+        return duplicates;
+    }
+
+    @Override
+    public long getItemId(int position)
+    {
+        if(differ == null) return RecyclerView.NO_ID;
+        if(duplicates.get(position)) return DUPLICATE_ID | position;
+        return getItem(position).getUid();
+    }
+
     public void setSelectedPosition(int position)
     {
         this.selectedPosition = position;
@@ -132,13 +248,13 @@ public class LibraryObjectAdapter extends RecyclerView.Adapter<LibraryObjectAdap
     @Override
     public int getCount()
     {
-        return objects.size();
+        return getItemCount();
     }
 
     @Override
     public LibraryObject getItem(int i)
     {
-        return objects.get(i);
+        return getCurrentList().get(i);
     }
 
     @Override
@@ -163,7 +279,7 @@ public class LibraryObjectAdapter extends RecyclerView.Adapter<LibraryObjectAdap
     @Override
     public boolean isEmpty()
     {
-        return objects.isEmpty();
+        return getItemCount() == 0;
     }
 
     @NonNull
@@ -187,17 +303,22 @@ public class LibraryObjectAdapter extends RecyclerView.Adapter<LibraryObjectAdap
 
         viewHolder.titleView.setText(current.getName());
 
-        RequestCreator image = current.getImageRequest();
         if(viewHolder.imageView != null)
         {
+            RequestCreator image = ImageResolver.thumbnail(current, viewHolder.imageView.getLayoutParams().width);
             if(image != null)
-                image.into(viewHolder.imageView);
-            else if(current instanceof Artist)
-                viewHolder.imageView.setImageResource(R.drawable.ic_artist);
-            else if(current instanceof Album || current instanceof Song)
-                viewHolder.imageView.setImageResource(R.drawable.ic_album);
-            else if(current instanceof Playlist)
-                viewHolder.imageView.setImageResource(R.drawable.ic_playlist);
+                image.tag(IMAGE_TAG).into(viewHolder.imageView);
+            else
+            {
+                //The request of the previous object of this row could still be running
+                Picasso.get().cancelRequest(viewHolder.imageView);
+                if(current instanceof Artist)
+                    viewHolder.imageView.setImageResource(R.drawable.ic_artist);
+                else if(current instanceof Album || current instanceof Song)
+                    viewHolder.imageView.setImageResource(R.drawable.ic_album);
+                else if(current instanceof Playlist)
+                    viewHolder.imageView.setImageResource(R.drawable.ic_playlist);
+            }
         }
 
         //Clear subimageview
@@ -261,10 +382,17 @@ public class LibraryObjectAdapter extends RecyclerView.Adapter<LibraryObjectAdap
         }
     }
 
+    @Override
+    public void onViewRecycled(@NonNull ViewHolder viewHolder)
+    {
+        //Rows scrolled away do not need their image anymore
+        if(viewHolder.imageView != null) Picasso.get().cancelRequest(viewHolder.imageView);
+    }
+
     @Override
     public int getItemCount()
     {
-        return objects.size();
+        return getCurrentList().size();
     }
 
 
@@ -18,6 +18,20 @@ import v.blade.player.MediaBrowserService;
 
 public class LyricsActivity extends AppCompatActivity
 {
+    private static GeniusService geniusService;
+
+    private static synchronized GeniusService obtainGeniusService()
+    {
+        if(geniusService == null)
+        {
+            Retrofit retrofit = new Retrofit.Builder().baseUrl("https://api.genius.com")
+                    .client(BladeApplication.obtainHttpClient())
+                    .addConverterFactory(GsonConverterFactory.create()).build();
+            geniusService = retrofit.create(GeniusService.class);
+        }
+        return geniusService;
+    }
+
     @Override
     protected void onCreate(Bundle savedInstanceState)
     {
@@ -29,9 +43,7 @@ public class LyricsActivity extends AppCompatActivity
         Song song = MediaBrowserService.getInstance().getPlaylist().get(MediaBrowserService.getInstance().getIndex());
         BladeApplication.obtainExecutorService().execute(() ->
         {
-            Retrofit retrofit = new Retrofit.Builder().baseUrl("https://api.genius.com")
-                    .addConverterFactory(GsonConverterFactory.create()).build();
-            GeniusService service = retrofit.create(GeniusService.class);
+            GeniusService service = obtainGeniusService();
 
             Call<GeniusService.SearchApiResponse> search =
                     service.search("Bearer wTGF45NZElaOrhC1LIEhdBq9ISwX7SgNLBkp_74fjUo-uwUJNrENnCJ2Uj4tJeVo",
@@ -245,6 +245,26 @@ public class MainActivity extends AppCompatActivity
         SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
         searchView.setSearchableInfo(searchManager.getSearchableInfo(getComponentName()));
         searchView.setQueryHint(getString(R.string.search));
+        //Library is searched as you type ; submitting still goes through ACTION_SEARCH (onNewIntent)
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener()
+        {
+            @Override
+            public boolean onQueryTextSubmit(String query)
+            {
+                return false;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText)
+            {
+                if(navHostFragment.getChildFragmentManager().getFragments().size() == 0) return false;
+
+                Fragment child = navHostFragment.getChildFragmentManager().getFragments().get(0);
+                if(!(child instanceof LibraryFragment)) return false;
+                ((LibraryFragment) child).onSearchTextChanged(newText);
+                return true;
+            }
+        });
 
         return true;
     }
@@ -259,13 +279,54 @@ public class MainActivity extends AppCompatActivity
             startActivity(intent);
             return true;
         }
+        else if(id == R.id.action_sort)
+        {
+            if(navHostFragment.getChildFragmentManager().getFragments().size() != 0)
+            {
+                Fragment child = navHostFragment.getChildFragmentManager().getFragments().get(0);
+                if(child instanceof LibraryFragment) ((LibraryFragment) child).onSortSelected();
+            }
+            return true;
+        }
         else if(id == R.id.action_sync)
         {
-            if(Source.isSyncing) return false;
+            if(Source.isSyncing)
+            {
+                //Clicking again while synchronizing cancels the synchronization
+                Source.cancelSync();
+                return true;
+            }
 
             item.setIcon(R.drawable.ic_hourglass);
-            Source.synchronizeSources(() ->
-                    this.runOnUiThread(() -> item.setIcon(R.drawable.ic_sync_24px)));
+            Source.synchronizeSources(new Source.SyncListener()
+            {
+                @Override
+                public void onSourceProgress(Source source, int done, int total)
+                {
+                    runOnUiThread(() ->
+                    {
+                        if(getSupportActionBar() != null)
+                            getSupportActionBar().setSubtitle(getString(R.string.sync_progress, source.getName(), done, total));
+                    });
+                }
+
+                @Override
+                public void onSourceDone(Source source)
+                {
+                }
+
+                @Override
+                public void onSyncDone(boolean cancelled)
+                {
+                    runOnUiThread(() ->
+                    {
+                        item.setIcon(R.drawable.ic_sync_24px);
+                        if(getSupportActionBar() != null) getSupportActionBar().setSubtitle(null);
+                        if(cancelled)
+                            Toast.makeText(MainActivity.this, getString(R.string.sync_cancelled), Toast.LENGTH_SHORT).show();
+                    });
+                }
+            });
             return true;
         }
         else return super.onOptionsItemSelected(item);
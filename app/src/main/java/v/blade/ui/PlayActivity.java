@@ -9,11 +9,13 @@ import android.graphics.PorterDuff;
 import android.media.session.PlaybackState;
 import android.os.Bundle;
 import android.os.IBinder;
+import android.os.SystemClock;
 import android.support.v4.media.MediaBrowserCompat;
 import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.session.MediaControllerCompat;
 import android.support.v4.media.session.MediaSessionCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
+import android.view.Choreographer;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.PopupMenu;
@@ -28,8 +30,6 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import java.util.Locale;
 import java.util.Objects;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import v.blade.R;
 import v.blade.databinding.ActivityPlayBinding;
@@ -43,6 +43,24 @@ public class PlayActivity extends AppCompatActivity
     private MediaControllerCompat.Callback mediaControllerCallback;
     private boolean showingPlaylist = false;
 
+    //Progress is extrapolated from the last playback state (position, update time, speed) on each
+    // frame, only while playing and visible : no timer, and no call to the media session
+    private PlaybackStateCompat playbackState;
+    private boolean visible = false;
+    private boolean progressRunning = false;
+    private boolean userSeeking = false;
+    private long shownSecond = -1;
+    private final Choreographer.FrameCallback progressCallback = new Choreographer.FrameCallback()
+    {
+        @Override
+        public void doFrame(long frameTimeNanos)
+        {
+            if(!progressRunning) return;
+            showPosition(currentPosition());
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    };
+
     //TODO : maybe fix that ? switch on something else ?
     @SuppressLint("NonConstantResourceId")
     @Override
@@ -145,13 +163,13 @@ public class PlayActivity extends AppCompatActivity
             @Override
             public void onStartTrackingTouch(SeekBar seekBar)
             {
-
+                userSeeking = true;
             }
 
             @Override
             public void onStopTrackingTouch(SeekBar seekBar)
             {
-
+                userSeeking = false;
             }
         });
 
@@ -205,13 +223,10 @@ public class PlayActivity extends AppCompatActivity
                                 else
                                     binding.playPlay.setImageResource(R.drawable.ic_play_circle);
 
-                                //Set playtime
-                                long positionMillis = state.getPosition();
-                                long positionMins = (positionMillis / 60000) % 60000;
-                                long positionSecs = positionMillis % 60000 / 1000;
-                                String positionString = String.format(Locale.getDefault(), "%02d:%02d", positionMins, positionSecs);
-                                binding.playTime.setText(positionString);
-                                binding.playSeekbar.setProgress((int) positionMillis);
+                                //Set playtime, and follow it while playing
+                                playbackState = state;
+                                showPosition(currentPosition());
+                                updateProgressCallback();
                             }
 
                             @Override
@@ -294,31 +309,6 @@ public class PlayActivity extends AppCompatActivity
                         mediaControllerCallback.onShuffleModeChanged(mediaController.getShuffleMode());
                         mediaControllerCallback.onRepeatModeChanged(mediaController.getRepeatMode());
 
-                        //Setup task that will update seekBar/position every second
-                        Timer timer = new Timer();
-                        timer.schedule(new TimerTask()
-                        {
-                            @Override
-                            public void run()
-                            {
-                                runOnUiThread(() ->
-                                {
-                                    if(getMediaController() != null
-                                            && getMediaController().getPlaybackState().getState() == PlaybackState.STATE_PLAYING
-                                            && binding.playSeekbar.getMax() != 0)
-                                    {
-                                        int progress = (int) mediaController.getPlaybackState().getPosition();
-
-                                        int positionMins = (progress / 60000) % 60000;
-                                        int positionSecs = progress % 60000 / 1000;
-                                        String positionString = String.format(Locale.getDefault(), "%02d:%02d", positionMins, positionSecs);
-                                        binding.playTime.setText(positionString);
-                                        binding.playSeekbar.setProgress(progress);
-                                    }
-                                });
-                            }
-                        }, 0, 1000);
-
                         //Register a callback so that UI stays in sync
                         mediaController.registerCallback(mediaControllerCallback);
                     }
@@ -413,10 +403,54 @@ public class PlayActivity extends AppCompatActivity
         binding.playList.scrollToPosition(MediaBrowserService.getInstance().getIndex());
     }
 
+    /**
+     * @return the playback position now, from the last playback state
+     */
+    private long currentPosition()
+    {
+        if(playbackState == null) return 0;
+
+        long position = playbackState.getPosition();
+        if(playbackState.getState() == PlaybackStateCompat.STATE_PLAYING)
+            position += (long) ((SystemClock.elapsedRealtime() - playbackState.getLastPositionUpdateTime()) * playbackState.getPlaybackSpeed());
+
+        if(binding.playSeekbar.getMax() > 0) position = Math.min(position, binding.playSeekbar.getMax());
+        return Math.max(0, position);
+    }
+
+    private void showPosition(long positionMillis)
+    {
+        if(!userSeeking) binding.playSeekbar.setProgress((int) positionMillis);
+
+        //Text only changes every second
+        long second = positionMillis / 1000;
+        if(second == shownSecond) return;
+        shownSecond = second;
+
+        long positionMins = (positionMillis / 60000) % 60000;
+        long positionSecs = positionMillis % 60000 / 1000;
+        String positionString = String.format(Locale.getDefault(), "%02d:%02d", positionMins, positionSecs);
+        binding.playTime.setText(positionString);
+    }
+
+    /**
+     * Starts or stops following the playback position on each frame
+     */
+    private void updateProgressCallback()
+    {
+        boolean shouldRun = visible && playbackState != null && playbackState.getState() == PlaybackStateCompat.STATE_PLAYING;
+        if(shouldRun == progressRunning) return;
+
+        progressRunning = shouldRun;
+        if(shouldRun) Choreographer.getInstance().postFrameCallback(progressCallback);
+        else Choreographer.getInstance().removeFrameCallback(progressCallback);
+    }
+
     @Override
     protected void onStart()
     {
         super.onStart();
+        visible = true;
         mediaBrowser.connect();
     }
 
@@ -425,6 +459,9 @@ public class PlayActivity extends AppCompatActivity
     {
         super.onStop();
 
+        visible = false;
+        updateProgressCallback();
+
         if(MediaControllerCompat.getMediaController(this) != null)
             MediaControllerCompat.getMediaController(this).unregisterCallback(mediaControllerCallback);
 
@@ -0,0 +1,60 @@
+package v.blade.ui;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.squareup.picasso.Picasso;
+import com.squareup.picasso.RequestCreator;
+
+/**
+ * Loads the thumbnails of the rows about to be shown, ahead of the scroll direction, into
+ * Picasso's memory cache ; prefetches in the other direction are cancelled when the scroll turns
+ */
+public class ThumbnailPrefetcher extends RecyclerView.OnScrollListener
+{
+    private static final Object PREFETCH_TAG = new Object();
+    private static final int AHEAD = 12; //rows
+
+    private final LibraryObjectAdapter adapter;
+    private final int size;
+
+    private int direction = 0;
+    private int lastEdge = RecyclerView.NO_POSITION;
+
+    public ThumbnailPrefetcher(LibraryObjectAdapter adapter, int size)
+    {
+        this.adapter = adapter;
+        this.size = size;
+    }
+
+    @Override
+    public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy)
+    {
+        //Jumps (e.g. from the fast scroller) are not scrolls
+        if(dy == 0 || !(recyclerView.getLayoutManager() instanceof LinearLayoutManager)) return;
+        LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+
+        int scrollDirection = dy > 0 ? 1 : -1;
+        int edge = scrollDirection > 0 ? layoutManager.findLastVisibleItemPosition() : layoutManager.findFirstVisibleItemPosition();
+        if(edge == RecyclerView.NO_POSITION) return;
+        if(scrollDirection != direction)
+        {
+            Picasso.get().cancelTag(PREFETCH_TAG);
+            direction = scrollDirection;
+        }
+        else if(edge == lastEdge) return;
+        lastEdge = edge;
+
+        int count = adapter.getItemCount();
+        for(int i = 1; i <= AHEAD; i++)
+        {
+            int position = edge + i * scrollDirection;
+            if(position < 0 || position >= count) break;
+
+            //Already loaded thumbnails are in the memory cache : fetch() returns at once
+            RequestCreator thumbnail = ImageResolver.thumbnail(adapter.getItem(position), size);
+            if(thumbnail != null) thumbnail.tag(PREFETCH_TAG).priority(Picasso.Priority.LOW).fetch();
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package v.blade.ui;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+
+import com.squareup.picasso.Picasso;
+import com.squareup.picasso.Request;
+import com.squareup.picasso.RequestHandler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import v.blade.BladeApplication;
+
+/**
+ * Picasso handler of thumbnail requests (see ImageResolver.thumbnail) : the image is decoded
+ * downsampled to the size of the view, and the thumbnail is kept on disk, so that full size images
+ * (e.g. 640px Spotify covers, local album art) are only downloaded and decoded once
+ * <p>
+ * Thumbnails are stored by (url, size) in the cache directory ; the least recently used are deleted
+ * when they take more than MAX_DISK_SIZE.
+ */
+final class ThumbnailRequestHandler extends RequestHandler
+{
+    static final String SCHEME = "blade-thumbnail";
+    static final String PARAMETER_URL = "url";
+    static final String PARAMETER_SIZE = "size";
+
+    private static final long MAX_DISK_SIZE = 32L * 1024 * 1024;
+    private static final int TRIM_EVERY = 64; //writes
+    private static final int QUALITY = 90;
+
+    private final ContentResolver contentResolver;
+    private final File directory;
+    private int writes = 0;
+
+    ThumbnailRequestHandler(Context context)
+    {
+        this.contentResolver = context.getContentResolver();
+        this.directory = new File(context.getCacheDir(), "thumbnails");
+    }
+
+    @Override
+    public boolean canHandleRequest(Request data)
+    {
+        return SCHEME.equals(data.uri.getScheme());
+    }
+
+    @Override
+    public Result load(Request request, int networkPolicy) throws IOException
+    {
+        String url = request.uri.getQueryParameter(PARAMETER_URL);
+        String sizeParameter = request.uri.getQueryParameter(PARAMETER_SIZE);
+        if(url == null || sizeParameter == null) throw new IOException("Invalid thumbnail request " + request.uri);
+        int size = Integer.parseInt(sizeParameter);
+
+        //Pre-scaled thumbnail
+        File file = new File(directory, key(url, size));
+        if(file.exists())
+        {
+            Bitmap cached = BitmapFactory.decodeFile(file.getPath());
+            if(cached != null)
+            {
+                //noinspection ResultOfMethodCallIgnored
+                file.setLastModified(System.currentTimeMillis());
+                return new Result(cached, Picasso.LoadedFrom.DISK);
+            }
+        }
+
+        boolean remote = url.startsWith("http://") || url.startsWith("https://");
+        byte[] original = remote ? download(url) : read(Uri.parse(url));
+        Bitmap thumbnail = decode(original, size);
+        if(thumbnail == null) throw new IOException("Could not decode image " + url);
+
+        store(file, thumbnail);
+        return new Result(thumbnail, remote ? Picasso.LoadedFrom.NETWORK : Picasso.LoadedFrom.DISK);
+    }
+
+    private static byte[] download(String url) throws IOException
+    {
+        okhttp3.Request request = new okhttp3.Request.Builder().url(url).build();
+        try(Response response = BladeApplication.obtainHttpClient().newCall(request).execute())
+        {
+            ResponseBody body = response.body();
+            if(!response.isSuccessful() || body == null)
+                throw new IOException("HTTP " + response.code() + " for " + url);
+            return body.bytes();
+        }
+    }
+
+    private byte[] read(Uri uri) throws IOException
+    {
+        try(InputStream in = contentResolver.openInputStream(uri))
+        {
+            if(in == null) throw new IOException("Could not open " + uri);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[16 * 1024];
+            int read;
+            while((read = in.read(buffer)) != -1) out.write(buffer, 0, read);
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Decodes the image at the lowest sample size keeping it at least 'size' large, then scales it
+     * to fit in size x size
+     */
+    private static Bitmap decode(byte[] data, int size)
+    {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if(options.outWidth <= 0 || options.outHeight <= 0) return null;
+
+        int sample = 1;
+        while(Math.max(options.outWidth, options.outHeight) / (sample * 2) >= size) sample *= 2;
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sample;
+        Bitmap decoded = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if(decoded == null) return null;
+
+        float scale = (float) size / Math.max(decoded.getWidth(), decoded.getHeight());
+        if(scale >= 1) return decoded;
+
+        Bitmap scaled = Bitmap.createScaledBitmap(decoded, Math.max(1, Math.round(decoded.getWidth() * scale)),
+                Math.max(1, Math.round(decoded.getHeight() * scale)), true);
+        if(scaled != decoded) decoded.recycle();
+        return scaled;
+    }
+
+    private void store(File file, Bitmap thumbnail)
+    {
+        //Written aside then renamed : readers never see a partial file
+        File temporary = new File(directory, file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        try
+        {
+            if(!directory.exists() && !directory.mkdirs()) return;
+
+            try(OutputStream out = new FileOutputStream(temporary))
+            {
+                thumbnail.compress(thumbnail.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG, QUALITY, out);
+            }
+            if(!temporary.renameTo(file))
+            {
+                //noinspection ResultOfMethodCallIgnored
+                temporary.delete();
+            }
+        }
+        catch(IOException e)
+        {
+            System.err.println("BLADE: could not store thumbnail " + file.getName() + " : " + e.getMessage());
+            //noinspection ResultOfMethodCallIgnored
+            temporary.delete();
+            return;
+        }
+
+        boolean trim;
+        synchronized(this)
+        {
+            trim = ++writes % TRIM_EVERY == 0;
+        }
+        if(trim) trim();
+    }
+
+    /**
+     * Deletes the least recently used thumbnails, until the cache fits in MAX_DISK_SIZE
+     */
+    private synchronized void trim()
+    {
+        File[] files = directory.listFiles();
+        if(files == null) return;
+
+        long total = 0;
+        final long[] modified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for(int i = 0; i < files.length; i++)
+        {
+            total += files[i].length();
+            modified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        if(total <= MAX_DISK_SIZE) return;
+
+        Arrays.sort(order, (a, b) -> Long.compare(modified[a], modified[b]));
+        for(int i = 0; i < order.length && total > MAX_DISK_SIZE; i++)
+        {
+            File file = files[order[i]];
+            long length = file.length();
+            if(file.delete()) total -= length;
+        }
+    }
+
+    private static String key(String url, int size)
+    {
+        StringBuilder key = new StringBuilder();
+        try
+        {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes(Charset.forName("UTF-8")));
+            for(byte b : digest) key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        catch(NoSuchAlgorithmException e)
+        {
+            //SHA-1 is always available on Android
+            key.append(Integer.toHexString(url.hashCode()));
+        }
+        return key.append('_').append(size).toString();
+    }
+}
@@ -0,0 +1,144 @@
+package v.blade.library;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LegacyLibraryReaderTest
+{
+    private static final int SONG_COUNT = 100_000;
+    private static final long HEAP_CEILING = 8L * 1024 * 1024;
+
+    @Test
+    public void readsSongsAndPlaylists() throws IOException
+    {
+        String json = "{\"version\":1,\"library\":["
+                + "{\"name\":\"Song\",\"track_number\":3,\"album\":\"Album\",\"album_art\":\"a\",\"album_art_big\":\"b\","
+                + "\"album_artists\":[\"Artist\"],\"artists\":[\"Artist\",\"Other\"],"
+                + "\"sources\":[{\"source\":0,\"id\":42},{\"source\":1,\"id\":\"spotify:id\"}]}"
+                + "],\"playlists\":[{\"name\":\"List\",\"subtitle\":\"sub\",\"songs\":["
+                + "{\"name\":\"Handle\",\"track_number\":1,\"album\":\"A\",\"album_artists\":[\"X\"],\"artists\":[\"X\"],"
+                + "\"sources\":[{\"source\":1,\"id\":\"h\"}]}"
+                + "],\"source\":1,\"id\":\"pl\"}]}";
+
+        final List<String> events = new ArrayList<>();
+        boolean ok = new LegacyLibraryReader(1).read(new StringReader(json), new LegacyLibraryReader.Sink<String>()
+        {
+            @Override
+            public String song(LegacyLibraryReader.SongRecord s, boolean handled)
+            {
+                StringBuilder b = new StringBuilder(s.name).append('/').append(s.album).append('/').append(s.trackNumber)
+                        .append('/').append(s.artists.length).append('/').append(s.albumArt).append('/').append(handled);
+                for(int i = 0; i < s.sourceCount; i++) b.append('/').append(s.sources[i]).append('=').append(s.ids[i]);
+                events.add(b.toString());
+                return s.name;
+            }
+
+            @Override
+            public void playlist(String name, List<String> songs, String art, String subtitle, int source, Object id)
+            {
+                assertNull(art);
+                events.add(name + "/" + subtitle + "/" + source + "/" + id + "/" + songs);
+            }
+        });
+
+        assertTrue(ok);
+        assertEquals(3, events.size());
+        assertEquals("Song/Album/3/2/a/false/0=42/1=spotify:id", events.get(0));
+        assertEquals("Handle/A/1/1/null/true/1=h", events.get(1));
+        assertEquals("List/sub/1/pl/[Handle]", events.get(2));
+    }
+
+    @Test
+    public void rejectsNewerVersion() throws IOException
+    {
+        boolean ok = new LegacyLibraryReader(1).read(new StringReader("{\"version\":2,\"library\":[]}"),
+                new LegacyLibraryReader.Sink<Object>()
+                {
+                    @Override
+                    public Object song(LegacyLibraryReader.SongRecord song, boolean handled)
+                    {
+                        return null;
+                    }
+
+                    @Override
+                    public void playlist(String name, List<Object> songs, String art, String subtitle, int source, Object id)
+                    {
+                    }
+                });
+        assertFalse(ok);
+    }
+
+    @Test
+    public void streamsLargeLibraryWithBoundedHeap() throws IOException
+    {
+        File file = File.createTempFile("library", ".json");
+        file.deleteOnExit();
+        writeSyntheticLibrary(file);
+        //The file must be much larger than the ceiling for the assertion to mean anything
+        assertTrue(file.length() > 2 * HEAP_CEILING);
+
+        final Runtime runtime = Runtime.getRuntime();
+        final long baseline = usedHeap(runtime);
+        final long[] peak = {0};
+        final int[] count = {0};
+
+        boolean ok = new LegacyLibraryReader(1).read(new BufferedReader(new FileReader(file)), new LegacyLibraryReader.Sink<Object>()
+        {
+            @Override
+            public Object song(LegacyLibraryReader.SongRecord song, boolean handled)
+            {
+                count[0]++;
+                if(count[0] % 10_000 == 0) peak[0] = Math.max(peak[0], usedHeap(runtime) - baseline);
+                return null;
+            }
+
+            @Override
+            public void playlist(String name, List<Object> songs, String art, String subtitle, int source, Object id)
+            {
+            }
+        });
+
+        assertTrue(ok);
+        assertEquals(SONG_COUNT, count[0]);
+        assertTrue("Peak heap while streaming was " + peak[0] + " bytes", peak[0] < HEAP_CEILING);
+    }
+
+    private static long usedHeap(Runtime runtime)
+    {
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void writeSyntheticLibrary(File file) throws IOException
+    {
+        BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+        writer.write("{\"version\":1,\"library\":[");
+        for(int i = 0; i < SONG_COUNT; i++)
+        {
+            if(i != 0) writer.write(',');
+            writer.write("{\"name\":\"Song number " + i + "\",\"track_number\":" + (i % 20)
+                    + ",\"album\":\"Album " + (i / 20) + "\""
+                    + ",\"album_art\":\"https://i.scdn.co/image/album" + (i / 20) + "\""
+                    + ",\"album_art_big\":\"https://i.scdn.co/image/album" + (i / 20) + "big\""
+                    + ",\"album_artists\":[\"Artist " + (i / 200) + "\"]"
+                    + ",\"artists\":[\"Artist " + (i / 200) + "\",\"Featured " + (i % 50) + "\"]"
+                    + ",\"sources\":[{\"source\":0,\"id\":" + i + "},{\"source\":1,\"id\":\"spotify:track:" + i + "\"}]}");
+        }
+        writer.write("],\"playlists\":[]}");
+        writer.close();
+    }
+}
@@ -0,0 +1,128 @@
+package v.blade.library;
+
+import androidx.fragment.app.Fragment;
+
+import com.google.gson.JsonObject;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import v.blade.BladeApplication;
+import v.blade.sources.Source;
+import v.blade.ui.ExploreFragment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LibraryCacheTest
+{
+    private static final int VERSION = 4;
+
+    @Test
+    public void buildsHandlesWhenNeeded() throws IOException
+    {
+        Library.reset();
+        Source source = new FakeSource();
+        Source.SOURCES.add(source);
+        source.setIndex(Source.SOURCES.size() - 1);
+        try
+        {
+            Song song = addSong(source, "Song");
+            Song a = addSongHandle(source, "Handle A");
+            Song b = addSongHandle(source, "Handle B");
+            Playlist playlist = Library.addPlaylist("Playlist", Arrays.asList(song, a, b, a), null, "", source, "playlist");
+
+            File file = File.createTempFile("library", ".bin");
+            file.deleteOnExit();
+            LibraryCache.write(file, Collections.singletonList(song), Arrays.asList(a, b),
+                    Collections.singletonList(playlist), VERSION, 0);
+            Library.reset();
+            assertEquals(0, LibraryCache.read(file, VERSION));
+
+            //A song added to the library with the key of an handle that is not built yet promotes it
+            Song promoted = addSong(source, "Handle B");
+            Playlist restored = Library.lookupPlaylist(source, "playlist");
+            assertEquals(4, restored.getSongs().size());
+            assertSame(promoted, restored.getSongs().get(2));
+            assertTrue(Library.isLibrarySong(promoted));
+
+            //Every record of an handle resolves to the same object, that lookups find
+            Song handle = restored.getSongs().get(1);
+            assertSame(handle, restored.getSongs().get(3));
+            assertSame(handle, Library.lookupSong("Artist", "Album", "Handle A"));
+            assertFalse(Library.isLibrarySong(handle));
+            assertEquals("Handle A", handle.getSources().get(0).id);
+
+            assertSame(Library.lookupSong("Artist", "Album", "Song"), restored.getSongs().get(0));
+        }
+        finally
+        {
+            Source.SOURCES.remove(source);
+            Library.reset();
+        }
+    }
+
+    private static Song addSong(Source source, String title)
+    {
+        return Library.addSong(title, "Album", new String[]{"Artist"}, source, title, new String[]{"Artist"},
+                null, 1, new String[1], new String[1], null, 0);
+    }
+
+    private static Song addSongHandle(Source source, String title)
+    {
+        return Library.addSongHandle(title, "Album", new String[]{"Artist"}, source, title, new String[]{"Artist"},
+                null, 1, new String[1], new String[1], null, 0);
+    }
+
+    private static class FakeSource extends Source
+    {
+        @Override
+        public int getImageResource()
+        {
+            return 0;
+        }
+
+        @Override
+        public void synchronizeLibrary()
+        {
+        }
+
+        @Override
+        public Fragment getSettingsFragment()
+        {
+            return null;
+        }
+
+        @Override
+        public JsonObject saveToJSON()
+        {
+            return new JsonObject();
+        }
+
+        @Override
+        public void restoreFromJSON(JsonObject jsonObject)
+        {
+        }
+
+        @Override
+        public void explore(ExploreFragment view)
+        {
+        }
+
+        @Override
+        public void exploreSearch(String query, ExploreFragment view)
+        {
+        }
+
+        @Override
+        public void createPlaylist(String name, BladeApplication.Callback<Playlist> callback, Runnable failureCallback)
+        {
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package v.blade.library;
+
+import androidx.fragment.app.Fragment;
+
+import com.google.gson.JsonObject;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import v.blade.BladeApplication;
+import v.blade.sources.Source;
+import v.blade.ui.ExploreFragment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LibraryConcurrencyTest
+{
+    private static final int THREADS = 8;
+    private static final int ARTISTS = 20;
+    private static final int ALBUMS_PER_ARTIST = 10;
+    private static final int SONGS_PER_ALBUM = 12;
+
+    @Test
+    public void parallelIngestionCreatesEachEntityOnce() throws Exception
+    {
+        Library.reset();
+
+        //Every thread ingests the same library (like several sources sharing songs), in a different order
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for(int t = 0; t < THREADS; t++)
+        {
+            final int thread = t;
+            futures.add(executor.submit(() ->
+            {
+                start.await();
+                ingest(thread);
+                return null;
+            }));
+        }
+        start.countDown();
+        for(Future<?> future : futures) future.get(60, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        Library.generateLists();
+
+        int albumCount = ARTISTS * ALBUMS_PER_ARTIST;
+        assertEquals(ARTISTS + 1, Library.getArtists().size());
+        assertEquals(albumCount, Library.getAlbums().size());
+        assertEquals(albumCount * SONGS_PER_ALBUM, Library.getSongs().size());
+
+        //No duplicate instance can be reachable from songs, albums or artists
+        IdentityHashMap<Album, Boolean> albums = new IdentityHashMap<>();
+        IdentityHashMap<Artist, Boolean> artists = new IdentityHashMap<>();
+        for(Album album : Library.getAlbums()) albums.put(album, true);
+        for(Artist artist : Library.getArtists()) artists.put(artist, true);
+        for(Song song : Library.getSongs())
+        {
+            assertTrue(albums.containsKey(song.getAlbum()));
+            for(Artist artist : song.getArtists()) assertTrue(artists.containsKey(artist));
+            for(Artist artist : song.getAlbum().getArtists()) assertTrue(artists.containsKey(artist));
+        }
+
+        for(Album album : Library.getAlbums())
+            assertEquals(SONGS_PER_ALBUM, album.getSongs().size());
+
+        for(Artist artist : Library.getArtists())
+        {
+            IdentityHashMap<Album, Boolean> artistAlbums = new IdentityHashMap<>();
+            for(Album album : artist.getAlbums()) assertTrue(artistAlbums.put(album, true) == null);
+
+            if(artist.getName().equals("Featuring"))
+            {
+                assertEquals(albumCount, artist.getAlbums().size());
+                assertEquals(albumCount * SONGS_PER_ALBUM, artist.getTrackCount());
+            }
+            else
+            {
+                assertEquals(ALBUMS_PER_ARTIST, artist.getAlbums().size());
+                assertEquals(ALBUMS_PER_ARTIST * SONGS_PER_ALBUM, artist.getTrackCount());
+            }
+        }
+    }
+
+    @Test
+    public void sweepsDuringIngestionAndPromotion() throws Exception
+    {
+        Library.reset();
+
+        //Two sources ingest the same songs and sweep them all, over and over : artists and albums lose their
+        //last song while the other source obtains them, and songs go back and forth between library and
+        //handles ; a third one adds the same songs as handles (e.g. in playlists)
+        final int rounds = 100;
+        final Source[] sources = {new FakeSource(), new FakeSource(), new FakeSource()};
+        final ConcurrentHashMap<Integer, Song> songs = new ConcurrentHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(sources.length);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for(int t = 0; t < sources.length; t++)
+        {
+            final int thread = t;
+            futures.add(executor.submit(() ->
+            {
+                start.await();
+                for(int round = 0; round <= rounds; round++)
+                {
+                    boolean handles = thread == 2;
+                    ingestSmall(sources[thread], thread, handles, songs);
+                    if(!handles && round < rounds)
+                        Library.sweepSource(sources[thread], Collections.<Song>emptySet(), true);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for(Future<?> future : futures) future.get(60, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        Library.generateLists();
+
+        //Each song was ingested last by both sources : it is in the library, and was never duplicated
+        assertEquals(SMALL_SONGS, Library.getSongs().size());
+        for(Song song : Library.getSongs()) assertTrue(song.hasLibrarySource());
+
+        IdentityHashMap<Album, Boolean> albums = new IdentityHashMap<>();
+        IdentityHashMap<Artist, Boolean> artists = new IdentityHashMap<>();
+        for(Album album : Library.getAlbums()) albums.put(album, true);
+        for(Artist artist : Library.getArtists()) artists.put(artist, true);
+        IdentityHashMap<Album, Integer> albumSongs = new IdentityHashMap<>();
+        IdentityHashMap<Artist, Integer> artistTracks = new IdentityHashMap<>();
+        for(Song song : Library.getSongs())
+        {
+            assertTrue(albums.containsKey(song.getAlbum()));
+            for(Artist artist : song.getAlbum().getArtists()) assertTrue(artists.containsKey(artist));
+            Integer count = albumSongs.get(song.getAlbum());
+            albumSongs.put(song.getAlbum(), count == null ? 1 : count + 1);
+            for(Artist artist : song.getArtists())
+            {
+                assertTrue(artists.containsKey(artist));
+                count = artistTracks.get(artist);
+                artistTracks.put(artist, count == null ? 1 : count + 1);
+            }
+        }
+        for(Album album : Library.getAlbums())
+            assertEquals(albumSongs.get(album), (Integer) album.getSongs().size());
+        for(Artist artist : Library.getArtists())
+            assertEquals(artistTracks.get(artist), (Integer) artist.getTrackCount());
+    }
+
+    @Test
+    public void keysIgnoreCase()
+    {
+        Library.reset();
+
+        Song first = addSong("Title", "Album", "Artist", 1);
+        Song second = addSong("TITLE", "album", "ARTIST", 1);
+        Song handle = Library.addSongHandle("title", "ALBUM", new String[]{"artist"}, null, null,
+                new String[]{"artist"}, null, 1, new String[1], new String[1], null, 0);
+
+        assertSame(first, second);
+        assertSame(first, handle);
+    }
+
+    @Test
+    public void sortsByCollationAndTrack()
+    {
+        Library.reset();
+
+        addSong("\u00c9t\u00e9", "Album", "artist", 3);
+        addSong("zebra", "Album", "artist", 1);
+        addSong("Ete", "Album", "artist", 2);
+        addSong("fin", "Other", "Artist", 1);
+        Library.generateLists();
+
+        //Accented letters sort with their base letter, case is ignored
+        List<String> names = new ArrayList<>();
+        for(Song song : Library.getSongs()) names.add(song.getName());
+        assertEquals("[Ete, \u00c9t\u00e9, fin, zebra]", names.toString());
+
+        Album album = Library.getAlbums().get(0);
+        assertEquals("Album", album.getName());
+        assertEquals(1, album.getSongs().get(0).getTrackNumber());
+
+        //Only modified albums are sorted again, but they are
+        addSong("First", "Album", "artist", 0);
+        Library.generateLists();
+        assertEquals("First", album.getSongs().get(0).getName());
+        assertEquals(4, album.getSongs().size());
+    }
+
+    @Test
+    public void readersKeepSnapshotUntilGeneration()
+    {
+        Library.reset();
+        addSong("One", "Album", "Artist", 1);
+        Library.generateLists();
+
+        LibrarySnapshot before = Library.getSnapshot();
+        Album album = before.getAlbums().get(0);
+        List<Song> albumSongs = album.getSongs();
+        assertEquals(1, before.getSongs().size());
+
+        //Ingestion (even from scratch) does not change what readers see
+        Library.reset();
+        addSong("One", "Album", "Artist", 1);
+        addSong("Two", "Album", "Artist", 2);
+        addSong("Three", "Other", "Artist", 1);
+        assertSame(before, Library.getSnapshot());
+        assertEquals(1, Library.getSongs().size());
+        assertEquals(1, albumSongs.size());
+
+        Library.generateLists();
+        LibrarySnapshot after = Library.getSnapshot();
+        assertTrue(after.getVersion() > before.getVersion());
+        assertEquals(3, after.getSongs().size());
+        assertEquals(2, after.getAlbums().size());
+        assertEquals(2, after.getArtists().get(0).getAlbums().size());
+        //Previous snapshot is untouched
+        assertEquals(1, before.getSongs().size());
+        assertEquals(1, before.getAlbums().size());
+    }
+
+    private static void ingest(int thread)
+    {
+        int count = ARTISTS * ALBUMS_PER_ARTIST * SONGS_PER_ALBUM;
+        for(int i = 0; i < count; i++)
+        {
+            int n = (i + thread * 997) % count;
+            int artist = n / (ALBUMS_PER_ARTIST * SONGS_PER_ALBUM);
+            int album = n / SONGS_PER_ALBUM;
+            int track = n % SONGS_PER_ALBUM;
+
+            //Mix the case of the names, as sources do not agree on it
+            String artistName = (thread % 2 == 0) ? "Artist " + artist : "ARTIST " + artist;
+            Library.addSong("Song " + track, "Album " + album, new String[]{artistName, "Featuring"}, null, null,
+                    new String[]{artistName}, null, track, new String[2], new String[1], null, 0);
+        }
+    }
+
+    private static final int SMALL_ARTISTS = 3;
+    private static final int SMALL_SONGS = SMALL_ARTISTS * 2 * 3;
+
+    /**
+     * Ingests a small library, where songs are shared by several artists and albums ; every song
+     * obtained for a key has to be the one obtained before, whatever thread obtained it
+     */
+    private static void ingestSmall(Source source, int thread, boolean handles, ConcurrentHashMap<Integer, Song> songs)
+    {
+        for(int i = 0; i < SMALL_SONGS; i++)
+        {
+            int n = (i + thread * 7) % SMALL_SONGS;
+            int artist = n % SMALL_ARTISTS;
+            int album = n / 3;
+            String[] artists = {"Artist " + artist, "Artist " + ((artist + 1) % SMALL_ARTISTS)};
+            String[] albumArtists = {"Artist " + artist};
+            Song song = handles
+                    ? Library.addSongHandle("Song " + n, "Album " + album, artists, source, "id" + n,
+                    albumArtists, null, n, new String[2], new String[1], null, 0)
+                    : Library.addSong("Song " + n, "Album " + album, artists, source, "id" + n,
+                    albumArtists, null, n, new String[2], new String[1], null, 0);
+
+            Song previous = songs.putIfAbsent(n, song);
+            assertSame(previous == null ? song : previous, song);
+        }
+    }
+
+    private static Song addSong(String title, String album, String artist, int track)
+    {
+        return Library.addSong(title, album, new String[]{artist}, null, null,
+                new String[]{artist}, null, track, new String[1], new String[1], null, 0);
+    }
+
+    private static class FakeSource extends Source
+    {
+        @Override
+        public int getImageResource()
+        {
+            return 0;
+        }
+
+        @Override
+        public void synchronizeLibrary()
+        {
+        }
+
+        @Override
+        public Fragment getSettingsFragment()
+        {
+            return null;
+        }
+
+        @Override
+        public JsonObject saveToJSON()
+        {
+            return new JsonObject();
+        }
+
+        @Override
+        public void restoreFromJSON(JsonObject jsonObject)
+        {
+        }
+
+        @Override
+        public void explore(ExploreFragment view)
+        {
+        }
+
+        @Override
+        public void exploreSearch(String query, ExploreFragment view)
+        {
+        }
+
+        @Override
+        public void createPlaylist(String name, BladeApplication.Callback<Playlist> callback, Runnable failureCallback)
+        {
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package v.blade.library;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class LiveSearchTest
+{
+    @Test
+    public void reusesPreviousQueries()
+    {
+        Artist artist = new Artist("Artist", null);
+        Album album = new Album("Album", new Artist[]{artist}, null, null, 0);
+        Song love = new Song("Love Me Do", album, new Artist[]{artist}, 1);
+        Song lonely = new Song("Lonely Day", album, new Artist[]{artist}, 1);
+        SearchIndex index = SearchIndex.build(Arrays.asList(love, lonely), Collections.<Song>emptyList(),
+                Collections.singletonList(album), Collections.singletonList(artist));
+        LiveSearch search = new LiveSearch(10);
+
+        SearchIndex.Result lo = search.find(index, "lo");
+        assertEquals(Arrays.asList(lonely, love), lo.songs);
+        assertEquals(Collections.singletonList(love), search.find(index, "lov").songs);
+        //Going back is a cache hit, whatever the case or punctuation
+        assertSame(lo, search.find(index, "Lo "));
+
+        //Results of a previous index are not reused
+        SearchIndex rebuilt = SearchIndex.build(Collections.singletonList(love), Collections.<Song>emptyList(),
+                Collections.singletonList(album), Collections.singletonList(artist));
+        SearchIndex.Result fresh = search.find(rebuilt, "lo");
+        assertNotSame(lo, fresh);
+        assertEquals(Collections.singletonList(love), fresh.songs);
+    }
+}
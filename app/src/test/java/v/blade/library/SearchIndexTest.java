@@ -0,0 +1,171 @@
+package v.blade.library;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SearchIndexTest
+{
+    @Test
+    public void normalizesNames()
+    {
+        assertArrayEquals(new String[]{"beyonce", "deja", "vu"}, SearchIndex.tokenize("Beyonc\u00e9 - D\u00e9j\u00e0 Vu"));
+        assertArrayEquals(new String[]{"ac", "dc"}, SearchIndex.tokenize("AC/DC"));
+        assertArrayEquals(new String[0], SearchIndex.tokenize("  - "));
+    }
+
+    @Test
+    public void ranksMatches()
+    {
+        Artist artist = new Artist("Artist", null);
+        Album album = new Album("Love Songs", new Artist[]{artist}, null, null, 0);
+        List<Song> songs = new ArrayList<>();
+        Song wordPrefix = song("Such A Lovely Day", album, artist);
+        Song words = song("All You Need Is Love", album, artist);
+        Song namePrefix = song("Love Me Do", album, artist);
+        Song exact = song("Love", album, artist);
+        Song other = song("Yesterday", album, artist);
+        Collections.addAll(songs, wordPrefix, words, namePrefix, exact, other);
+        Song handle = song("Love", album, artist);
+
+        SearchIndex index = SearchIndex.build(songs, Collections.singletonList(handle),
+                Collections.singletonList(album), Collections.singletonList(artist));
+
+        SearchIndex.Result result = index.search("love", 10);
+        assertEquals(Arrays.asList(exact, handle, namePrefix, words, wordPrefix), result.songs);
+        assertEquals(Collections.singletonList(album), result.albums);
+        assertTrue(result.artists.isEmpty());
+
+        //Every word has to match, in any order
+        assertEquals(Collections.singletonList(words), index.search("LOVE need", 10).songs);
+        assertEquals(Collections.singletonList(wordPrefix), index.search("day lov", 10).songs);
+        assertTrue(index.search("love yesterday", 10).songs.isEmpty());
+
+        //Limit keeps the best
+        assertEquals(Arrays.asList(exact, handle), index.search("love", 2).songs);
+    }
+
+    @Test
+    public void refinesPreviousMatches()
+    {
+        Artist artist = new Artist("Artist", null);
+        Album album = new Album("Album", new Artist[]{artist}, null, null, 0);
+        Song love = song("Love Me Do", album, artist);
+        Song lonely = song("Lonely Day", album, artist);
+        Song other = song("Yesterday", album, artist);
+        SearchIndex index = SearchIndex.build(Arrays.asList(love, lonely, other), Collections.<Song>emptyList(),
+                Collections.singletonList(album), Collections.singletonList(artist));
+
+        SearchIndex.Matches lo = index.match("lo");
+        assertTrue(lo.contains("lov"));
+        assertTrue(lo.contains("lo d"));
+        assertTrue(!lo.contains("l"));
+
+        assertEquals(Collections.singletonList(love), index.rank(index.refine(lo, "Lov"), 10).songs);
+        assertEquals(Collections.singletonList(lonely), index.rank(index.refine(lo, "lo day"), 10).songs);
+        //Not an extension : searched from scratch
+        assertEquals(Collections.singletonList(other), index.rank(index.refine(lo, "yes"), 10).songs);
+        //Nothing to narrow down from an empty query
+        assertEquals(Arrays.asList(lonely, love), index.rank(index.refine(index.match(" "), "lo"), 10).songs);
+    }
+
+    @Test
+    public void maintainsIndexIncrementally()
+    {
+        Artist artist = new Artist("Artist", null);
+        Album album = new Album("Album", new Artist[]{artist}, null, null, 0);
+        Song love = song("Love Me Do", album, artist);
+        Song lolo = song("Lo Lo", album, artist);
+        SearchIndex index = SearchIndex.build(Collections.singletonList(love), Collections.<Song>emptyList(),
+                Collections.singletonList(album), Collections.singletonList(artist));
+
+        SearchIndex.Matches lo = index.match("lo");
+        index.add(lolo, true);
+        assertTrue(!lo.isCurrent(index));
+        //Stale matches are not refined : searched from scratch
+        assertEquals(Arrays.asList(love, lolo), index.rank(index.refine(lo, "lo"), 10).songs);
+
+        //Promoted to the library : not ranked after the library songs anymore
+        index.add(lolo, false);
+        index.add(lolo, false);
+        assertEquals(Arrays.asList(lolo, love), index.search("lo", 10).songs);
+
+        index.remove(love);
+        index.remove(love);
+        assertEquals(Collections.singletonList(lolo), index.search("lo", 10).songs);
+        assertTrue(index.search("love", 10).songs.isEmpty());
+
+        //Removed slots are reused
+        Song other = song("Yesterday", album, artist);
+        index.add(other, false);
+        assertEquals(Collections.singletonList(other), index.search("yes", 10).songs);
+        assertTrue(index.search("me", 10).songs.isEmpty());
+
+        //Matches of entries removed meanwhile are not ranked
+        lo = index.match("lo");
+        index.remove(lolo);
+        assertTrue(index.rank(lo, 10).songs.isEmpty());
+    }
+
+    @Test
+    public void searchesLargeLibraryQuickly()
+    {
+        Random random = new Random(42);
+        String[] words = new String[2000];
+        for(int i = 0; i < words.length; i++) words[i] = word(random);
+
+        List<Artist> artists = new ArrayList<>();
+        for(int i = 0; i < 5000; i++) artists.add(new Artist(words[random.nextInt(words.length)] + " " + i, null));
+        List<Album> albums = new ArrayList<>();
+        for(int i = 0; i < 10000; i++)
+            albums.add(new Album(words[random.nextInt(words.length)] + " " + words[random.nextInt(words.length)],
+                    new Artist[]{artists.get(i % artists.size())}, null, null, 0));
+        List<Song> songs = new ArrayList<>();
+        for(int i = 0; i < 100_000; i++)
+        {
+            Album album = albums.get(i % albums.size());
+            String name = words[random.nextInt(words.length)] + " " + words[random.nextInt(words.length)] + " " + words[random.nextInt(words.length)];
+            songs.add(song(name, album, album.getArtists()[0]));
+        }
+
+        SearchIndex index = SearchIndex.build(songs, Collections.<Song>emptyList(), albums, artists);
+
+        String[] queries = new String[200];
+        for(int i = 0; i < queries.length; i++)
+        {
+            String w = words[random.nextInt(words.length)];
+            queries[i] = i % 2 == 0 ? w.substring(0, 3) : w + " " + words[random.nextInt(words.length)].substring(0, 2);
+        }
+
+        //Warm up
+        for(String query : queries) index.search(query, 200);
+
+        long start = System.nanoTime();
+        int found = 0;
+        for(String query : queries) found += index.search(query, 200).songs.size();
+        long averageMs = (System.nanoTime() - start) / queries.length / 1_000_000;
+
+        assertTrue(found > 0);
+        assertTrue("Average search took " + averageMs + "ms", averageMs < 10);
+    }
+
+    private static Song song(String name, Album album, Artist artist)
+    {
+        return new Song(name, album, new Artist[]{artist}, 1);
+    }
+
+    private static String word(Random random)
+    {
+        char[] chars = new char[4 + random.nextInt(6)];
+        for(int i = 0; i < chars.length; i++) chars[i] = (char) ('a' + random.nextInt(26));
+        return new String(chars);
+    }
+}
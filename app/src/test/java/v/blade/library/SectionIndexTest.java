@@ -0,0 +1,52 @@
+package v.blade.library;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SectionIndexTest
+{
+    @Test
+    public void indexesSortedNames()
+    {
+        List<Artist> artists = new ArrayList<>();
+        for(String name : Arrays.asList("abba", "\u00c9dith Piaf", "50 Cent", "Adele", "eagles", "Zaz", "(hed) p.e."))
+            artists.add(new Artist(name, null));
+        Collections.sort(artists, LibraryObject.BY_NAME);
+
+        SectionIndex sections = SectionIndex.build(artists);
+        assertArrayEquals(new String[]{"#", "A", "E", "Z"}, sections.getSections());
+        assertEquals(0, sections.getPositionForSection(0));
+        assertEquals(2, sections.getPositionForSection(1));
+        assertEquals(4, sections.getPositionForSection(2));
+        assertEquals(6, sections.getPositionForSection(3));
+
+        assertEquals(0, sections.getSectionForPosition(1));
+        assertEquals(1, sections.getSectionForPosition(3));
+        assertEquals(2, sections.getSectionForPosition(4));
+        assertEquals(3, sections.getSectionForPosition(6));
+        assertEquals(3, sections.getSectionForPosition(100));
+        assertEquals(-1, SectionIndex.build(Collections.<Artist>emptyList()).getSectionForPosition(0));
+    }
+
+    @Test
+    public void indexesSongsByOrder()
+    {
+        Artist zed = new Artist("Zed", null);
+        Album album = new Album("Best Of", new Artist[]{zed}, null, null, 0);
+        List<Song> songs = Arrays.asList(new Song("Alpha", album, new Artist[]{zed}, 1),
+                new Song("Bravo", album, new Artist[]{zed}, 2));
+
+        assertArrayEquals(new String[]{"A", "B"}, SectionIndex.build(songs, SongOrderings.Order.TITLE).getSections());
+        assertArrayEquals(new String[]{"Z"}, SectionIndex.build(songs, SongOrderings.Order.ARTIST).getSections());
+        assertArrayEquals(new String[]{"B"}, SectionIndex.build(songs, SongOrderings.Order.ALBUM).getSections());
+        assertNull(SectionIndex.build(songs, SongOrderings.Order.DATE_ADDED));
+    }
+}
@@ -0,0 +1,115 @@
+package v.blade.library;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class SongOrderingsTest
+{
+    @Test
+    public void ordersSongs()
+    {
+        Artist big = new Artist("Zed", null);
+        Artist small = new Artist("Abba", null);
+        Album bigAlbum = new Album("Best Of", new Artist[]{big}, null, null, 0);
+        Album smallAlbum = new Album("Arrival", new Artist[]{small}, null, null, 0);
+        Song b2 = song("Bravo", bigAlbum, big, 2, 30);
+        Song b1 = song("Charlie", bigAlbum, big, 1, 10);
+        Song s1 = song("Alpha", smallAlbum, small, 1, 20);
+
+        SongOrderings orderings = new SongOrderings();
+        for(Song s : Arrays.asList(b2, b1, s1)) orderings.add(s);
+
+        assertEquals(Arrays.asList(s1, b2, b1), orderings.songs(SongOrderings.Order.TITLE));
+        assertEquals(Arrays.asList(s1, b1, b2), orderings.songs(SongOrderings.Order.ARTIST));
+        assertEquals(Arrays.asList(s1, b1, b2), orderings.songs(SongOrderings.Order.ALBUM));
+        assertEquals(Arrays.asList(b1, b2, s1), orderings.songs(SongOrderings.Order.TRACK_COUNT));
+        assertEquals(Arrays.asList(b2, s1, b1), orderings.songs(SongOrderings.Order.DATE_ADDED));
+
+        //Unchanged : same view
+        List<Song> titles = orderings.songs(SongOrderings.Order.TITLE);
+        assertSame(titles, orderings.songs(SongOrderings.Order.TITLE));
+
+        //Changes do not affect previous views ; a new artist song moves the artist in TRACK_COUNT
+        Song s2 = song("Delta", smallAlbum, small, 2, 40);
+        Song s3 = song("Echo", smallAlbum, small, 3, 50);
+        orderings.add(s2);
+        orderings.add(s3);
+        orderings.remove(b2);
+        big.decrementTrackCount();
+        assertEquals(Arrays.asList(s1, b2, b1), titles);
+        assertEquals(Arrays.asList(s1, b1, s2, s3), orderings.songs(SongOrderings.Order.TITLE));
+        assertEquals(Arrays.asList(s1, s2, s3, b1), orderings.songs(SongOrderings.Order.TRACK_COUNT));
+        assertEquals(Arrays.asList(s3, s2, s1, b1), orderings.songs(SongOrderings.Order.DATE_ADDED));
+    }
+
+    @Test
+    public void incrementalMergesMatchFullSort()
+    {
+        Random random = new Random(7);
+        List<Artist> artists = new ArrayList<>();
+        List<Album> albums = new ArrayList<>();
+        for(int i = 0; i < 50; i++)
+        {
+            Artist artist = new Artist("artist " + random.nextInt(1000), null);
+            artists.add(artist);
+            albums.add(new Album("album " + random.nextInt(1000), new Artist[]{artist}, null, null, 0));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        SongOrderings incremental = new SongOrderings();
+        List<Song> library = new ArrayList<>();
+        for(int round = 0; round < 20; round++)
+        {
+            for(int i = 0; i < 200; i++)
+            {
+                int a = random.nextInt(albums.size());
+                Song song = song("song " + random.nextInt(5000) + " " + round + "." + i, albums.get(a), artists.get(a),
+                        random.nextInt(20), random.nextInt(100));
+                library.add(song);
+                incremental.add(song);
+            }
+            //Remove a lot, so that slots are compacted at some point
+            for(int i = 0; i < 150; i++)
+            {
+                Song song = library.remove(random.nextInt(library.size()));
+                song.artists[0].decrementTrackCount();
+                incremental.remove(song);
+            }
+            incremental.merge(round % 2 == 0 ? executor : null);
+        }
+        executor.shutdown();
+
+        SongOrderings full = new SongOrderings();
+        for(Song song : library) full.add(song);
+        for(SongOrderings.Order order : SongOrderings.Order.values())
+        {
+            List<Song> expected = full.songs(order);
+            List<Song> actual = incremental.songs(order);
+            assertEquals(library.size(), actual.size());
+            //Ties are broken by slot, which differs : compare the keys
+            for(int i = 0; i < expected.size(); i++)
+            {
+                assertEquals(order + " at " + i, expected.get(i).getName(), actual.get(i).getName());
+                assertEquals(order + " at " + i, expected.get(i).getAlbum(), actual.get(i).getAlbum());
+                assertEquals(order + " at " + i, expected.get(i).getAddedAt(), actual.get(i).getAddedAt());
+            }
+        }
+    }
+
+    private static Song song(String name, Album album, Artist artist, int track, long addedAt)
+    {
+        Song song = new Song(name, album, new Artist[]{artist}, track);
+        song.added_at = addedAt;
+        artist.incrementTrackCount();
+        return song;
+    }
+}
@@ -0,0 +1,99 @@
+package v.blade.library;
+
+import androidx.fragment.app.Fragment;
+
+import com.google.gson.JsonObject;
+
+import org.junit.Test;
+
+import v.blade.BladeApplication;
+import v.blade.sources.Source;
+import v.blade.ui.ExploreFragment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+public class SongSourcesTest
+{
+    @Test
+    public void resyncUpdatesSourceId()
+    {
+        Library.reset();
+        Source source = new FakeSource();
+
+        Song song = addSong(source, "old");
+        Song resynced = addSong(source, "new");
+
+        assertSame(song, resynced);
+        assertEquals(1, song.getSources().size());
+        assertEquals("new", song.getSources().get(0).id);
+    }
+
+    @Test
+    public void handleKeepsLibrarySourceId()
+    {
+        Library.reset();
+        Source source = new FakeSource();
+
+        Song song = addSong(source, "library");
+        Library.addSongHandle("Title", "Album", new String[]{"Artist"}, source, "handle", new String[]{"Artist"},
+                null, 1, new String[1], new String[1], null, 0);
+
+        assertEquals(1, song.getSources().size());
+        assertEquals("library", song.getSources().get(0).id);
+        assertFalse(song.getSources().get(0).handled);
+    }
+
+    private static Song addSong(Source source, Object id)
+    {
+        return Library.addSong("Title", "Album", new String[]{"Artist"}, source, id, new String[]{"Artist"},
+                null, 1, new String[1], new String[1], null, 0);
+    }
+
+    private static class FakeSource extends Source
+    {
+        @Override
+        public int getImageResource()
+        {
+            return 0;
+        }
+
+        @Override
+        public void synchronizeLibrary()
+        {
+        }
+
+        @Override
+        public Fragment getSettingsFragment()
+        {
+            return null;
+        }
+
+        @Override
+        public JsonObject saveToJSON()
+        {
+            return new JsonObject();
+        }
+
+        @Override
+        public void restoreFromJSON(JsonObject jsonObject)
+        {
+        }
+
+        @Override
+        public void explore(ExploreFragment view)
+        {
+        }
+
+        @Override
+        public void exploreSearch(String query, ExploreFragment view)
+        {
+        }
+
+        @Override
+        public void createPlaylist(String name, BladeApplication.Callback<Playlist> callback, Runnable failureCallback)
+        {
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package v.blade.sources;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MutationOutboxTest
+{
+    @Test
+    public void coalescesAndBatchesMutations() throws InterruptedException
+    {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        CountDownLatch gate = blockExecutor(executor);
+        FakeSender sender = new FakeSender();
+        MutationOutbox outbox = new MutationOutbox(sender, () -> {}, executor);
+
+        outbox.enqueue(MutationOutbox.OP_LIBRARY_ADD, null, Arrays.asList("a", "b", "c"));
+        //Cancels the add of b
+        outbox.enqueue(MutationOutbox.OP_LIBRARY_REMOVE, null, Collections.singletonList("b"));
+        //Already queued
+        outbox.enqueue(MutationOutbox.OP_LIBRARY_ADD, null, Collections.singletonList("a"));
+        outbox.enqueue(MutationOutbox.OP_PLAYLIST_ADD, "pl", items("s", 150));
+        //Independent from the playlist : joins the first library batch
+        outbox.enqueue(MutationOutbox.OP_LIBRARY_ADD, null, Collections.singletonList("d"));
+        //Cancels the add of s3
+        outbox.enqueue(MutationOutbox.OP_PLAYLIST_REMOVE, "pl", Collections.singletonList("s3"));
+        //Removing then adding back is not a no-op in a playlist (it moves to the end)
+        outbox.enqueue(MutationOutbox.OP_PLAYLIST_REMOVE, "other", Collections.singletonList("x"));
+        outbox.enqueue(MutationOutbox.OP_PLAYLIST_ADD, "other", Collections.singletonList("x"));
+
+        gate.countDown();
+        assertTrue(outbox.drain(5000));
+        executor.shutdown();
+
+        List<String> expectedFirstPage = items("s", 101);
+        expectedFirstPage.remove("s3");
+
+        assertEquals(5, sender.requests.size());
+        assertEquals("0 null [a, c, d]", sender.requests.get(0));
+        assertEquals("2 pl " + expectedFirstPage, sender.requests.get(1));
+        assertEquals("2 pl " + items("s", 150).subList(101, 150), sender.requests.get(2));
+        assertEquals("3 other [x]", sender.requests.get(3));
+        assertEquals("2 other [x]", sender.requests.get(4));
+    }
+
+    @Test
+    public void retriesWithBackoffAndFlushesOnDemand() throws InterruptedException
+    {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        FakeSender sender = new FakeSender();
+        sender.failures.set(1);
+        MutationOutbox outbox = new MutationOutbox(sender, () -> {}, executor);
+
+        outbox.enqueue(MutationOutbox.OP_LIBRARY_ADD, null, Arrays.asList("a", "b"));
+        assertTrue(sender.attempted.await(5, TimeUnit.SECONDS));
+
+        //Waiting for the backoff
+        Thread.sleep(200);
+        assertFalse(outbox.isEmpty());
+        assertTrue(sender.requests.isEmpty());
+
+        //Network is back
+        outbox.flush();
+        long deadline = System.currentTimeMillis() + 2000;
+        while(!outbox.isEmpty() && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        executor.shutdownNow();
+
+        assertTrue(outbox.isEmpty());
+        assertEquals(Collections.singletonList("0 null [a, b]"), sender.requests);
+    }
+
+    @Test
+    public void dropsRejectedMutations()
+    {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        FakeSender sender = new FakeSender();
+        sender.rejectedTarget = "deleted";
+        MutationOutbox outbox = new MutationOutbox(sender, () -> {}, executor);
+
+        outbox.enqueue(MutationOutbox.OP_PLAYLIST_ADD, "deleted", Collections.singletonList("a"));
+        outbox.enqueue(MutationOutbox.OP_PLAYLIST_ADD, "pl", Collections.singletonList("b"));
+        assertTrue(outbox.drain(5000));
+        executor.shutdown();
+
+        assertEquals(Collections.singletonList("2 pl [b]"), sender.requests);
+    }
+
+    @Test
+    public void survivesRestart() throws InterruptedException
+    {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        CountDownLatch gate = blockExecutor(executor);
+        AtomicInteger changes = new AtomicInteger();
+        MutationOutbox outbox = new MutationOutbox(new FakeSender(), changes::incrementAndGet, executor);
+
+        outbox.enqueue(MutationOutbox.OP_LIBRARY_REMOVE, null, Arrays.asList("a", "b"));
+        outbox.enqueue(MutationOutbox.OP_PLAYLIST_ADD, "pl", Collections.singletonList("c"));
+        assertEquals(2, changes.get());
+
+        FakeSender sender = new FakeSender();
+        MutationOutbox restored = new MutationOutbox(sender, () -> {}, executor);
+        restored.restoreFromJSON(outbox.toJSON());
+        gate.countDown();
+        assertTrue(restored.drain(5000));
+        executor.shutdownNow();
+
+        assertEquals(Arrays.asList("1 null [a, b]", "2 pl [c]"), sender.requests);
+    }
+
+    private static CountDownLatch blockExecutor(ScheduledThreadPoolExecutor executor)
+    {
+        CountDownLatch gate = new CountDownLatch(1);
+        executor.execute(() ->
+        {
+            try
+            {
+                gate.await();
+            }
+            catch(InterruptedException ignored)
+            {
+            }
+        });
+        return gate;
+    }
+
+    private static List<String> items(String prefix, int count)
+    {
+        List<String> items = new ArrayList<>();
+        for(int i = 0; i < count; i++) items.add(prefix + i);
+        return items;
+    }
+
+    private static class FakeSender implements MutationOutbox.Sender
+    {
+        final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger failures = new AtomicInteger();
+        final CountDownLatch attempted = new CountDownLatch(1);
+        String rejectedTarget;
+
+        @Override
+        public int batchSize(int op)
+        {
+            return op == MutationOutbox.OP_LIBRARY_ADD || op == MutationOutbox.OP_LIBRARY_REMOVE ? 50 : 100;
+        }
+
+        @Override
+        public MutationOutbox.Result send(int op, String target, List<String> items) throws IOException
+        {
+            attempted.countDown();
+            if(failures.getAndDecrement() > 0) throw new IOException("offline");
+            if(target != null && target.equals(rejectedTarget)) return MutationOutbox.Result.REJECTED;
+
+            requests.add(op + " " + target + " " + items);
+            return MutationOutbox.Result.SENT;
+        }
+    }
+}
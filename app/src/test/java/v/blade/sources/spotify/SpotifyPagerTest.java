@@ -0,0 +1,271 @@
+package v.blade.sources.spotify;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.ResponseBody;
+import okio.Timeout;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SpotifyPagerTest
+{
+    private static final int LIMIT = 50;
+
+    @Test
+    public void fetchesEveryPageInOrderWithBoundedConcurrency() throws IOException
+    {
+        FakeServer server = new FakeServer(1234, 30);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        SpotifyPager pager = new SpotifyPager(executor, 3);
+
+        final List<Integer> offsets = new ArrayList<>();
+        final List<String> items = new ArrayList<>();
+        boolean ok = pager.fetchAll(server::page, LIMIT, page ->
+        {
+            offsets.add(page.offset);
+            for(String item : page.items) items.add(item);
+            return true;
+        });
+        executor.shutdown();
+
+        assertTrue(ok);
+        assertEquals(25, offsets.size());
+        for(int i = 0; i < offsets.size(); i++) assertEquals(i * LIMIT, (int) offsets.get(i));
+        assertEquals(1234, items.size());
+        for(int i = 0; i < items.size(); i++) assertEquals("item" + i, items.get(i));
+
+        assertEquals(25, server.requests.get());
+        assertTrue("Pages were not fetched concurrently", server.maxInFlight.get() > 1);
+        assertTrue("More than 3 pages were in flight", server.maxInFlight.get() <= 3);
+    }
+
+    @Test
+    public void stopsWhenConsumerStops() throws IOException
+    {
+        FakeServer server = new FakeServer(10_000, 10);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        SpotifyPager pager = new SpotifyPager(executor, 2);
+
+        final AtomicInteger pages = new AtomicInteger();
+        boolean ok = pager.fetchAll(server::page, LIMIT, page -> pages.incrementAndGet() < 3);
+        executor.shutdown();
+
+        assertTrue(ok);
+        assertEquals(3, pages.get());
+        //Only the window after the last consumed page can have been requested
+        assertTrue(server.requests.get() <= 5);
+    }
+
+    @Test
+    public void rampUpFetchesFirstPageAlone() throws IOException
+    {
+        FakeServer server = new FakeServer(10_000, 10);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        SpotifyPager pager = new SpotifyPager(executor, 4);
+
+        //Stops on the first page (e.g. delta synchronization reaching the watermark)
+        boolean ok = pager.fetchAll(server::page, LIMIT, 0, true, page -> false);
+        assertTrue(ok);
+        assertEquals(1, server.requests.get());
+
+        //Stops on the second page : at most the next two pages were requested ahead
+        server.requests.set(0);
+        final AtomicInteger pages = new AtomicInteger();
+        ok = pager.fetchAll(server::page, LIMIT, 0, true, page -> pages.incrementAndGet() < 2);
+        executor.shutdown();
+
+        assertTrue(ok);
+        assertEquals(2, pages.get());
+        assertTrue(server.requests.get() <= 4);
+    }
+
+    @Test
+    public void waitsForRetryAfterWhenRateLimited() throws IOException
+    {
+        FakeServer server = new FakeServer(200, 0);
+        server.rateLimitedOffset = 100;
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        SpotifyPager pager = new SpotifyPager(executor, 4);
+
+        final List<Integer> offsets = new ArrayList<>();
+        long start = System.currentTimeMillis();
+        boolean ok = pager.fetchAll(server::page, LIMIT, page ->
+        {
+            offsets.add(page.offset);
+            return true;
+        });
+        long elapsed = System.currentTimeMillis() - start;
+        executor.shutdown();
+
+        assertTrue(ok);
+        assertEquals(4, offsets.size());
+        assertEquals(100, (int) offsets.get(2));
+        assertTrue("Retry-After was not respected (" + elapsed + "ms)", elapsed >= 1000);
+    }
+
+    @Test
+    public void reportsFailure() throws IOException
+    {
+        FakeServer server = new FakeServer(500, 0);
+        server.failingOffset = 150;
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        SpotifyPager pager = new SpotifyPager(executor, 4);
+
+        boolean ok = pager.fetchAll(server::page, LIMIT, page -> true);
+        executor.shutdown();
+
+        assertFalse(ok);
+    }
+
+    /**
+     * Stands in for the Spotify api : serves 'item0'...'itemN' pages, with some latency
+     */
+    private static class FakeServer
+    {
+        final int total;
+        final long latency;
+        int rateLimitedOffset = -1;
+        int failingOffset = -1;
+
+        final AtomicInteger requests = new AtomicInteger();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        private volatile boolean rateLimitSent = false;
+
+        FakeServer(int total, long latency)
+        {
+            this.total = total;
+            this.latency = latency;
+        }
+
+        Call<SpotifyService.PagingObject<String>> page(int offset)
+        {
+            return new FakeCall(this, offset);
+        }
+
+        Response<SpotifyService.PagingObject<String>> serve(int offset) throws IOException
+        {
+            requests.incrementAndGet();
+            int current = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(current, Math::max);
+            try
+            {
+                Thread.sleep(latency);
+            }
+            catch(InterruptedException e)
+            {
+                throw new IOException(e);
+            }
+            finally
+            {
+                inFlight.decrementAndGet();
+            }
+
+            if(offset == rateLimitedOffset && !rateLimitSent)
+            {
+                rateLimitSent = true;
+                return error(429, "1");
+            }
+            if(offset == failingOffset) return error(500, null);
+
+            SpotifyService.PagingObject<String> page = new SpotifyService.PagingObject<>();
+            page.offset = offset;
+            page.limit = LIMIT;
+            page.total = total;
+            int count = Math.max(0, Math.min(LIMIT, total - offset));
+            page.items = new String[count];
+            for(int i = 0; i < count; i++) page.items[i] = "item" + (offset + i);
+            return Response.success(page);
+        }
+
+        private static <T> Response<T> error(int code, String retryAfter)
+        {
+            okhttp3.Response.Builder raw = new okhttp3.Response.Builder()
+                    .code(code)
+                    .message("Error")
+                    .protocol(Protocol.HTTP_1_1)
+                    .request(new Request.Builder().url("http://localhost/").build());
+            if(retryAfter != null) raw.header("Retry-After", retryAfter);
+            //noinspection deprecation
+            return Response.error(ResponseBody.create(null, ""), raw.build());
+        }
+    }
+
+    private static class FakeCall implements Call<SpotifyService.PagingObject<String>>
+    {
+        private final FakeServer server;
+        private final int offset;
+        private boolean executed = false;
+        private boolean canceled = false;
+
+        FakeCall(FakeServer server, int offset)
+        {
+            this.server = server;
+            this.offset = offset;
+        }
+
+        @Override
+        public Response<SpotifyService.PagingObject<String>> execute() throws IOException
+        {
+            executed = true;
+            return server.serve(offset);
+        }
+
+        @Override
+        public void enqueue(Callback<SpotifyService.PagingObject<String>> callback)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isExecuted()
+        {
+            return executed;
+        }
+
+        @Override
+        public void cancel()
+        {
+            canceled = true;
+        }
+
+        @Override
+        public boolean isCanceled()
+        {
+            return canceled;
+        }
+
+        @SuppressWarnings("MethodDoesntCallSuperMethod")
+        @Override
+        public Call<SpotifyService.PagingObject<String>> clone()
+        {
+            return new FakeCall(server, offset);
+        }
+
+        @Override
+        public Request request()
+        {
+            return new Request.Builder().url("http://localhost/?offset=" + offset).build();
+        }
+
+        @Override
+        public Timeout timeout()
+        {
+            return Timeout.NONE;
+        }
+    }
+}